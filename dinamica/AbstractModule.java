@@ -190,6 +190,35 @@ public abstract class AbstractModule
 		
 		//ALL CODE PATCHED 2005-02-18 - encoding support
 		
+		String path = getResourcePath(fileName);
+		
+		//global encoding?
+		String encoding = getContext().getInitParameter("file-encoding");
+		if (encoding!=null && encoding.trim().equals(""))
+			encoding = null;
+		
+		//load resource with appropiate encoding if defined
+		if (_config.templateEncoding!=null)
+			encoding = _config.templateEncoding;
+		else if (encoding==null)
+			encoding = System.getProperty("file.encoding", "ISO8859_1");
+		
+		//patch 2010-07-02 - read the file only once, see ResourceCache
+		return ResourceCache.getInstance(_ctx).getResource(path, encoding);
+		
+	}
+
+	/**
+	 * Returns the path of a resource inside the context,
+	 * as used by getResource()
+	 * @param fileName Resource file name; if starts with "/" then
+	 * it is interpreted as a path relative to the context, otherwise
+	 * the Action's path is used. 
+	 * @return Path relative to the context
+	 */
+	public String getResourcePath(String fileName)
+	{
+		
 		String path = null;
 		
 		//relative to the context?
@@ -208,18 +237,7 @@ public abstract class AbstractModule
 			path = _config.path + fileName;
 		}
 		
-		//global encoding?
-		String encoding = getContext().getInitParameter("file-encoding");
-		if (encoding!=null && encoding.trim().equals(""))
-			encoding = null;
-		
-		//load resource with appropiate encoding if defined
-		if (_config.templateEncoding!=null)
-			return StringUtil.getResource(_ctx, path, _config.templateEncoding);
-		else if (encoding!=null)
-			return StringUtil.getResource(_ctx, path, encoding);
-		else
-			return StringUtil.getResource(_ctx, path);
+		return path;
 		
 	}
 
@@ -0,0 +1,420 @@
+package dinamica;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Cache of compiled Action configurations (config.xml) shared by all
+ * the Controller instances of a context. Each config.xml is read, parsed
+ * and compiled into a Config object only once, then every request receives
+ * a lightweight copy of it (see Config). The same applies to validator.xml,
+ * which is compiled into a ValidationPlan. The file timestamp is checked to
+ * reload the Action when these files change, the interval between checks
+ * is set with the context parameter <b>resource-check-interval</b> (seconds,
+ * 0 = check on every request (default), -1 = never check, for production sites).
+ * <br><br>
+ * The macro ${def:actionroot} is resolved when the Action is compiled, because it
+ * depends only on the Action path. Labels ${lbl:xxx} are resolved once per language.
+ * If config.xml contains labels combined with other request dependent markers
+ * (${def:xxx}, ${req:xxx} or ${ses:xxx}) then it is compiled on every request, as before.
+ * <br><br>
+ * The registry is published as a JMX MBean (dinamica:type=ActionRegistry,context=/xxx)
+ * with operations to reload one or all the Actions without restarting the context.
+ * <br>
+ * Creation date: 2010-06-14<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public class ActionRegistry implements ActionRegistryMBean
+{
+
+	/** context attribute used to store the registry */
+	static final String CONTEXT_ATTRIBUTE = "dinamica.action.registry";
+
+	/** servlet context */
+	ServletContext _ctx = null;
+
+	/** compiled files indexed by path (/WEB-INF/action/xxx/config.xml) */
+	ConcurrentHashMap<String, Entry> _actions = new ConcurrentHashMap<String, Entry>();
+
+	/** milliseconds between timestamp checks, -1 = never */
+	long _checkInterval = 0;
+
+	/** JMX name -if registered- */
+	ObjectName _name = null;
+
+	/** statistics */
+	AtomicLong _hits = new AtomicLong();
+	AtomicLong _misses = new AtomicLong();
+
+	/**
+	 * Compiled form of one config.xml or validator.xml file
+	 */
+	static class Entry
+	{
+		/** file contents with ${def:actionroot} already replaced */
+		String data = null;
+
+		/** compiled object when there are no labels */
+		Object compiled = null;
+
+		/** compiled object per language when there are labels */
+		ConcurrentHashMap<String, Object> compiledByLanguage = null;
+
+		/** true if it must be compiled on every request */
+		boolean dynamic = false;
+
+		/** timestamp of config.xml when loaded */
+		long lastModified = 0;
+
+		/** last time the timestamp was checked */
+		volatile long lastChecked = 0;
+
+		/** version of labels.xml used by compiledByLanguage */
+		volatile int labelsVersion = 0;
+	}
+
+	/**
+	 * Returns the registry of the context, creates it on first use
+	 * @param ctx Servlet context
+	 * @return The registry shared by all the Controllers of the context
+	 */
+	public static synchronized ActionRegistry getInstance(ServletContext ctx)
+	{
+		ActionRegistry r = (ActionRegistry)ctx.getAttribute(CONTEXT_ATTRIBUTE);
+		if (r==null)
+		{
+			r = new ActionRegistry(ctx);
+			ctx.setAttribute(CONTEXT_ATTRIBUTE, r);
+		}
+		return r;
+	}
+
+	/**
+	 * Remove the registry from the context and unregister the MBean
+	 * @param ctx Servlet context
+	 */
+	public static synchronized void release(ServletContext ctx)
+	{
+		ActionRegistry r = (ActionRegistry)ctx.getAttribute(CONTEXT_ATTRIBUTE);
+		if (r!=null)
+		{
+			ctx.removeAttribute(CONTEXT_ATTRIBUTE);
+			r.unregister();
+		}
+	}
+
+	/**
+	 * Returns the interval between timestamp checks of the resources
+	 * of the context, from the parameter resource-check-interval
+	 * @param ctx Servlet context
+	 * @return Milliseconds between checks, 0 = every time, -1 = never
+	 */
+	static long getCheckInterval(ServletContext ctx)
+	{
+		String interval = ctx.getInitParameter("resource-check-interval");
+		if (interval!=null && !interval.trim().equals(""))
+		{
+			int secs = Integer.parseInt(interval.trim());
+			if (secs < 0)
+				return -1;
+			else
+				return secs * 1000L;
+		}
+		return 0;
+	}
+
+	/**
+	 * Creates the registry and tries to register it as a JMX MBean
+	 * @param ctx Servlet context
+	 */
+	ActionRegistry(ServletContext ctx)
+	{
+		_ctx = ctx;
+		_checkInterval = getCheckInterval(ctx);
+
+		try
+		{
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("dinamica:type=ActionRegistry,context=" + ObjectName.quote(ctx.getContextPath()));
+			if (!mbs.isRegistered(name))
+			{
+				mbs.registerMBean(this, name);
+				_name = name;
+			}
+		}
+		catch (Throwable e)
+		{
+			ctx.log("[Dinamica] ActionRegistry could not be registered as a JMX MBean: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Unregister the JMX MBean
+	 */
+	void unregister()
+	{
+		if (_name!=null)
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(_name);
+			}
+			catch (Throwable e) {}
+			_name = null;
+		}
+	}
+
+	/**
+	 * Returns the configuration of an Action, ready to be used by the current request
+	 * @param req Servlet request
+	 * @param path Action path (/WEB-INF/action/xxx/)
+	 * @return Config object for this request or NULL if the Action does not exist
+	 * @throws Throwable If config.xml cannot be parsed
+	 */
+	public Config getConfig(HttpServletRequest req, String path) throws Throwable
+	{
+		Config c = (Config)getCompiled(req, path, "config.xml");
+		if (c==null)
+			return null;
+		else
+			return new Config(c);
+	}
+
+	/**
+	 * Returns the compiled validator.xml of an Action
+	 * @param req Servlet request
+	 * @param path Action path (/WEB-INF/action/xxx/)
+	 * @return Validation plan shared by all the requests of the Action
+	 * @throws Throwable If validator.xml does not exist or cannot be parsed
+	 */
+	public ValidationPlan getValidationPlan(HttpServletRequest req, String path) throws Throwable
+	{
+		ValidationPlan v = (ValidationPlan)getCompiled(req, path, "validator.xml");
+		if (v==null)
+			throw new Throwable("Invalid path to resource: " + path + "validator.xml");
+		return v;
+	}
+
+	/**
+	 * Compile a config.xml or validator.xml file
+	 * @param data File contents, all macros replaced
+	 * @param path Action path
+	 * @param fileName config.xml or validator.xml
+	 * @return Config or ValidationPlan object
+	 * @throws Throwable
+	 */
+	Object compile(String data, String path, String fileName) throws Throwable
+	{
+		if (fileName.equals("config.xml"))
+			return new Config(data, path);
+		else
+			return new ValidationPlan(data, path + fileName);
+	}
+
+	/**
+	 * Returns the compiled form of a file, for the language of the current user
+	 * if the file contains labels
+	 * @param req Servlet request
+	 * @param path Action path (/WEB-INF/action/xxx/)
+	 * @param fileName config.xml or validator.xml
+	 * @return Compiled object or NULL if the file does not exist
+	 * @throws Throwable
+	 */
+	Object getCompiled(HttpServletRequest req, String path, String fileName) throws Throwable
+	{
+
+		Entry e = getEntry(path, fileName);
+		if (e==null)
+			return null;
+
+		/* labels mixed with request dependent markers - compile every time */
+		if (e.dynamic)
+		{
+			TemplateEngine te = new TemplateEngine(_ctx, req, e.data);
+			te.replaceLabels();
+			return compile(te.toString(), path, fileName);
+		}
+
+		/* no labels */
+		if (e.compiled!=null)
+			return e.compiled;
+
+		/* one compiled object per language */
+		Locale locale = null;
+		HttpSession s = req.getSession(false);
+		if (s!=null)
+			locale = (Locale)s.getAttribute("dinamica.user.locale");
+
+		String language = null;
+		if (locale==null)
+			language = _ctx.getInitParameter("def-language");
+		else
+			language = locale.getLanguage();
+
+		if (language==null || language.equals(""))
+			throw new Throwable("Language not defined (User Locale or default language may be null)");
+
+		/* labels.xml was reloaded - discard the labels already replaced */
+		int version = Labels.getInstance(_ctx).getVersion();
+		if (e.labelsVersion != version)
+		{
+			e.compiledByLanguage.clear();
+			e.labelsVersion = version;
+		}
+
+		Object c = e.compiledByLanguage.get(language);
+		if (c==null)
+		{
+			TemplateEngine te = new TemplateEngine(_ctx, null, e.data);
+			if (locale!=null)
+				te.setLocale(locale);
+			else
+				te.replaceLabels();
+			c = compile(te.toString(), path, fileName);
+			e.compiledByLanguage.put(language, c);
+		}
+
+		return c;
+
+	}
+
+	/**
+	 * Returns the cache entry of a file, loads it the first time
+	 * or if the file was modified since it was loaded
+	 * @param path Action path (/WEB-INF/action/xxx/)
+	 * @param fileName config.xml or validator.xml
+	 * @return Cache entry or NULL if the file does not exist
+	 * @throws Throwable If the file cannot be parsed
+	 */
+	Entry getEntry(String path, String fileName) throws Throwable
+	{
+
+		String file = path + fileName;
+
+		Entry e = _actions.get(file);
+		if (e!=null)
+		{
+			if (!isModified(e, file))
+			{
+				_hits.incrementAndGet();
+				return e;
+			}
+			_actions.remove(file, e);
+		}
+
+		_misses.incrementAndGet();
+
+		/* read file */
+		long lastModified = StringUtil.getResourceLastModified(_ctx, file);
+		String data = null;
+		try {
+			data = StringUtil.getResource(_ctx, file);
+		} catch (Throwable notFound) {
+			return null;
+		}
+
+		e = new Entry();
+		e.lastModified = lastModified;
+		e.lastChecked = System.currentTimeMillis();
+
+		//replace ${def:actionroot}, it only depends on the Action path
+		if (data.indexOf("${def:actionroot}")>0) {
+			String actionPath = path.substring("/WEB-INF".length(), path.length() - 1);
+			actionPath = actionPath.substring(0, actionPath.lastIndexOf("/"));
+			data = StringUtil.replace(data, "${def:actionroot}", actionPath);
+		}
+		e.data = data;
+
+		if (data.indexOf("${lbl:")>0) {
+			/* labels are replaced by a TemplateEngine, which also replaces these markers */
+			if (data.indexOf("${def:")>0 || data.indexOf("${req:")>0 || data.indexOf("${ses:")>0)
+				e.dynamic = true;
+			else
+				e.compiledByLanguage = new ConcurrentHashMap<String, Object>();
+		} else {
+			e.compiled = compile(data, path, fileName);
+		}
+
+		_actions.put(file, e);
+		return e;
+
+	}
+
+	/**
+	 * Check the timestamp of a file according to the check interval
+	 * @param e Cache entry
+	 * @param file Path of the file
+	 * @return TRUE if the file was modified
+	 */
+	boolean isModified(Entry e, String file)
+	{
+		if (_checkInterval < 0)
+			return false;
+
+		long now = System.currentTimeMillis();
+		if (now - e.lastChecked < _checkInterval)
+			return false;
+		e.lastChecked = now;
+
+		return StringUtil.getResourceLastModified(_ctx, file) != e.lastModified;
+	}
+
+	/* MBean interface */
+
+	public void reload()
+	{
+		_actions.clear();
+		_ctx.log("[Dinamica] ActionRegistry: all Actions will be reloaded.");
+	}
+
+	public void reload(String path)
+	{
+		if (!path.startsWith("/WEB-INF"))
+			path = "/WEB-INF" + path;
+		if (!path.endsWith("/"))
+			path = path + "/";
+		_actions.remove(path + "config.xml");
+		_actions.remove(path + "validator.xml");
+		_ctx.log("[Dinamica] ActionRegistry: Action will be reloaded: " + path);
+	}
+
+	public int getActionCount()
+	{
+		int n = 0;
+		for (String file : _actions.keySet())
+		{
+			if (file.endsWith("config.xml"))
+				n++;
+		}
+		return n;
+	}
+
+	public long getHits()
+	{
+		return _hits.get();
+	}
+
+	public long getMisses()
+	{
+		return _misses.get();
+	}
+
+	public int getCheckInterval()
+	{
+		if (_checkInterval < 0)
+			return -1;
+		else
+			return (int)(_checkInterval / 1000);
+	}
+
+}
@@ -0,0 +1,48 @@
+package dinamica;
+
+/**
+ * JMX management interface of the ActionRegistry, allows
+ * operators to inspect the cache of compiled Action configurations
+ * and to force a reload without restarting the context.
+ * <br>
+ * Creation date: 2010-06-14<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public interface ActionRegistryMBean
+{
+
+	/**
+	 * Discard all the compiled configurations, they will be
+	 * loaded again on the next request of each Action
+	 */
+	public void reload();
+
+	/**
+	 * Discard the compiled configuration of a single Action
+	 * @param path Action path as it appears in the URI, like /action/customer/list
+	 */
+	public void reload(String path);
+
+	/**
+	 * Number of Actions currently in the cache
+	 */
+	public int getActionCount();
+
+	/**
+	 * Number of requests served with an already compiled config.xml or validator.xml
+	 */
+	public long getHits();
+
+	/**
+	 * Number of times a config.xml or validator.xml had to be read and parsed
+	 */
+	public long getMisses();
+
+	/**
+	 * Seconds between timestamp checks (0 = every request, -1 = never)
+	 */
+	public int getCheckInterval();
+
+}
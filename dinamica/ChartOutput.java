@@ -42,7 +42,7 @@ public class ChartOutput extends GenericOutput
 		
 		//load chart plugin
 		String plugin = (String)chartinfo.getValue("chart-plugin");
-		AbstractChartPlugin obj = (AbstractChartPlugin) Thread.currentThread().getContextClassLoader().loadClass(plugin).newInstance();
+		AbstractChartPlugin obj = (AbstractChartPlugin) ClassCache.getSharedInstance(plugin);
 		
 		JFreeChart chart = obj.getChart(chartinfo, data);
 			 		
@@ -0,0 +1,169 @@
+package dinamica;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates the objects of the classes configured by name (transactions,
+ * outputs, validators and plugins). Each class is loaded only once and its
+ * no-arguments constructor is kept in a cache, so there is no class lookup
+ * on every request; the cache is kept per web application because this class
+ * is loaded from WEB-INF/lib by the class loader of each application. The constructor
+ * must be accessible as it was for Class.newInstance(): public, or package-private
+ * for classes of this package.
+ * <br><br>
+ * Classes that implement IStateless are instantiated only once when
+ * requested with getSharedInstance(). A subclass of an IStateless class is shared
+ * only if it does not declare instance fields, the IStateless declaration of its parent
+ * does not cover its own state. The Controller clears the cache when the context is stopped.
+ * <br>
+ * Creation date: 2010-07-08<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public class ClassCache
+{
+
+	/** classes already loaded, indexed by class name */
+	private static ConcurrentHashMap<String, Entry> _cache = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * Constructor and shared instance of a class
+	 */
+	static class Entry
+	{
+		/** no-arguments constructor */
+		Constructor<?> constructor = null;
+
+		/** TRUE if the class is stateless and can be shared */
+		boolean stateless = false;
+
+		/** the only instance of an IStateless class */
+		volatile Object instance = null;
+	}
+
+	/**
+	 * Returns the cache entry of a class, loads the class on first use
+	 * @param className Name of class to load - include full package name
+	 * @throws Throwable If the class cannot be loaded or has no no-arguments constructor
+	 */
+	private static Entry getEntry(String className) throws Throwable
+	{
+
+		Entry e = _cache.get(className);
+		if (e!=null)
+			return e;
+
+		Class<?> c = Thread.currentThread().getContextClassLoader().loadClass(className);
+		e = new Entry();
+		try
+		{
+			//package-private constructors are accepted for the classes of this package, as Class.newInstance() did;
+			//the access is checked when the constructor is invoked
+			e.constructor = c.getDeclaredConstructor();
+		}
+		catch (NoSuchMethodException ex)
+		{
+			throw new InstantiationException(className);
+		}
+		e.stateless = isStateless(c);
+
+		Entry old = _cache.putIfAbsent(className, e);
+		return (old!=null) ? old : e;
+
+	}
+
+	/**
+	 * Returns TRUE if a class implements IStateless and neither the class nor its parents
+	 * below the class that implements IStateless declare instance fields
+	 * @param c Class
+	 */
+	private static boolean isStateless(Class<?> c)
+	{
+		for (Class<?> k = c; k!=null && IStateless.class.isAssignableFrom(k); k = k.getSuperclass())
+		{
+			Class<?> i[] = k.getInterfaces();
+			for (int j = 0; j < i.length; j++)
+			{
+				if (i[j]==IStateless.class)
+					return true;
+			}
+
+			Field f[] = k.getDeclaredFields();
+			for (int j = 0; j < f.length; j++)
+			{
+				if (!Modifier.isStatic(f[j].getModifiers()))
+					return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Create an object of a class
+	 * @param className Name of class to load - include full package name
+	 * @return New instance of the class
+	 * @throws Throwable If the class cannot be loaded or instantiated, or the exception thrown by its constructor
+	 */
+	public static Object newInstance(String className) throws Throwable
+	{
+		return newInstance(getEntry(className));
+	}
+
+	/**
+	 * Returns the only instance of a class that implements IStateless, creates it
+	 * on first use; for other classes, and for subclasses that declare instance fields,
+	 * a new instance is returned every time
+	 * @param className Name of class to load - include full package name
+	 * @return Instance of the class
+	 * @throws Throwable If the class cannot be loaded or instantiated, or the exception thrown by its constructor
+	 */
+	public static Object getSharedInstance(String className) throws Throwable
+	{
+
+		Entry e = getEntry(className);
+		if (!e.stateless)
+			return newInstance(e);
+
+		Object obj = e.instance;
+		if (obj==null)
+		{
+			//two threads may create an instance, both are valid
+			obj = newInstance(e);
+			e.instance = obj;
+		}
+		return obj;
+
+	}
+
+	/**
+	 * Invoke the constructor of a class
+	 * @param e Cache entry
+	 * @return New instance
+	 * @throws Throwable The exception thrown by the constructor
+	 */
+	private static Object newInstance(Entry e) throws Throwable
+	{
+		try
+		{
+			return e.constructor.newInstance();
+		}
+		catch (InvocationTargetException ex)
+		{
+			throw ex.getCause();
+		}
+	}
+
+	/**
+	 * Discard all the classes from the cache
+	 */
+	public static void clear()
+	{
+		_cache.clear();
+	}
+
+}
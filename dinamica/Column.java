@@ -0,0 +1,959 @@
+package dinamica;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * Utility class for Recordset: storage of the values of one column.
+ * The Recordset keeps its data by column instead of one HashMap per record,
+ * the column position is resolved once by name and then every value
+ * is read or written with a simple array index.
+ * <br>
+ * INTEGER, DOUBLE and DATE/TIMESTAMP/TIME fields are stored in primitive
+ * arrays (int[], long[], double[], epoch-millis long[]) plus a null bitmap,
+ * so totals and sorting don't need to unbox every value. Values are rebuilt
+ * as objects of the same class when read, so getValue() keeps returning what
+ * the JDBC driver returned. Implementations replace themselves by a more
+ * general one when they receive a value they cannot store exactly (a BigDecimal
+ * in a DOUBLE field, for example), that's why the methods that modify
+ * the column return the column that must be used from then on.
+ * <br>
+ * Creation date: 2010-06-21<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+abstract class Column implements Serializable
+{
+
+	private static final long serialVersionUID = 1L;
+
+	/** initial capacity */
+	static final int DEFAULT_CAPACITY = 16;
+
+	/** JDBC data type of the column (java.sql.Types) */
+	int _type = 0;
+
+	/** number of values stored */
+	int _size = 0;
+
+	/** TRUE if the column is also used by a cursor (see Recordset.newCursor()), the Recordset replaces it by a copy before changing it */
+	transient boolean _shared = false;
+
+	/** pages that read rows of this column (see Recordset.getPage()), null if there are none */
+	transient ArrayList<WeakReference<View>> _views = null;
+
+	/**
+	 * Create an empty column for a given JDBC type
+	 * @param type JDBC data type (java.sql.Types)
+	 * @param size Number of null values to store initially
+	 * @return New column
+	 */
+	static Column create(int type, int size)
+	{
+		int capacity = Math.max(size, DEFAULT_CAPACITY);
+		Column c = null;
+		switch (type)
+		{
+			case java.sql.Types.INTEGER:
+				c = new IntColumn(capacity);
+				break;
+				
+			case java.sql.Types.DOUBLE:
+				c = new DoubleColumn(capacity);
+				break;
+				
+			case java.sql.Types.DATE:
+			case java.sql.Types.TIMESTAMP:
+			case java.sql.Types.TIME:
+				c = new DateColumn(capacity);
+				break;
+				
+			default:
+				c = new ObjectColumn(capacity);
+		}
+		c._type = type;
+		for (int i = 0; i < size; i++)
+			c = c.add(null);
+		return c;
+	}
+
+	/**
+	 * Create an empty column able to store a given value
+	 * @param value Value that will be stored
+	 * @param capacity Initial capacity
+	 * @return New column
+	 */
+	static Column forValue(Object value, int capacity)
+	{
+		capacity = Math.max(capacity, DEFAULT_CAPACITY);
+		if (value instanceof Integer)
+			return new IntColumn(capacity);
+		else if (value instanceof Long)
+			return new LongColumn(capacity);
+		else if (value instanceof Double)
+			return new DoubleColumn(capacity);
+		else if (DateColumn.isSupported(value))
+			return new DateColumn(capacity);
+		else
+			return new ObjectColumn(capacity);
+	}
+
+	/**
+	 * Number of values stored in the column
+	 */
+	int size()
+	{
+		return _size;
+	}
+
+	/**
+	 * Returns the value of a row as an object
+	 * @param row Row number (0...N-1)
+	 * @return Value or null
+	 */
+	abstract Object get(int row);
+
+	/**
+	 * Tests if the value of a row is null
+	 * @param row Row number (0...N-1)
+	 */
+	abstract boolean isNull(int row);
+
+	/**
+	 * Append a value at the end of the column
+	 * @param value Value or null
+	 * @return The column to use from now on
+	 */
+	abstract Column add(Object value);
+
+	/**
+	 * Replace the value of a row
+	 * @param row Row number (0...N-1)
+	 * @param value Value or null
+	 * @return The column to use from now on
+	 */
+	abstract Column set(int row, Object value);
+
+	/**
+	 * Remove a row, following rows are shifted one position
+	 * @param row Row number (0...N-1)
+	 */
+	abstract void remove(int row);
+
+	/**
+	 * Rearrange the rows, the new row i will contain the old row order[i]
+	 * @param order Permutation of the row numbers
+	 */
+	abstract void reorder(int[] order);
+
+	/**
+	 * Returns a new column containing a range of rows of this column
+	 * @param from First row (inclusive)
+	 * @param to Last row (exclusive)
+	 * @return New column
+	 */
+	abstract Column copy(int from, int to);
+
+	/**
+	 * Compare the values of two rows, both values must be not null
+	 * @param r1 Row number
+	 * @param r2 Row number
+	 * @return Negative, zero or positive as in Comparable.compareTo()
+	 */
+	abstract int compare(int r1, int r2);
+
+	/**
+	 * Register a page that reads rows of this column, the pages
+	 * already discarded are forgotten
+	 * @param v View
+	 */
+	void addView(View v)
+	{
+		if (_views==null)
+			_views = new ArrayList<WeakReference<View>>(2);
+		for (int i = _views.size() - 1; i >= 0; i--)
+		{
+			if (_views.get(i).get()==null)
+				_views.remove(i);
+		}
+		_views.add(new WeakReference<View>(v));
+	}
+
+	/**
+	 * Called before a range of rows is changed: the pages that read
+	 * any of those rows copy their own rows, so they keep the values they
+	 * had when they were created; the other pages keep reading this column
+	 * @param from First row (inclusive)
+	 * @param to Last row (exclusive)
+	 */
+	void detachViews(int from, int to)
+	{
+		if (_views==null)
+			return;
+		for (int i = _views.size() - 1; i >= 0; i--)
+		{
+			View v = _views.get(i).get();
+			if (v==null || v._detached)
+			{
+				_views.remove(i);
+			}
+			else if (from < v._offset + v._size && v._offset < to)
+			{
+				v.detach();
+				_views.remove(i);
+			}
+		}
+		if (_views.isEmpty())
+			_views = null;
+	}
+
+	/**
+	 * Returns the capacity to use when the storage must grow
+	 * @param capacity Current capacity
+	 */
+	static int grow(int capacity)
+	{
+		return capacity + (capacity >> 1) + 1;
+	}
+
+	/**
+	 * Column that keeps every value as an object,
+	 * valid for any data type
+	 */
+	static class ObjectColumn extends Column
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		Object _values[] = null;
+
+		ObjectColumn(int capacity)
+		{
+			_values = new Object[capacity];
+		}
+
+		Object get(int row)
+		{
+			return _values[row];
+		}
+
+		boolean isNull(int row)
+		{
+			return _values[row]==null;
+		}
+
+		Column add(Object value)
+		{
+			if (_size == _values.length)
+			{
+				Object x[] = new Object[grow(_values.length)];
+				System.arraycopy(_values, 0, x, 0, _size);
+				_values = x;
+			}
+			_values[_size++] = value;
+			return this;
+		}
+
+		Column set(int row, Object value)
+		{
+			_values[row] = value;
+			return this;
+		}
+
+		void remove(int row)
+		{
+			System.arraycopy(_values, row + 1, _values, row, _size - row - 1);
+			_values[--_size] = null;
+		}
+
+		void reorder(int[] order)
+		{
+			Object x[] = new Object[_values.length];
+			for (int i = 0; i < _size; i++)
+				x[i] = _values[order[i]];
+			_values = x;
+		}
+
+		Column copy(int from, int to)
+		{
+			ObjectColumn c = new ObjectColumn(Math.max(to - from, DEFAULT_CAPACITY));
+			c._type = _type;
+			System.arraycopy(_values, from, c._values, 0, to - from);
+			c._size = to - from;
+			return c;
+		}
+
+		@SuppressWarnings("unchecked")
+		int compare(int r1, int r2)
+		{
+			return ((Comparable<Object>)_values[r1]).compareTo(_values[r2]);
+		}
+
+	}
+
+	/**
+	 * Base class for columns stored in primitive arrays,
+	 * null values are kept in a bitmap
+	 */
+	static abstract class PrimitiveColumn extends Column
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		/** one bit per row, set if the value is null */
+		long _nulls[] = null;
+
+		PrimitiveColumn(int capacity)
+		{
+			_nulls = new long[(capacity >> 6) + 1];
+		}
+
+		/** current capacity of the value array */
+		abstract int capacity();
+
+		/** resize the value array */
+		abstract void resize(int capacity);
+
+		/** true if the value can be stored exactly in this column */
+		abstract boolean accepts(Object value);
+
+		/** store a not null, accepted value */
+		abstract void store(int row, Object value);
+
+		/** rebuild the object for a not null value */
+		abstract Object box(int row);
+
+		/** move the value of row "from" to row "to" */
+		abstract void move(int from, int to);
+
+		/** returns an empty column of the same class */
+		abstract PrimitiveColumn newColumn(int capacity);
+
+		boolean isNull(int row)
+		{
+			return (_nulls[row >> 6] & (1L << row)) != 0;
+		}
+
+		void setNull(int row, boolean isNull)
+		{
+			if (isNull)
+				_nulls[row >> 6] |= (1L << row);
+			else
+				_nulls[row >> 6] &= ~(1L << row);
+		}
+
+		Object get(int row)
+		{
+			if (isNull(row))
+				return null;
+			else
+				return box(row);
+		}
+
+		Column add(Object value)
+		{
+			if (value!=null && !accepts(value))
+				return widen(value).add(value);
+
+			if (_size == capacity())
+			{
+				int capacity = grow(capacity());
+				resize(capacity);
+				long x[] = new long[(capacity >> 6) + 1];
+				System.arraycopy(_nulls, 0, x, 0, _nulls.length);
+				_nulls = x;
+			}
+			
+			int row = _size++;
+			if (value==null)
+			{
+				setNull(row, true);
+			}
+			else
+			{
+				setNull(row, false);
+				store(row, value);
+			}
+			return this;
+		}
+
+		Column set(int row, Object value)
+		{
+			if (value!=null && !accepts(value))
+				return widen(value).set(row, value);
+
+			if (value==null)
+			{
+				setNull(row, true);
+			}
+			else
+			{
+				setNull(row, false);
+				store(row, value);
+			}
+			return this;
+		}
+
+		void remove(int row)
+		{
+			for (int i = row; i < _size - 1; i++)
+			{
+				move(i + 1, i);
+				setNull(i, isNull(i + 1));
+			}
+			setNull(--_size, false);
+		}
+
+		void reorder(int[] order)
+		{
+			//patch 2010-07-15 - move the primitive values, no object per row
+			long nulls[] = new long[_nulls.length];
+			for (int i = 0; i < _size; i++)
+			{
+				if (isNull(order[i]))
+					nulls[i >> 6] |= (1L << i);
+			}
+			reorderValues(order);
+			_nulls = nulls;
+		}
+
+		Column copy(int from, int to)
+		{
+			int n = to - from;
+			PrimitiveColumn c = newColumn(Math.max(n, DEFAULT_CAPACITY));
+			c._type = _type;
+			copyValues(from, c, n);
+			for (int i = 0; i < n; i++)
+			{
+				if (isNull(from + i))
+					c.setNull(i, true);
+			}
+			c._size = n;
+			return c;
+		}
+
+		/**
+		 * Rearrange the value array, the new row i will contain the old row order[i]
+		 * @param order Permutation of the row numbers
+		 */
+		abstract void reorderValues(int[] order);
+
+		/**
+		 * Copy values to the first rows of an empty column of the same class
+		 * @param from First row to copy
+		 * @param c Destination column
+		 * @param n Number of rows
+		 */
+		abstract void copyValues(int from, PrimitiveColumn c, int n);
+
+		/**
+		 * Returns a column that can store all the current values and a
+		 * value that this column does not accept
+		 * @param value New value
+		 * @return New column
+		 */
+		Column widen(Object value)
+		{
+			
+			boolean empty = true;
+			for (int i = 0; i < _size; i++)
+			{
+				if (!isNull(i))
+				{
+					empty = false;
+					break;
+				}
+			}
+
+			/* no values yet: use the best column for the new value */
+			Column c = null;
+			if (empty)
+				c = forValue(value, capacity());
+			else
+				c = new ObjectColumn(capacity());
+			c._type = _type;
+
+			for (int i = 0; i < _size; i++)
+				c = c.add(get(i));
+			return c;
+			
+		}
+
+	}
+
+	/**
+	 * Base class for numeric columns, provides
+	 * direct access to the values without creating objects
+	 */
+	static abstract class NumericColumn extends PrimitiveColumn
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		NumericColumn(int capacity)
+		{
+			super(capacity);
+		}
+
+		/** value of a not null row */
+		abstract double doubleValue(int row);
+
+	}
+
+	/**
+	 * Column of Integer values
+	 */
+	static class IntColumn extends NumericColumn
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		int _values[] = null;
+
+		IntColumn(int capacity)
+		{
+			super(capacity);
+			_values = new int[capacity];
+		}
+
+		int capacity()
+		{
+			return _values.length;
+		}
+
+		void resize(int capacity)
+		{
+			int x[] = new int[capacity];
+			System.arraycopy(_values, 0, x, 0, _size);
+			_values = x;
+		}
+
+		boolean accepts(Object value)
+		{
+			return value instanceof Integer;
+		}
+
+		void store(int row, Object value)
+		{
+			_values[row] = ((Integer)value).intValue();
+		}
+
+		Object box(int row)
+		{
+			return Integer.valueOf(_values[row]);
+		}
+
+		void move(int from, int to)
+		{
+			_values[to] = _values[from];
+		}
+
+		PrimitiveColumn newColumn(int capacity)
+		{
+			return new IntColumn(capacity);
+		}
+
+		void reorderValues(int[] order)
+		{
+			int x[] = new int[_values.length];
+			for (int i = 0; i < _size; i++)
+				x[i] = _values[order[i]];
+			_values = x;
+		}
+
+		void copyValues(int from, PrimitiveColumn c, int n)
+		{
+			System.arraycopy(_values, from, ((IntColumn)c)._values, 0, n);
+		}
+
+		int compare(int r1, int r2)
+		{
+			int x1 = _values[r1];
+			int x2 = _values[r2];
+			return (x1 < x2) ? -1 : ((x1 == x2) ? 0 : 1);
+		}
+
+		double doubleValue(int row)
+		{
+			return _values[row];
+		}
+
+		/** value of a not null row */
+		int intValue(int row)
+		{
+			return _values[row];
+		}
+
+	}
+
+	/**
+	 * Column of Long values
+	 */
+	static class LongColumn extends NumericColumn
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		long _values[] = null;
+
+		LongColumn(int capacity)
+		{
+			super(capacity);
+			_values = new long[capacity];
+		}
+
+		int capacity()
+		{
+			return _values.length;
+		}
+
+		void resize(int capacity)
+		{
+			long x[] = new long[capacity];
+			System.arraycopy(_values, 0, x, 0, _size);
+			_values = x;
+		}
+
+		boolean accepts(Object value)
+		{
+			return value instanceof Long;
+		}
+
+		void store(int row, Object value)
+		{
+			_values[row] = ((Long)value).longValue();
+		}
+
+		Object box(int row)
+		{
+			return Long.valueOf(_values[row]);
+		}
+
+		void move(int from, int to)
+		{
+			_values[to] = _values[from];
+		}
+
+		PrimitiveColumn newColumn(int capacity)
+		{
+			return new LongColumn(capacity);
+		}
+
+		void reorderValues(int[] order)
+		{
+			long x[] = new long[_values.length];
+			for (int i = 0; i < _size; i++)
+				x[i] = _values[order[i]];
+			_values = x;
+		}
+
+		void copyValues(int from, PrimitiveColumn c, int n)
+		{
+			System.arraycopy(_values, from, ((LongColumn)c)._values, 0, n);
+		}
+
+		int compare(int r1, int r2)
+		{
+			long x1 = _values[r1];
+			long x2 = _values[r2];
+			return (x1 < x2) ? -1 : ((x1 == x2) ? 0 : 1);
+		}
+
+		double doubleValue(int row)
+		{
+			return _values[row];
+		}
+
+	}
+
+	/**
+	 * Column of Double values
+	 */
+	static class DoubleColumn extends NumericColumn
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		double _values[] = null;
+
+		DoubleColumn(int capacity)
+		{
+			super(capacity);
+			_values = new double[capacity];
+		}
+
+		int capacity()
+		{
+			return _values.length;
+		}
+
+		void resize(int capacity)
+		{
+			double x[] = new double[capacity];
+			System.arraycopy(_values, 0, x, 0, _size);
+			_values = x;
+		}
+
+		boolean accepts(Object value)
+		{
+			return value instanceof Double;
+		}
+
+		void store(int row, Object value)
+		{
+			_values[row] = ((Double)value).doubleValue();
+		}
+
+		Object box(int row)
+		{
+			return Double.valueOf(_values[row]);
+		}
+
+		void move(int from, int to)
+		{
+			_values[to] = _values[from];
+		}
+
+		PrimitiveColumn newColumn(int capacity)
+		{
+			return new DoubleColumn(capacity);
+		}
+
+		void reorderValues(int[] order)
+		{
+			double x[] = new double[_values.length];
+			for (int i = 0; i < _size; i++)
+				x[i] = _values[order[i]];
+			_values = x;
+		}
+
+		void copyValues(int from, PrimitiveColumn c, int n)
+		{
+			System.arraycopy(_values, from, ((DoubleColumn)c)._values, 0, n);
+		}
+
+		int compare(int r1, int r2)
+		{
+			return Double.compare(_values[r1], _values[r2]);
+		}
+
+		double doubleValue(int row)
+		{
+			return _values[row];
+		}
+
+	}
+
+	/**
+	 * Column of dates stored as milliseconds since the epoch, all
+	 * the values must be of the same class (java.util.Date, java.sql.Date,
+	 * java.sql.Time or java.sql.Timestamp without sub-millisecond nanos)
+	 */
+	static class DateColumn extends PrimitiveColumn
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		long _values[] = null;
+
+		/** class of the stored values, null until the first value is stored */
+		Class<?> _class = null;
+
+		DateColumn(int capacity)
+		{
+			super(capacity);
+			_values = new long[capacity];
+		}
+
+		/**
+		 * Tests if a value can be rebuilt exactly from its milliseconds
+		 * @param value Value
+		 */
+		static boolean isSupported(Object value)
+		{
+			if (value==null)
+				return false;
+			Class<?> c = value.getClass();
+			if (c==java.sql.Timestamp.class)
+				return ((java.sql.Timestamp)value).getNanos() % 1000000 == 0;
+			return c==java.util.Date.class || c==java.sql.Date.class || c==java.sql.Time.class;
+		}
+
+		int capacity()
+		{
+			return _values.length;
+		}
+
+		void resize(int capacity)
+		{
+			long x[] = new long[capacity];
+			System.arraycopy(_values, 0, x, 0, _size);
+			_values = x;
+		}
+
+		boolean accepts(Object value)
+		{
+			return isSupported(value) && (_class==null || _class==value.getClass());
+		}
+
+		void store(int row, Object value)
+		{
+			if (_class==null)
+				_class = value.getClass();
+			_values[row] = ((java.util.Date)value).getTime();
+		}
+
+		Object box(int row)
+		{
+			long t = _values[row];
+			if (_class==java.sql.Timestamp.class)
+				return new java.sql.Timestamp(t);
+			else if (_class==java.sql.Date.class)
+				return new java.sql.Date(t);
+			else if (_class==java.sql.Time.class)
+				return new java.sql.Time(t);
+			else
+				return new java.util.Date(t);
+		}
+
+		void move(int from, int to)
+		{
+			_values[to] = _values[from];
+		}
+
+		PrimitiveColumn newColumn(int capacity)
+		{
+			DateColumn c = new DateColumn(capacity);
+			c._class = _class;
+			return c;
+		}
+
+		void reorderValues(int[] order)
+		{
+			long x[] = new long[_values.length];
+			for (int i = 0; i < _size; i++)
+				x[i] = _values[order[i]];
+			_values = x;
+		}
+
+		void copyValues(int from, PrimitiveColumn c, int n)
+		{
+			System.arraycopy(_values, from, ((DateColumn)c)._values, 0, n);
+		}
+
+		int compare(int r1, int r2)
+		{
+			long x1 = _values[r1];
+			long x2 = _values[r2];
+			return (x1 < x2) ? -1 : ((x1 == x2) ? 0 : 1);
+		}
+
+	}
+
+
+	/**
+	 * Read-only view of a range of rows of another column, used by
+	 * Recordset.getPage() to avoid copying the values of every page.
+	 * The first change (add, set, remove or reorder) copies the range to a
+	 * column of its own, so the original column is never modified through the view.
+	 * The view is registered in the original column: before a row of its range is
+	 * changed the view copies its range (see detachViews()), so it keeps the values it
+	 * had when it was created and the original column is not copied because of its pages.
+	 * A view is serialized as a copy of its range.
+	 */
+	static class View extends Column
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		/** column that contains the values */
+		private Column _data = null;
+
+		/** position of the first row of the view in _data */
+		private int _offset = 0;
+
+		/** TRUE once the range was copied to a column of its own */
+		private boolean _detached = false;
+
+		/**
+		 * @param data Column that contains the values
+		 * @param offset First row of the view
+		 * @param size Number of rows of the view
+		 */
+		View(Column data, int offset, int size)
+		{
+			_data = data;
+			_offset = offset;
+			_size = size;
+			_type = data._type;
+			data.addView(this);
+		}
+
+		/**
+		 * Returns the column of its own, copies the range on first use
+		 */
+		Column detach()
+		{
+			if (!_detached)
+			{
+				_data = _data.copy(_offset, _offset + _size);
+				_offset = 0;
+				_detached = true;
+			}
+			return _data;
+		}
+
+		Object get(int row)
+		{
+			return _data.get(_offset + row);
+		}
+
+		boolean isNull(int row)
+		{
+			return _data.isNull(_offset + row);
+		}
+
+		Column add(Object value)
+		{
+			return detach().add(value);
+		}
+
+		Column set(int row, Object value)
+		{
+			return detach().set(row, value);
+		}
+
+		void remove(int row)
+		{
+			detach().remove(row);
+			_size--;
+		}
+
+		void reorder(int[] order)
+		{
+			detach().reorder(order);
+		}
+
+		Column copy(int from, int to)
+		{
+			return _data.copy(_offset + from, _offset + to);
+		}
+
+		int compare(int r1, int r2)
+		{
+			return _data.compare(_offset + r1, _offset + r2);
+		}
+
+		/**
+		 * Serialize only the rows of the view
+		 */
+		private Object writeReplace() throws java.io.ObjectStreamException
+		{
+			return copy(0, _size);
+		}
+
+	}
+
+}
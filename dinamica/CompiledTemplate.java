@@ -0,0 +1,380 @@
+package dinamica;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletContext;
+
+/**
+ * Parsed form of a text template: a list of segments, each one is
+ * a literal chunk of text or a marker of a known type (${fld:xxx}, ${def:xxx},
+ * ${lbl:xxx}, ${req:xxx}, ${ses:xxx}, ${seq:xxx} and ${inc:xxx}). The template is scanned
+ * only once; TemplateEngine keeps it in this form while the page is filled: each call
+ * that replaces markers produces a new list of segments, where the replaced markers
+ * become literals and the other segments are reused, and the text of the page is built
+ * only when it is printed or requested with toString().
+ * <br><br>
+ * The markers are resolved in the order given to apply(), the same order the
+ * TemplateEngine used to replace them one type at a time: if the value of a marker
+ * contains markers of the types that follow it in that order, they are replaced too.
+ * Markers of other types are kept as markers, to be replaced by a later call.
+ * <br><br>
+ * Templates loaded from files are parsed once and shared by all the requests,
+ * see getInstance().
+ * <br>
+ * Creation date: 2010-07-01<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public class CompiledTemplate
+{
+
+	/** segment types */
+	static final int TEXT = 0;
+	static final int FLD = 1;
+	static final int DEF = 2;
+	static final int LBL = 3;
+	static final int REQ = 4;
+	static final int SES = 5;
+	static final int SEQ = 6;
+	static final int INC = 7;
+
+	/** marker prefix of each type */
+	static final String PREFIX[] = {null, "fld", "def", "lbl", "req", "ses", "seq", "inc"};
+
+	/** context attribute used to store the templates parsed from files */
+	static final String CONTEXT_ATTRIBUTE = "dinamica.template.cache";
+
+	/**
+	 * Callback used to obtain the value of a marker
+	 */
+	interface Resolver
+	{
+		/**
+		 * Returns the value of a marker
+		 * @param type Marker type (FLD, DEF, etc.)
+		 * @param m Marker name and extra info (format or sequence name)
+		 * @param marker Marker text, like ${fld:name@format}
+		 * @return The value or null to leave the marker unchanged
+		 * @throws Throwable
+		 */
+		String resolve(int type, Marker m, String marker) throws Throwable;
+	}
+
+	/**
+	 * Literal text or marker
+	 */
+	static class Segment
+	{
+		/** segment type, TEXT for literals */
+		int type = TEXT;
+
+		/** literal text or complete marker text */
+		String text = null;
+
+		/** marker name and extra info */
+		Marker marker = null;
+
+		/** error raised when a marker of this type is rendered */
+		String error = null;
+	}
+
+	/** template text, built on demand for templates created by apply() */
+	private String _source = null;
+
+	/** segments in order of appearance */
+	private Segment _segments[] = null;
+
+	/** marker types present in the template, one bit per type */
+	private int _types = 0;
+
+	/**
+	 * Returns the parsed form of a template loaded from a file, shared
+	 * by all the requests of the context; it is parsed again if the
+	 * contents of the file changed
+	 * @param ctx Servlet context
+	 * @param path Path of the template file
+	 * @param source Template text
+	 * @return Compiled template
+	 * @throws Throwable
+	 */
+	@SuppressWarnings("unchecked")
+	public static CompiledTemplate getInstance(ServletContext ctx, String path, String source) throws Throwable
+	{
+		ConcurrentHashMap<String, CompiledTemplate> cache = null;
+		synchronized (CompiledTemplate.class)
+		{
+			cache = (ConcurrentHashMap<String, CompiledTemplate>)ctx.getAttribute(CONTEXT_ATTRIBUTE);
+			if (cache==null)
+			{
+				cache = new ConcurrentHashMap<String, CompiledTemplate>();
+				ctx.setAttribute(CONTEXT_ATTRIBUTE, cache);
+			}
+		}
+
+		//the ResourceCache returns the same String while the file does not change,
+		//compare the text only if it is a different object with the same length and hash
+		CompiledTemplate t = cache.get(path);
+		if (t==null || (t._source!=source && (t._source.length()!=source.length()
+				|| t._source.hashCode()!=source.hashCode() || !t._source.equals(source))))
+		{
+			t = new CompiledTemplate(source);
+			cache.put(path, t);
+		}
+		return t;
+	}
+
+	/**
+	 * Parse a template
+	 * @param source Template text
+	 */
+	public CompiledTemplate(String source)
+	{
+		_source = source;
+		ArrayList<Segment> list = new ArrayList<Segment>();
+
+		int pos = 0;
+		int start = 0;
+		while (true)
+		{
+			int pos1 = source.indexOf("${", pos);
+			if (pos1 < 0 || pos1 + 6 > source.length())
+				break;
+
+			/* known marker type? */
+			int type = TEXT;
+			if (source.charAt(pos1 + 5)==':')
+			{
+				for (int i = 1; i < PREFIX.length; i++)
+				{
+					if (source.startsWith(PREFIX[i], pos1 + 2))
+					{
+						type = i;
+						break;
+					}
+				}
+			}
+			if (type==TEXT)
+			{
+				pos = pos1 + 2;
+				continue;
+			}
+
+			if (pos1 > start)
+				list.add(text(source.substring(start, pos1)));
+
+			Segment s = new Segment();
+			s.type = type;
+			list.add(s);
+			_types |= 1 << type;
+
+			/* find end of marker */
+			int pos2 = source.indexOf("}", pos1 + 6);
+			if (pos2 < 0)
+			{
+				s.text = source.substring(pos1);
+				s.error = Errors.MARKER_UNCLOSED;
+				start = source.length();
+				break;
+			}
+
+			s.text = source.substring(pos1, pos2 + 1);
+			String fld = source.substring(pos1 + 6, pos2);
+			s.marker = new Marker(fld, null, pos1, pos2);
+
+			/* search for extra attribute (format or sequence name) */
+			int pos3 = fld.indexOf("@");
+			if (pos3 > 0)
+			{
+				String name = fld.substring(0, pos3);
+				if ( (name.indexOf(" ")>=0) || (name.indexOf("\r")>=0) || (name.indexOf("\n")>=0) || (name.indexOf('\t')>=0) )
+				{
+					String args[] = {name};
+					s.error = java.text.MessageFormat.format(Errors.INVALID_MARKER, (Object[])args);
+				}
+				s.marker.setName(name);
+				s.marker.setExtraInfo(fld.substring(pos3 + 1));
+			}
+
+			pos = pos2 + 1;
+			start = pos;
+		}
+
+		if (start < source.length())
+			list.add(text(source.substring(start)));
+
+		_segments = list.toArray(new Segment[list.size()]);
+	}
+
+	/**
+	 * Create a template from a list of segments
+	 * @param list Segments
+	 */
+	CompiledTemplate(ArrayList<Segment> list)
+	{
+		_segments = list.toArray(new Segment[list.size()]);
+		for (int i = 0; i < _segments.length; i++)
+		{
+			if (_segments[i].type!=TEXT)
+				_types |= 1 << _segments[i].type;
+		}
+	}
+
+	/**
+	 * Create a literal segment
+	 * @param text Text
+	 */
+	static Segment text(String text)
+	{
+		Segment s = new Segment();
+		s.text = text;
+		return s;
+	}
+
+	/**
+	 * Returns the template text
+	 */
+	public String getSource()
+	{
+		if (_source==null)
+		{
+			int len = 0;
+			for (int i = 0; i < _segments.length; i++)
+				len += _segments[i].text.length();
+			StringBuilder b = new StringBuilder(len);
+			for (int i = 0; i < _segments.length; i++)
+				b.append(_segments[i].text);
+			_source = b.toString();
+		}
+		return _source;
+	}
+
+	/**
+	 * Returns TRUE if the template contains markers of a given type
+	 * @param type Marker type (FLD, DEF, etc.)
+	 */
+	boolean contains(int type)
+	{
+		return (_types & (1 << type))!=0;
+	}
+
+	/**
+	 * Returns the segments of the template, they must not be modified
+	 */
+	Segment[] getSegments()
+	{
+		return _segments;
+	}
+
+	/**
+	 * Replace the markers of the given types
+	 * @param r Callback used to obtain the value of each marker
+	 * @param order Marker types to replace, in order of precedence
+	 * @return Template with the markers replaced, or the same template
+	 * if there are no markers of those types
+	 * @throws Throwable
+	 */
+	CompiledTemplate apply(Resolver r, int... order) throws Throwable
+	{
+		boolean found = false;
+		for (int i = 0; i < order.length; i++)
+			found = found || contains(order[i]);
+		if (!found)
+			return this;
+
+		ArrayList<Segment> list = new ArrayList<Segment>(_segments.length);
+		apply(list, r, order, 0);
+		return new CompiledTemplate(list);
+	}
+
+	/**
+	 * Add the segments of the template to a list replacing the markers of the given types;
+	 * the markers found in the values are parsed, so they can be replaced by a later call
+	 * @param list Segments of the new template
+	 * @param r Callback used to obtain the value of each marker
+	 * @param order Marker types to replace, in order of precedence
+	 * @param first Index of the first type of the order to replace
+	 * @throws Throwable
+	 */
+	private void apply(ArrayList<Segment> list, Resolver r, int order[], int first) throws Throwable
+	{
+		for (int i = 0; i < _segments.length; i++)
+		{
+			Segment s = _segments[i];
+
+			int k = find(s, order, first);
+			if (k < 0)
+			{
+				list.add(s);
+				continue;
+			}
+
+			if (s.error!=null)
+				throw new Throwable(s.error);
+
+			String value = r.resolve(s.type, s.marker, s.text);
+			if (value==null)
+				list.add(s);
+			else if (value.indexOf("${")>=0)
+				new CompiledTemplate(value).apply(list, r, order, k + 1);
+			else if (value.length() > 0)
+				list.add(text(value));
+		}
+	}
+
+	/**
+	 * Returns the position of the type of a segment in the order of replacement
+	 * @param s Segment
+	 * @param order Marker types to replace, in order of precedence
+	 * @param first Index of the first type of the order to replace
+	 * @return Position or -1 if the segment is a literal or its type is not replaced
+	 */
+	private static int find(Segment s, int order[], int first)
+	{
+		if (s.type!=TEXT)
+		{
+			for (int j = first; j < order.length; j++)
+			{
+				if (order[j]==s.type)
+					return j;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Render the template into a buffer or a stream
+	 * @param b Buffer or Writer
+	 * @param r Callback used to obtain the value of each marker
+	 * @param order Marker types to replace, in order of precedence
+	 * @param first Index of the first type of the order to replace
+	 * @throws Throwable
+	 */
+	void render(Appendable b, Resolver r, int order[], int first) throws Throwable
+	{
+		for (int i = 0; i < _segments.length; i++)
+		{
+			Segment s = _segments[i];
+
+			int k = find(s, order, first);
+			if (k < 0)
+			{
+				b.append(s.text);
+				continue;
+			}
+
+			if (s.error!=null)
+				throw new Throwable(s.error);
+
+			String value = r.resolve(s.type, s.marker, s.text);
+			if (value==null)
+				b.append(s.text);
+			else if (k + 1 < order.length && value.indexOf("${")>=0)
+				new CompiledTemplate(value).render(b, r, order, k + 1);
+			else
+				b.append(value);
+		}
+	}
+
+}
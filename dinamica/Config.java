@@ -2,6 +2,8 @@ package dinamica;
 
 import dinamica.xml.*;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Encapsulates access to the XML configuration
@@ -65,6 +67,9 @@ public class Config
 	/** encoding used to read template files */
 	public String templateEncoding = null;
 	
+	/** write the page directly to the response, without content-length */
+	public boolean templateStreaming = false;
+	
 	/** output data binding commands */
 	Recordset _print = new Recordset();
 			
@@ -81,6 +86,21 @@ public class Config
 	
 	public String httpStatusCode = null;
 	
+	/** seconds the rendered response is kept in the response cache, 0 = not cached */
+	public int cacheTtl = 0;
+	
+	/** request values that identify a cached response (see ResponseCache), null = query string, user and locale */
+	public String cacheVary[] = null;
+	
+	/** on-exit forward URIs indexed by return-code */
+	HashMap<String, String> _onExit = new HashMap<String, String>();
+	
+	/** set-request-attribute directives: pairs of id and value */
+	ArrayList<String[]> _requestAttributes = new ArrayList<String[]>();
+	
+	/** clear-session directives: IDs of the session attributes to remove */
+	ArrayList<String> _clearSession = new ArrayList<String>();
+	
 	/**
 	 * Default constructor
 	 * @param xmlData Transaction configuration data in XML
@@ -108,6 +128,23 @@ public class Config
 			onErrorAction = onError.getString();
 		//end of patch
 		
+		//patch 2010-07-09 - response cache for read-only Actions
+		Element cache = _doc.getElement("cache");
+		if (cache!=null)
+		{
+			String ttl = cache.getAttribute("ttl");
+			if (ttl==null || ttl.trim().equals(""))
+				throw new Throwable("Invalid config.xml: the element <cache> requires the attribute ttl (seconds) - Action: " + path);
+			cacheTtl = Integer.parseInt(ttl.trim());
+			String vary = cache.getAttribute("vary");
+			if (vary!=null)
+			{
+				cacheVary = StringUtil.split(vary, ",");
+				for (int i = 0; i < cacheVary.length; i++)
+					cacheVary[i] = cacheVary[i].trim();
+			}
+		}
+		
 		/* summary */
 		summary = _doc.getElement("summary").getString();
 
@@ -124,6 +161,9 @@ public class Config
 		_rs.append("params", Types.VARCHAR);
 		_rs.append("fetchsize", Types.VARCHAR);
 		_rs.append("totalCols", Types.VARCHAR);
+		_rs.append("streaming", Types.VARCHAR);
+		_rs.append("parallel", Types.VARCHAR);
+		_rs.append("bind", Types.VARCHAR);
 	
 		/* structure of the recordset */
 		_print.append("mode", Types.VARCHAR);
@@ -171,6 +211,9 @@ public class Config
 					rsParams = null;
 				String fetchSize = rs.getAttribute("fetch-size");
 				String totalCols = rs.getAttribute("totalCols");
+				String streaming = rs.getAttribute("streaming");
+				String parallel = rs.getAttribute("parallel");
+				String bind = rs.getAttribute("bind");
 								
 				_rs.setValue("id", id);
 				_rs.setValue("source", mode);
@@ -181,6 +224,9 @@ public class Config
 				_rs.setValue("params", rsParams);
 				_rs.setValue("fetchsize", fetchSize);
 				_rs.setValue("totalCols", totalCols);
+				_rs.setValue("streaming", streaming);
+				_rs.setValue("parallel", parallel);
+				_rs.setValue("bind", bind);
 			}
 			if ( _rs.getRecordCount()>0)
 				_rs.top();
@@ -199,6 +245,8 @@ public class Config
 				if (templateEncoding!=null && templateEncoding.trim().equals(""))
 					templateEncoding=null;
 				outTemplate = x.getString();
+				//patch 2010-07-02 - streaming output
+				templateStreaming = "true".equals(x.getAttribute("streaming"));
 			}
 				
 			x = _doc.getElement("//output/content-type");
@@ -252,6 +300,71 @@ public class Config
 			
 		}
 	
+		/* directives evaluated on every request, read them only once */
+		Element onExit[] = _doc.getElements("//on-exit");
+		for (int i = 0; i < onExit.length; i++) 
+		{
+			String code = onExit[i].getAttribute("return-code");
+			if (code!=null && !_onExit.containsKey(code))
+				_onExit.put(code, onExit[i].getAttribute("forward-to"));
+		}
+		
+		Element attrs[] = _doc.getElements("set-request-attribute");
+		for (int i = 0; i < attrs.length; i++) 
+		{
+			String attr[] = {attrs[i].getAttribute("id"), attrs[i].getAttribute("value")};
+			_requestAttributes.add(attr);
+		}
+
+		Element clear[] = _doc.getElements("clear-session");
+		for (int i = 0; i < clear.length; i++) 
+			_clearSession.add(clear[i].getAttribute("id"));
+		
+	}
+	
+	/**
+	 * Creates a per-request copy of a compiled configuration (see ActionRegistry).
+	 * The XML document and the precompiled directives are shared, the recordsets
+	 * returned by getRecordsets() and getPrintCommands() get their own record
+	 * pointer, so the copy can be navigated without affecting other requests.
+	 * @param c Compiled configuration
+	 * @throws Throwable
+	 */
+	Config(Config c) throws Throwable
+	{
+		_doc = c._doc;
+		_root = c._root;
+		_trans = c._trans;
+		_output = c._output;
+		_onExit = c._onExit;
+		_requestAttributes = c._requestAttributes;
+		_clearSession = c._clearSession;
+		
+		summary = c.summary;
+		mvcLog = c.mvcLog;
+		jdbcLog = c.jdbcLog;
+		transClassName = c.transClassName;
+		transDataSource = c.transDataSource;
+		transValidator = c.transValidator;
+		transTransactions = c.transTransactions;
+		outClassName = c.outClassName;
+		outTemplate = c.outTemplate;
+		contentType = c.contentType;
+		expiration = c.expiration;
+		headers = c.headers;
+		requestEncoding = c.requestEncoding;
+		templateEncoding = c.templateEncoding;
+		templateStreaming = c.templateStreaming;
+		path = c.path;
+		onErrorAction = c.onErrorAction;
+		validatorInSession = c.validatorInSession;
+		isolationLevel = c.isolationLevel;
+		httpStatusCode = c.httpStatusCode;
+		cacheTtl = c.cacheTtl;
+		cacheVary = c.cacheVary;
+		
+		_rs = c._rs.newCursor();
+		_print = c._print.newCursor();
 	}
 	
 	/**
@@ -324,12 +437,7 @@ public class Config
 	 */
 	public String getUriForExitCode(int exitCode) throws Throwable
 	{
-		String uri = null;
-		
-		Element onexit = _doc.getElement("//on-exit[@return-code='" + exitCode + "']");
-		if (onexit!=null)
-			uri = onexit.getAttribute("forward-to");
-		return uri;
+		return _onExit.get(String.valueOf(exitCode));
 	}
 
 }
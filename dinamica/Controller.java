@@ -7,9 +7,7 @@ import javax.servlet.http.*;
 import javax.sql.DataSource;
 import java.sql.*;
 import java.io.PrintWriter;
-import dinamica.xml.*;
 import java.util.*;
-import java.util.regex.Pattern;
 
 /**
  * Central controller to dispatch all requests
@@ -75,6 +73,26 @@ public class Controller extends HttpServlet
 	 * default app-level file encoding
 	 */
 	String _fileEncoding = null;
+	
+	/**
+	 * cache of compiled Action configurations
+	 */
+	ActionRegistry _registry = null;
+
+	/**
+	 * maximum number of prepared statements cached per connection
+	 */
+	int _statementCacheSize = StatementCache.DEFAULT_SIZE;
+
+	/**
+	 * performance metrics of the Actions
+	 */
+	Metrics _metrics = null;
+
+	/**
+	 * cache of pages of read-only Actions
+	 */
+	ResponseCache _responseCache = null;
 
 	/**
 	 * Central point of control to intercept
@@ -98,6 +116,7 @@ public class Controller extends HttpServlet
 		GenericTransaction t = null; //model
 		GenericOutput o = null; //view
 		Recordset inputValues = null; //request parameters to auto-validate
+		Connection streamConnection = null; //kept open while streaming recordsets are read by the output
 
 		/* transaction return code */
 		int returnCode = 0;
@@ -105,6 +124,18 @@ public class Controller extends HttpServlet
 		/* for performance log */			
 		long t1 = 0;
 		long t2 = 0;
+		
+		//patch 2010-07-06 - performance metrics (microseconds), -1 = phase not executed
+		long start = System.nanoTime();
+		long jdbcStart = Metrics.getJdbcTime();
+		long times[] = {-1, -1, -1, -1, -1};
+		boolean error = false;
+		String actionPath = null;
+		
+		//patch 2010-07-09 - response cache, the page is written to "out"
+		HttpServletResponse out = res;
+		ResponseCapture capture = null;
+		String cacheKey = null;
 			
 		/* log flags */
 		boolean saveMvcLog = false;
@@ -125,20 +156,14 @@ public class Controller extends HttpServlet
 			
 			/* get transaction path */
 			String path = getPath(req);
-			String configData = null;
+			actionPath = (String)req.getAttribute("dinamica.action.path");
 			
-			/* get config file */
-			try {
-				configData = StringUtil.getResource(_ctx, path + "config.xml");
-			} catch (Throwable notFound) {
+			/* get config object - compiled config.xml is cached by the registry */
+			config = _registry.getConfig(req, path);
+			if (config==null) {
 				res.sendError(404);
 				return;				
 			}
-			
-			configData = replaceMacros(req, configData); //replace macros like ${def:actionroot} and ${lbl:xxx}
-			
-			/* create config object */
-			config = new Config(configData, path);
 
 			/*
 			 * set request encoding -if required- patch_20050214 
@@ -160,6 +185,21 @@ public class Controller extends HttpServlet
 			/* clear session attributes */
 			clearSessionAttributes(req, config);
 
+			/* cached page? */
+			if (config.cacheTtl > 0 && config.outClassName!=null && method.equals("GET") && _responseCache.isEnabled()
+					&& req.getAttribute("javax.servlet.include.request_uri")==null)
+			{
+				cacheKey = ResponseCache.getKey(req, config);
+				ResponseCache.Entry page = _responseCache.get(cacheKey);
+				if (page!=null)
+				{
+					_responseCache.write(page, res);
+					return;
+				}
+				capture = new ResponseCapture(res);
+				out = capture;
+			}
+
 			/* set logs */
 			if (config.jdbcLog!=null && config.jdbcLog.equals("true"))
 				saveJdbcLog = true;
@@ -196,20 +236,22 @@ public class Controller extends HttpServlet
 						con = Jndi.getDataSource(_jndiPrefix + config.transDataSource).getConnection();
 					else
 						con = _ds.getConnection();
+					StatementCache.open(con, _statementCacheSize);
 						
 					/* inputs validation */
-					t1 = System.currentTimeMillis();
+					t1 = System.nanoTime();
 					inputValues = validateInput(req, config, con, saveJdbcLog, logPrinter);
-					t2 = System.currentTimeMillis();
+					t2 = System.nanoTime();
+					times[Metrics.VALIDATION] = (t2-t1) / 1000;
 					if (saveMvcLog)
-						logPrinter.println("Validation performance (ms): " + (t2-t1));					
+						logPrinter.println("Validation performance (ms): " + (t2-t1) / 1000000);					
 					
 				} catch (Throwable verror)
 				{
 					throw verror;
 				} finally
 				{
-					if (con!=null) con.close();
+					closeConnection(con, saveJdbcLog ? logPrinter : null);
 				}
 			}
 
@@ -226,7 +268,7 @@ public class Controller extends HttpServlet
 				}			
 			}
 			
-			t1 = System.currentTimeMillis();
+			t1 = System.nanoTime();
 
 			/* invoke transaction */			
 			if (config.transClassName!=null)
@@ -242,10 +284,11 @@ public class Controller extends HttpServlet
 						con = Jndi.getDataSource(_jndiPrefix + config.transDataSource).getConnection();
 					else
 						con = _ds.getConnection();
+					StatementCache.open(con, _statementCacheSize);
 					
 					/* load transaction class */
 					t = (GenericTransaction) getObject(config.transClassName);
-					t.init(_ctx, req, res);
+					t.init(_ctx, req, out);
 					t.setConfig(config);
 					t.setConnection(con);
 					
@@ -305,14 +348,21 @@ public class Controller extends HttpServlet
 				}
 				finally
 				{
-					if (con!=null) con.close();
+					//patch 2010-06-24 - streaming recordsets need the connection until the output ends
+					if (con!=null) {
+						if (t!=null && t.hasStreams() && !con.isClosed())
+							streamConnection = con;
+						else
+							closeConnection(con, saveJdbcLog ? logPrinter : null);
+					}
 				}
 				
 			}
 
-			t2 = System.currentTimeMillis();
+			t2 = System.nanoTime();
+			times[Metrics.TRANSACTION] = (t2-t1) / 1000;
 			if (saveMvcLog)
-				logPrinter.println("Transaction performance (ms): " + (t2-t1));
+				logPrinter.println("Transaction performance (ms): " + (t2-t1) / 1000000);
 			
 			/* check transaction exit code */
 			String forwardUri = config.getUriForExitCode(returnCode);
@@ -322,7 +372,7 @@ public class Controller extends HttpServlet
 				return;
 			}
 
-			t1 = System.currentTimeMillis();
+			t1 = System.nanoTime();
 
 			/* invoke output */
 			if (config.outClassName!=null)
@@ -332,7 +382,7 @@ public class Controller extends HttpServlet
 				{
 					//2009-03-18 set http status if defined
 					if (config.httpStatusCode!=null)
-						res.setStatus(Integer.parseInt(config.httpStatusCode));
+						out.setStatus(Integer.parseInt(config.httpStatusCode));
 					
 					/* PATCH 2005-02-23 - encoding support */
 					String contentType = config.contentType;
@@ -342,42 +392,49 @@ public class Controller extends HttpServlet
 							if (contentType.indexOf("charset")<0 && _fileEncoding!=null)
 								contentType = contentType + "; charset=" + _fileEncoding;
 						}
-						res.setContentType(contentType);
+						out.setContentType(contentType);
 					}
 					if (config.expiration!=null)
 					{
 						if (Integer.parseInt(config.expiration)==0) {
-							res.setHeader("Cache-Control","no-cache");
-							res.setHeader("Pragma","no-cache");
+							out.setHeader("Cache-Control","no-cache");
+							out.setHeader("Pragma","no-cache");
 						}
 						else
-							res.setHeader("Cache-Control","max-age=" + config.expiration);
+							out.setHeader("Cache-Control","max-age=" + config.expiration);
 					}
 				}
 				
 				/* load output class */
 				o = (GenericOutput) getObject(config.outClassName);
-				o.init(_ctx, req, res);
+				o.init(_ctx, req, out);
 				o.setConfig(config);
 				
+				/* streaming recordsets the output can't read in a single pass are loaded in memory */
+				if (t!=null)
+					t.prepareStreams(o);
+				
 				/* is text based output? */
 				if ( config.contentType!=null && config.contentType.startsWith("text") )
 				{
 					/* load template */
 					String template = o.getResource(config.outTemplate);
-					TemplateEngine te = new TemplateEngine(_ctx, req, template);
+					//patch 2010-07-01 - the template file is parsed once and shared by all the requests
+					CompiledTemplate ct = CompiledTemplate.getInstance(_ctx, o.getResourcePath(config.outTemplate), template);
+					TemplateEngine te = new TemplateEngine(_ctx, req, ct);
 					
 					/* PATCH 2005-02-23 - encoding support */
 					if (config.templateEncoding!=null)
 						te.setEncoding(config.templateEncoding);
 					else 
 						te.setEncoding(_fileEncoding);
+					te.setStreaming(config.templateStreaming);
 					
 					/* generate page using business object "t" */
 					o.print(te, t);
 					
 					/* process any includes and send page to response stream */
-					te.print(res);
+					te.print(out);
 					
 				}
 				else
@@ -386,12 +443,21 @@ public class Controller extends HttpServlet
 					o.print(t);
 				}
 				
+				/* send the page and save it in the cache */
+				if (capture!=null)
+				{
+					ResponseCache.Entry page = capture.finish();
+					if (page!=null)
+						_responseCache.put(cacheKey, page, config.cacheTtl);
+				}
+				
 			}
 
-			t2 = System.currentTimeMillis();
+			t2 = System.nanoTime();
+			times[Metrics.OUTPUT] = (t2-t1) / 1000;
 			if (saveMvcLog)
 			{
-				logPrinter.println("Output performance (ms): " + (t2-t1));
+				logPrinter.println("Output performance (ms): " + (t2-t1) / 1000000);
 			}
 			
 		}
@@ -409,6 +475,8 @@ public class Controller extends HttpServlet
 		/* general application error */
 		catch (Throwable e)	{
 			
+			error = true;
+			
 			//get stack trace
 			StringWriter s = new StringWriter();
 			PrintWriter err = new PrintWriter(s);
@@ -438,11 +506,37 @@ public class Controller extends HttpServlet
 		}
 
 		finally	{
+			/* close streaming recordsets and their connection */
+			if (streamConnection!=null) {
+				try {
+					t.closeStreams();
+				} catch (Throwable e) {
+					log("Error closing streaming recordsets: " + e.getMessage(), e);
+				} finally {
+					try {
+						closeConnection(streamConnection, saveJdbcLog ? logPrinter : null);
+					} catch (Throwable e) {
+						log("Error closing database connection: " + e.getMessage(), e);
+					}
+				}
+			}
+			
+			/* release the requests waiting for this page */
+			if (cacheKey!=null)
+				_responseCache.done(cacheKey);
+			
 			/* save logs? */
 			if (saveJdbcLog || saveMvcLog) {
 				logPrinter.println("--REQUEST-END");
 				saveLog(logWriter.toString());
 			}
+			
+			/* save metrics */
+			if (config!=null) {
+				times[Metrics.TOTAL] = (System.nanoTime() - start) / 1000;
+				times[Metrics.JDBC] = Metrics.getJdbcTime() - jdbcStart;
+				_metrics.record(actionPath, times, error);
+			}
 		}
 
 	}
@@ -533,6 +627,24 @@ public class Controller extends HttpServlet
 			if (_fileEncoding != null && _fileEncoding.trim().equals(""))
 				_fileEncoding = null;
 
+			/* get shared cache of compiled config.xml files */
+			_registry = ActionRegistry.getInstance(_ctx);
+			
+			/* get performance metrics registry */
+			_metrics = Metrics.getInstance(_ctx);
+			
+			/* get cache of pages of read-only Actions */
+			_responseCache = ResponseCache.getInstance(_ctx);
+
+			//patch 2010-06-29 - prepared statement cache per connection
+			String cacheSize = _ctx.getInitParameter("statement-cache-size");
+			if (cacheSize != null && !cacheSize.trim().equals(""))
+				_statementCacheSize = Integer.parseInt(cacheSize.trim());
+			
+			//patch 2010-07-05 - asynchronous log writer
+			LogWriter.getInstance().configure(getLongParameter("log-flush-interval", LogWriter.DEFAULT_FLUSH_INTERVAL), 
+					getLongParameter("log-max-size", 0), (int)getLongParameter("log-max-files", LogWriter.DEFAULT_MAX_FILES));
+			
 			super.init();
 			
 		}
@@ -544,6 +656,61 @@ public class Controller extends HttpServlet
 
 	}
 
+	/**
+	 * Release the resources shared by all the Controller instances
+	 * of this context
+	 */
+	public void destroy()
+	{
+		ActionRegistry.release(_ctx);
+		QueryExecutor.release(_ctx);
+		Metrics.release(_ctx);
+		ResponseCache.release(_ctx);
+		ResourceCache.release(_ctx);
+		LogWriter.shutdown();
+		Jndi.invalidate();
+		ClassCache.clear();
+		super.destroy();
+	}
+
+	/**
+	 * Returns the numeric value of a context parameter
+	 * @param name Parameter name
+	 * @param defaultValue Value returned if the parameter is not defined
+	 * @return Parameter value
+	 */
+	long getLongParameter(String name, long defaultValue)
+	{
+		String value = _ctx.getInitParameter(name);
+		if (value==null || value.trim().equals(""))
+			return defaultValue;
+		return Long.parseLong(value.trim());
+	}
+
+	/**
+	 * Close the statement cache of a connection and return
+	 * the connection to the pool
+	 * @param con Database connection or null
+	 * @param jdbcLog If not null the statement cache statistics are written here
+	 * @throws SQLException
+	 */
+	void closeConnection(Connection con, PrintWriter jdbcLog) throws SQLException
+	{
+		if (con==null)
+			return;
+		try
+		{
+			StatementCache sc = StatementCache.get(con);
+			if (sc!=null && jdbcLog!=null)
+				jdbcLog.println("Statement cache hits/misses: " + sc.getHits() + "/" + sc.getMisses());
+			StatementCache.close(con);
+		}
+		finally
+		{
+			con.close();
+		}
+	}
+
 	/**
 	 * Save message to filesystem, using the context parameter
 	 * log-file defined in web.xml and stored in modular variable _logFile
@@ -571,131 +738,29 @@ public class Controller extends HttpServlet
 		/* load default date format used to convert date strings to Date objects */
 		String dateFormat = _ctx.getInitParameter("def-input-date");
 		
-		/* recordset to hold request parameters and optional parameters defined in validator.xml */
-		Recordset inputs = new Recordset();
-		inputs.setID("_request");
-		
-		/* load validator xml file */
-		String file = config.path + "validator.xml";
-		String xmlFile = StringUtil.getResource(_ctx, file);
-
-		//patch 2010-02-13 - support ${def:actionroot} in validator.xml
-		xmlFile = replaceMacros(req, xmlFile);
-		//end patch
-
-		Document xml = new Document( xmlFile );	
-		Element root = xml.getRoot();	
+		/* compiled validator xml file */
+		ValidationPlan plan = _registry.getValidationPlan(req, config.path);
+		String file = plan._file;
 
 		/* get custom errors display action to override /action/error/validation */
-		String onErrorAction = root.getAttribute("onerror");
-		if (onErrorAction!=null)
-			req.setAttribute("dinamica.error.validation", onErrorAction);
+		if (plan._onErrorAction!=null)
+			req.setAttribute("dinamica.error.validation", plan._onErrorAction);
 		
 		/* read session id -2007-05-23- inputParams recordset can be saved in session */
-		String sessionID = root.getAttribute("id");
-		if (sessionID==null)
-			sessionID = "";
-		
-		/* read parameters pass 1 - create recordset structure */
-		Element elements[] = xml.getElements( "parameter" );
-		Element param;
+		String sessionID = plan._sessionID;
 		
-		for (int i = 0; i < elements.length; i++) 
-		{
-
-			/* validation attributes */
-			String type = null;
-			String id = null;
-			String label = null;
-			int sqlType = 0;
-			String required = null;
-
-			param = elements[i];
-            
-			/* read attributes */
-			id = param.getAttribute( "id" );
-			if (id==null)
-				throw new Exception ("Invalid Validator. Attribute [id] not found: " + file);
-
-			type = param.getAttribute( "type" );
-			if (type==null)
-				throw new Exception ("Invalid Validator. Attribute [type] not found: " + file);
-
-			required = param.getAttribute( "required" );
-			if (required==null)
-				throw new Exception ("Invalid Validator. Attribute [required] not found: " + file);
-
-			label = param.getAttribute( "label" );
-			if (label==null)
-				throw new Exception ("Invalid Validator. Attribute [label] not found: " + file);
-
-            
-			/* validate type attribute */
-			if (type.equals("varchar"))	
-				sqlType = Types.VARCHAR;
-			else if (type.equals("integer"))
-				sqlType = Types.INTEGER;
-			else if (type.equals("double"))
-				sqlType = Types.DOUBLE;
-			else if (type.equals("date"))
-				sqlType = Types.DATE;
-			else
-				throw new Exception("Invalid validator data type (" + type + ") in file: " + file);
-			
-			/* OK - append the field to the recordset */
-			inputs.append(id, sqlType);
-
-		}
-
-		/* add one record to hold the parameters values */
-		inputs.addNew();
+		/* recordset to hold request parameters and optional parameters defined in validator.xml */
+		Recordset inputs = plan.getInputRecordset();
 		
-		/* read parameters pass 2 - validate parameters */
-		for (int j = 0; j < elements.length; j++) 
+		/* validate parameters */
+		ValidationPlan.Rule rules[] = plan._rules;
+		for (int j = 0; j < rules.length; j++) 
 		{
 
-			/* validation attributes */
-			String type = null;
+			ValidationPlan.Rule r = rules[j];
+			String id = r.id;
+			String label = r.label;
 			String value = null;
-			String id = null;
-			String label = null;
-			int sqlType = 0;
-			String required = "";
-			int maxLen = 0;
-			String maxLenAttr = "";
-			String minValueAttr = "";
-			String maxValueAttr = "";
-			String regexp = null;
-			String regexpError = null;
-
-			param = elements[j];
-            
-			/* read attributes */
-			id = param.getAttribute( "id" );
-			type = param.getAttribute( "type" );
-			required = param.getAttribute( "required" );
-			label = param.getAttribute( "label" );
-			maxLenAttr = param.getAttribute( "maxlen" );
-			minValueAttr = param.getAttribute( "min" );
-			maxValueAttr = param.getAttribute( "max" );
-			regexp = param.getAttribute( "regexp" );
-			regexpError = param.getAttribute( "regexp-error-label" );
-						
-			//patch 2007-07-16 - label in bold
-			label = "<b>" + label + "</b>";
-
-			if (maxLenAttr!=null)
-				maxLen = Integer.parseInt(maxLenAttr);
-			
-			/* validate type attribute */
-			if (type.equals("varchar"))	
-				sqlType = Types.VARCHAR;
-			else if (type.equals("integer"))
-				sqlType = Types.INTEGER;
-			else if (type.equals("double"))
-				sqlType = Types.DOUBLE;
-			else if (type.equals("date"))
-				sqlType = Types.DATE;
 			
 			/* get value if present in request */
 			String data[] = req.getParameterValues(id);
@@ -709,23 +774,23 @@ public class Controller extends HttpServlet
 					value = data[0].trim();
 
 					/* check maxlen rule */
-					if (maxLen>0)
+					if (r.maxLen>0)
 					{
-						if (value.length()>maxLen)
-							errors.addMessage( id, label + ": " + "${lbl:data_too_long}" + maxLen);
+						if (value.length()>r.maxLen)
+							errors.addMessage( id, label + ": " + "${lbl:data_too_long}" + r.maxLen);
 					}
 
 					/* check regular expression */
-					if (sqlType==Types.VARCHAR && regexp!=null)
+					if (r.regexp!=null)
 					{
-						boolean isMatch = Pattern.matches(regexp, value);
+						boolean isMatch = r.regexp.matcher(value).matches();
 						if (!isMatch)
-							errors.addMessage( id, label + ": " + regexpError);
+							errors.addMessage( id, label + ": " + r.regexpError);
 					}
 
 					
 					/* convert to datatype if valid */
-					switch (sqlType)
+					switch (r.sqlType)
 					{
 						case Types.DATE:
 							java.util.Date d = ValidatorUtil.testDate(value, dateFormat);
@@ -743,14 +808,14 @@ public class Controller extends HttpServlet
 							else
 								inputs.setValue(id, dbl);
 								
-							if (minValueAttr!=null && dbl!=null) {
-								double minValue = Double.parseDouble(minValueAttr);
+							if (r.minDouble!=null && dbl!=null) {
+								double minValue = r.minDouble.doubleValue();
 								if (dbl.doubleValue() < minValue)
 									errors.addMessage( id, label + ": " + "${lbl:min_value_violation}" + minValue);
 							}
 							
-							if (maxValueAttr!=null && dbl!=null) {
-								double maxValue = Double.parseDouble(maxValueAttr);
+							if (r.maxDouble!=null && dbl!=null) {
+								double maxValue = r.maxDouble.doubleValue();
 								if (dbl.doubleValue() > maxValue)
 									errors.addMessage( id, label + ": " + "${lbl:max_value_violation}" + maxValue);
 							}
@@ -764,13 +829,13 @@ public class Controller extends HttpServlet
 							else
 								inputs.setValue(id, i);
 
-							if (minValueAttr!=null && i!=null) {
-								int	minValue = Integer.parseInt(minValueAttr);
+							if (r.minInteger!=null && i!=null) {
+								int	minValue = r.minInteger.intValue();
 								if (i.intValue() < minValue)
 									errors.addMessage( id, label + ": " + "${lbl:min_value_violation}" + minValue);
 							}
-							if (maxValueAttr!=null && i!=null) {
-								int maxValue = Integer.parseInt(maxValueAttr);
+							if (r.maxInteger!=null && i!=null) {
+								int maxValue = r.maxInteger.intValue();
 								if (i.intValue() > maxValue)
 									errors.addMessage( id, label + ": " + "${lbl:max_value_violation}" + maxValue);
 							}
@@ -790,7 +855,7 @@ public class Controller extends HttpServlet
 				}
 				
 			}
-			else if (required.equals("true"))
+			else if (r.required)
 			{
 				errors.addMessage( id, label + ": " + "${lbl:parameter_required}");
 			}
@@ -804,28 +869,16 @@ public class Controller extends HttpServlet
 		 */
 		if (errors.getErrors().getRecordCount()==0)
 		{
-			Element valds[] = xml.getElements("custom-validator");
+			ValidationPlan.CustomValidator valds[] = plan._validators;
 			for (int i = 0; i < valds.length; i++) 
 			{
 			
 				/* read validator configuration */
-				HashMap<String, String> a = new HashMap<String, String>(5);
-				Element validator = valds[i];
-				String className = validator.getAttribute( "classname" );
-				String onErrorLabel = validator.getAttribute( "on-error-label" );
-				
-				//patch 2008-01-31 - for ExtJS requested by M.Betti
-				String id = validator.getAttribute( "id" );
-				if (id==null)
-					id = "";
-				//end patch
-			
-				/* custom attributes */
-				a = validator.getAttributes();
+				ValidationPlan.CustomValidator validator = valds[i];
+				HashMap<String, String> a = plan.getAttributes(validator);
 			
 				/* load class and instantiate object */
-				AbstractValidator t = null;
-				t = (AbstractValidator) getObject(className);
+				AbstractValidator t = plan.getValidator(validator);
 				t.init(_ctx, req, null);
 				t.setConfig(config);
 				t.setConnection(conn);
@@ -842,8 +895,8 @@ public class Controller extends HttpServlet
 				{
 					String err = t.getErrorMessage();
 					if (err==null)
-						err = onErrorLabel;
-					errors.addMessage(id, err);
+						err = validator.onErrorLabel;
+					errors.addMessage(validator.id, err);
 				}
 			
 			}
@@ -883,27 +936,24 @@ public class Controller extends HttpServlet
 	void setRequestValues(HttpServletRequest req, Config config) throws Throwable
 	{
 
-		Document doc = config.getDocument();
-
-		Element e[] = doc.getElements("set-request-attribute");
+		ArrayList<String[]> e = config._requestAttributes;
 		if (e!=null)
 		{
-			for (int i = 0; i < e.length; i++) 
+			for (int i = 0; i < e.size(); i++) 
 			{
-				Element r = e[i];
-				String id = r.getAttribute("id");
-				String value = r.getAttribute("value");
+				String r[] = e.get(i);
+				String id = r[0];
+				String value = r[1];
 				
 				//patch 20081118 - soportar archivos de recursos como valor del atributo
 				if (value!=null && value.startsWith("file:")) {
 					
 					String x[] = StringUtil.split(value, ":");
 					String file = x[1];
-					if (file.startsWith("/")) {
-						value = StringUtil.getResource(this.getServletContext(), file);
-					} else {
-						value = StringUtil.getResource(this.getServletContext(), getPath(req) + file);
-					}
+					if (!file.startsWith("/"))
+						file = getPath(req) + file;
+					//patch 2010-07-02 - read the file only once, see ResourceCache
+					value = ResourceCache.getInstance(_ctx).getResource(file, System.getProperty("file.encoding", "ISO8859_1"));
 				}
 				
 				req.setAttribute(id, value);
@@ -923,14 +973,12 @@ public class Controller extends HttpServlet
 		HttpSession s = req.getSession(false);
 		if (s==null)
 			return;
-		Document doc = config.getDocument();
-		Element e[] = doc.getElements("clear-session");
+		ArrayList<String> e = config._clearSession;
 		if (e!=null)
 		{
-			for (int i = 0; i < e.length; i++) 
+			for (int i = 0; i < e.size(); i++) 
 			{
-				Element r = e[i];
-				String id = r.getAttribute("id");
+				String id = e.get(i);
 				s.removeAttribute(id);
 			}
 		}
@@ -940,43 +988,14 @@ public class Controller extends HttpServlet
 	 * Loads class and returns new instance of this class.
 	 * @param className Name of class to load - include full package name
 	 * @return New instance of the class
-	 * @throws ClassNotFoundException 
-	 * @throws IllegalAccessException 
-	 * @throws InstantiationException 
-	 */
-	Object getObject(String className) throws InstantiationException, IllegalAccessException, ClassNotFoundException 
-	{
-		
-		ClassLoader loader = Thread.currentThread().getContextClassLoader();
-		return loader.loadClass(className).newInstance();
-		
-	}
-	
-	/**
-	 * Replace markers like ${def:actionroot} and ${lbl:xxx} in config.xml
-	 * @param req Request object
-	 * @param xmlData Body of config.xml
-	 * @return Body of config.xml with all markers replaced by the corresponding values
 	 * @throws Throwable
 	 */
-	String replaceMacros(HttpServletRequest req, String xmlData) throws Throwable
+	Object getObject(String className) throws Throwable 
 	{
-		//replace ${def:actionroot}
-		if (xmlData.indexOf("${def:actionroot}")>0) {
-			String actionPath = (String)req.getAttribute("dinamica.action.path");
-			actionPath = actionPath.substring(0, actionPath.lastIndexOf("/"));
-			xmlData = StringUtil.replace(xmlData, "${def:actionroot}", actionPath);
-		}
-			
-		//patch 2009-08-03 - replace labels if found
-		if (xmlData.indexOf("${lbl:")>0) {
-			TemplateEngine te = new TemplateEngine(getServletContext(), req, xmlData);
-			te.replaceLabels();
-			xmlData = te.toString();
-		}
 		
-		//return xml data
-		return xmlData;
+		//patch 2010-07-08 - cached class and constructor
+		return ClassCache.newInstance(className);
+		
 	}
 	
 }
@@ -8,6 +8,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.PrintWriter;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * Core-level framework class: Database API.
@@ -39,6 +40,9 @@ public class Db
 	/** database version info */
 	private String _dbVersion = null;
 
+	/** prepared statements of the connection, null if it has no cache */
+	private StatementCache _cache = null;
+
 	/** tamao del lote de registros a leer de un resultset */
 	private int fetchSize = 0;
 	
@@ -66,6 +70,7 @@ public class Db
 	public Db(Connection conn)
 	{
 		_conn = conn;
+		_cache = StatementCache.get(conn);
 		DatabaseMetaData md;
 		try
 		{
@@ -107,6 +112,7 @@ public class Db
 			rows = s.executeUpdate(sql);
 			
 			t2 = System.currentTimeMillis();
+			Metrics.addJdbcTime(t2 - t1);
 
 			if (_log!=null)
 			{
@@ -178,6 +184,7 @@ public class Db
 			rows = s.executeBatch();
 			
 			t2 = System.currentTimeMillis();
+			Metrics.addJdbcTime(t2 - t1);
 
 			if (_log!=null)
 			{
@@ -266,6 +273,7 @@ public class Db
 			l1 = System.currentTimeMillis();
 			Recordset recs = new Recordset(rs);
 			l2 = System.currentTimeMillis();
+			Metrics.addJdbcTime((t2 - t1) + (l2 - l1));
 
 			if (_log!=null)
 			{
@@ -300,6 +308,253 @@ public class Db
 		
 	}
 
+	/**
+	 * Creates a forward-only streaming recordset given a SQL query. The records
+	 * are read from the database while they are consumed, so the connection
+	 * must remain open until the recordset is read or closed (see StreamingRecordset).
+	 * The fetch size set with setFetchSize() is used by the driver to read the rows in batches.
+	 * @param sql SQL Query that returns a Resultset
+	 * @param limit Maximum number of rows to read from the DataBase, 0 = no limit
+	 * @throws Throwable
+	 */
+	public StreamingRecordset getStream(String sql, int limit) throws Throwable
+	{
+		return getStream(sql, null, limit);
+	}
+
+	/**
+	 * Creates a forward-only streaming recordset given a SQL command with
+	 * parameters, using a PreparedStatement (see getStream(String, int))
+	 * @param sql SQL command and parameters created by TemplateEngine.getSqlStatement()
+	 * @param limit Maximum number of rows to read from the DataBase, 0 = no limit
+	 * @throws Throwable
+	 */
+	public StreamingRecordset getStream(SqlStatement sql, int limit) throws Throwable
+	{
+		return getStream(sql.getSql(), sql, limit);
+	}
+
+	/**
+	 * Creates a forward-only streaming recordset
+	 * @param sql SQL Query
+	 * @param params SQL command with parameters, null to use a plain Statement
+	 * @param limit Maximum number of rows to read from the DataBase, 0 = no limit
+	 * @throws Throwable
+	 */
+	private StreamingRecordset getStream(String sql, SqlStatement params, int limit) throws Throwable
+	{
+
+		long t1 = 0;
+		long t2 = 0;
+
+		ResultSet rs = null;
+		Statement stmt = null;
+
+		try
+		{
+
+			t1 = System.currentTimeMillis();
+
+			/* the cursor must survive the commit of the transaction, if the driver allows it */
+			try {
+				if (params!=null)
+					stmt = _conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, ResultSet.HOLD_CURSORS_OVER_COMMIT);
+				else
+					stmt = _conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, ResultSet.HOLD_CURSORS_OVER_COMMIT);
+			} catch (SQLException e) {
+				if (params!=null)
+					stmt = _conn.prepareStatement(sql);
+				else
+					stmt = _conn.createStatement();
+			}
+
+			stmt.setFetchSize(fetchSize);
+			
+			if (limit > 0)
+				stmt.setMaxRows(limit);
+
+			if (params!=null) {
+				params.setParameters((PreparedStatement)stmt);
+				rs = ((PreparedStatement)stmt).executeQuery();
+			} else {
+				rs = stmt.executeQuery(sql);
+			}
+			
+			t2 = System.currentTimeMillis();
+			Metrics.addJdbcTime(t2 - t1);
+
+			StreamingRecordset recs = new StreamingRecordset(stmt, rs);
+
+			if (_log!=null)
+			{
+				long time1 = t2 - t1;
+				_log.println("--JDBC-LOG-START");
+				_log.println("DBMS: " + _dbVersion);
+				_log.println("Date: " + new java.util.Date(t1));
+				_log.println("Thread: " + Thread.currentThread().getName());
+				_log.println("sql: " + (params!=null ? params.toString() : sql));
+				_log.println("Records: streaming (fetch size " + fetchSize + ")");
+				_log.println("Columns: " + recs.getFieldCount());
+				_log.println("Query execution time (ms): " + time1);
+				_log.println("--JDBC-LOG-END");
+			}
+			
+			return recs;
+			
+		}
+		catch (Throwable e)
+		{
+			if( rs != null ) rs.close(); 
+			if( stmt != null ) stmt.close();
+			String err = e.getMessage() + " [" + (params!=null ? params.toString() : sql)  + "]";
+			throw new Throwable(err, e);
+		}
+		
+	}
+
+	/**
+	 * Creates a recordset given a SQL command with parameters,
+	 * using a PreparedStatement
+	 * @param sql SQL command and parameters created by TemplateEngine.getSqlStatement()
+	 * @throws Throwable
+	 */
+	public Recordset get(SqlStatement sql) throws Throwable
+	{
+		return get(sql, 0);
+	}
+
+	/**
+	 * Creates a recordset given a SQL command with parameters,
+	 * using a PreparedStatement
+	 * @param sql SQL command and parameters created by TemplateEngine.getSqlStatement()
+	 * @param limit Maximum number of rows to read from the DataBase
+	 * @throws Throwable
+	 */
+	public Recordset get(SqlStatement sql, int limit) throws Throwable
+	{
+
+		long t1 = 0;
+		long t2 = 0;
+		long l1 = 0;
+		long l2 = 0;
+
+		ResultSet rs = null;
+		PreparedStatement stmt = null;
+
+		try
+		{
+
+			t1 = System.currentTimeMillis();
+
+			/* execute query */
+			stmt = prepare(sql.getSql());
+
+			stmt.setFetchSize(fetchSize);
+			stmt.setMaxRows(limit);
+
+			sql.setParameters(stmt);
+			rs = stmt.executeQuery();
+			
+			t2 = System.currentTimeMillis();
+
+			/* create recordset given the resultset */
+			l1 = System.currentTimeMillis();
+			Recordset recs = new Recordset(rs);
+			l2 = System.currentTimeMillis();
+			Metrics.addJdbcTime((t2 - t1) + (l2 - l1));
+
+			if (_log!=null)
+			{
+				long time1 = t2 - t1;
+				long time2 = l2 - l1;
+				_log.println("--JDBC-LOG-START");
+				_log.println("DBMS: " + _dbVersion);
+				_log.println("Date: " + new java.util.Date(t1));
+				_log.println("Thread: " + Thread.currentThread().getName());
+				_log.println("sql: " + sql);
+				_log.println("Records: " + recs.getRecordCount());
+				_log.println("Columns: " + recs.getFieldCount());
+				_log.println("Query execution time (ms): " + time1);
+				_log.println("Data loading time (ms): " + time2);
+				_log.println("--JDBC-LOG-END");
+				
+			}
+			
+			return recs;
+			
+		}
+		catch (Throwable e)
+		{
+			discard(sql.getSql());
+			String err = e.getMessage() + " [" + sql  + "]";
+			throw new Throwable(err, e);
+		}
+		finally
+		{
+			if( rs != null ) rs.close(); 
+			release(stmt);
+		}
+		
+	}
+
+	/**
+	 * Execute an action query (inserts, updates, deletes) with parameters,
+	 * using a PreparedStatement
+	 * @param sql SQL command and parameters created by TemplateEngine.getSqlStatement()
+	 * @return The number of rows affected
+	 * @throws Throwable
+	 */
+	public int exec(SqlStatement sql) throws Throwable
+	{
+		
+		long t1 = 0;
+		long t2 = 0;
+		
+		PreparedStatement s = null;
+		int rows = 0;
+		
+		try
+		{
+			
+			t1 = System.currentTimeMillis();
+			
+			s = prepare(sql.getSql());
+			sql.setParameters(s);
+			rows = s.executeUpdate();
+			
+			t2 = System.currentTimeMillis();
+			Metrics.addJdbcTime(t2 - t1);
+
+			if (_log!=null)
+			{
+				long time = t2 - t1;
+				_log.println("--JDBC-LOG-START");
+				_log.println("DBMS: " + _dbVersion);
+				_log.println("Date: " + new java.util.Date(t1));
+				_log.println("Thread: " + Thread.currentThread().getName());
+				_log.println("Sql: " + sql);
+				_log.println("Rows affected: " + rows);
+				_log.println("Time (ms): " + time);
+				_log.println("--JDBC-LOG-END");
+			}
+			
+			return rows;
+		}
+		
+		catch (Throwable e)
+		{
+			discard(sql.getSql());
+			String err = e.getMessage() + " [" + sql  + "]";
+			throw new Throwable(err, e);
+		}
+		
+		finally
+		{
+			release(s);
+		}
+		
+	}
+
 	/**
 	 * Execute prepared statement using a recordset; only the current record is used
 	 * @param sql SQL command to precompile
@@ -331,7 +586,7 @@ public class Db
 			
 			t1 = System.currentTimeMillis();
 			
-			s = _conn.prepareStatement(sql);
+			s = prepare(sql);
 			
 			/* get recordset metadata*/
 			HashMap<String, RecordsetField> flds = rs.getFields();
@@ -360,6 +615,7 @@ public class Db
 			rows = s.executeUpdate();
 			
 			t2 = System.currentTimeMillis();
+			Metrics.addJdbcTime(t2 - t1);
 
 			if (_log!=null)
 			{
@@ -379,13 +635,14 @@ public class Db
 		
 		catch (Throwable e)
 		{
+			discard(sql);
 			String err = e.getMessage() + " [" + sql  + "]";
 			throw new Throwable(err, e);
 		}
 		
 		finally
 		{
-			if (s!=null) s.close();
+			release(s);
 		}
 
 	}
@@ -421,7 +678,7 @@ public class Db
 			
 			t1 = System.currentTimeMillis();
 			
-			s = _conn.prepareStatement(sql);
+			s = prepare(sql);
 
 			/* get recordset metadata*/
 			HashMap<String, RecordsetField> flds = rs.getFields();
@@ -461,6 +718,7 @@ public class Db
 			rows = s.executeBatch();
 			
 			t2 = System.currentTimeMillis();
+			Metrics.addJdbcTime(t2 - t1);
 
 			if (_log!=null)
 			{
@@ -480,6 +738,7 @@ public class Db
 		
 		catch (SQLException sqe)
 		{
+			discard(sql);
 			if (sqe.getNextException()!=null)
 				throw new Throwable(sqe.getNextException().getMessage(), sqe.getCause());
 			else
@@ -488,17 +747,147 @@ public class Db
 		
 		catch (Exception e)
 		{
+			discard(sql);
 			String err = e.getMessage() + " [" + sql  + "]";
 			throw new Throwable(err, e);
 		}
 		
 		finally
 		{
-			if (s!=null) s.close();
+			release(s);
+		}
+
+	}
+
+	/**
+	 * Execute in batch a list of SQL commands with parameters, created by
+	 * TemplateEngine.getSqlStatement(). Consecutive commands with the same SQL text
+	 * are executed as a single batch of one PreparedStatement, so a list generated
+	 * from the same template for many records requires only one round trip.
+	 * @param batch SQL commands and their parameters
+	 * @return Array where each element contains the number of rows affected by each command
+	 * @throws Throwable
+	 */
+	public int[] execBatch(List<SqlStatement> batch) throws Throwable
+	{
+
+		long t1 = 0;
+		long t2 = 0;
+		
+		PreparedStatement s = null;
+		String sql = null;
+		int rows[] = new int[batch.size()];
+		int stmts = 0;
+		
+		try
+		{
+			
+			t1 = System.currentTimeMillis();
+			
+			int i = 0;
+			while (i < batch.size())
+			{
+				
+				/* group the commands with the same SQL */
+				sql = batch.get(i).getSql();
+				s = prepare(sql);
+				stmts++;
+				int j = i;
+				while (j < batch.size() && batch.get(j).getSql().equals(sql))
+				{
+					batch.get(j).setParameters(s);
+					s.addBatch();
+					j++;
+				}
+				
+				int r[] = s.executeBatch();
+				System.arraycopy(r, 0, rows, i, Math.min(r.length, j - i));
+				release(s);
+				s = null;
+				i = j;
+				
+			}
+			
+			t2 = System.currentTimeMillis();
+			Metrics.addJdbcTime(t2 - t1);
+
+			if (_log!=null)
+			{
+				long time = t2 - t1;
+				_log.println("--JDBC-LOG-START");
+				_log.println("DBMS: " + _dbVersion);
+				_log.println("Date: " + new java.util.Date(t1));
+				_log.println("Thread: " + Thread.currentThread().getName());
+				_log.println("Sql: " + sql);
+				_log.println("Batch size: " + batch.size());
+				_log.println("Statements: " + stmts);
+				_log.println("Time (ms): " + time);
+				_log.println("--JDBC-LOG-END");
+			}
+			
+			return rows;
+		}
+		
+		catch (SQLException sqe)
+		{
+			discard(sql);
+			if (sqe.getNextException()!=null)
+				throw new Throwable(sqe.getNextException().getMessage(), sqe.getCause());
+			else
+				throw sqe;
+		}
+		
+		catch (Exception e)
+		{
+			discard(sql);
+			String err = e.getMessage() + " [" + sql  + "]";
+			throw new Throwable(err, e);
+		}
+		
+		finally
+		{
+			release(s);
 		}
 
 	}
 
+	/**
+	 * Returns a prepared statement for the SQL command, from the statement
+	 * cache of the connection if it has one; it must be released with release()
+	 * @param sql SQL command
+	 * @throws SQLException
+	 */
+	private PreparedStatement prepare(String sql) throws SQLException
+	{
+		if (_cache!=null)
+			return _cache.prepare(_conn, sql);
+		else
+			return _conn.prepareStatement(sql);
+	}
+
+	/**
+	 * Release a statement obtained with prepare(), it is closed
+	 * only if the connection has no statement cache
+	 * @param s Statement or null
+	 * @throws SQLException
+	 */
+	private void release(PreparedStatement s) throws SQLException
+	{
+		if (s!=null && _cache==null)
+			s.close();
+	}
+
+	/**
+	 * Remove a statement from the cache after an error,
+	 * it will be prepared again the next time it is used
+	 * @param sql SQL command
+	 */
+	private void discard(String sql)
+	{
+		if (_cache!=null)
+			_cache.remove(sql);
+	}
+
 	/**
 	 * Save binary file to blob column using a prepared statement.<br>
 	 * The prepared statement must contain only one dynamic parameter (?),
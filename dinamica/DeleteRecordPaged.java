@@ -24,6 +24,10 @@ public class DeleteRecordPaged extends GenericTableManager
 		if (rs==null)
 			throw new Throwable("Can't find recordset in session with attribute ID = " + rsID);
 		
+		//patch 2010-07-12 - the recordset stays in session, index it once
+		if (!rs.hasIndex(pkey))
+			rs.createIndex(pkey);
+		
 		int id = inputParams.getInt("id");
 		int pos = rs.findRecord(pkey, id);
 		if (pos < 0)
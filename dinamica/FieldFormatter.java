@@ -0,0 +1,194 @@
+package dinamica;
+
+import java.net.URLEncoder;
+import java.sql.Types;
+import java.text.Format;
+import java.util.Locale;
+
+/**
+ * Formatter bound to a field marker ${fld:name@format} and a Recordset:
+ * the column position, the kind of format (encoding, number or date mask,
+ * format plugin) and the formatter objects are resolved only once, then the value
+ * of every record is formatted without parsing the marker again. Used by
+ * the TemplateEngine to print repeat sections (one formatter per marker of
+ * the section) and to replace single field markers. Numbers and dates are
+ * formatted with the formatter of the current thread cached by StringUtil, it is
+ * obtained when this object is created, so a FieldFormatter must be used only by the
+ * thread that created it, like the TemplateEngine that creates it.
+ * <br><br>
+ * LONGVARCHAR fields accept the xml, html, url and js directives like the other
+ * string types, in repeat sections and in single field markers. Before this class
+ * a single field marker treated a LONGVARCHAR field with a format as a number and failed.
+ * <br>
+ * Creation date: 2010-07-03<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+class FieldFormatter
+{
+
+	/** kinds of format */
+	static final int PLAIN = 0;
+	static final int XML = 1;
+	static final int HTML = 2;
+	static final int URL = 3;
+	static final int JS = 4;
+	static final int NUMBER = 5;
+	static final int DATE = 6;
+	static final int PLUGIN = 7;
+	static final int INVALID = 8;
+
+	/** field name */
+	private String _name = null;
+
+	/** column position, -1 for _rowNumber and _rowIndex */
+	private int _col = -1;
+
+	/** kind of format */
+	private int _kind = PLAIN;
+
+	/** number or date formatter of the current thread */
+	private Format _format = null;
+
+	/** format plugin and its arguments */
+	private IFormatPlugin _plugin = null;
+	private String _pluginArgs = null;
+
+	/** user locale, may be null */
+	private Locale _locale = null;
+
+	/** template engine used to encode values */
+	private TemplateEngine _te = null;
+
+	/**
+	 * Create a formatter for a field marker
+	 * @param te Template engine used to encode values for xml, html or js
+	 * @param rs Recordset
+	 * @param name Field name, may be _rowNumber or _rowIndex
+	 * @param format Format mask, encoding directive (xml, html, url, js) or format plugin (class:xxx), may be null
+	 * @param locale User locale, may be null
+	 * @param defDateFmt Default date format
+	 * @return The formatter or NULL if the recordset does not contain the field
+	 * @throws Throwable If the format plugin cannot be loaded
+	 */
+	static FieldFormatter getInstance(TemplateEngine te, Recordset rs, String name, String format, Locale locale, String defDateFmt) throws Throwable
+	{
+
+		/* determine if it is an special field (rowNumber/rowIndex) otherwise if the field exists */
+		int type = Types.INTEGER;
+		int col = -1;
+		if (!name.equals("_rowNumber") && !name.equals("_rowIndex"))
+		{
+			RecordsetField f = rs.getFields().get(name);
+			if (f==null)
+				return null;
+			type = f.getType();
+			col = rs.getColumnIndex(name);
+		}
+
+		FieldFormatter ff = new FieldFormatter();
+		ff._name = name;
+		ff._col = col;
+		ff._locale = locale;
+		ff._te = te;
+
+		//PATCH 2005-05-23 - get plugin name if available
+		if (format!=null && format.startsWith("class:"))
+		{
+			FormatPluginParser fpp = new FormatPluginParser(format.substring(6));
+			ff._plugin = (IFormatPlugin)ClassCache.getSharedInstance(fpp.getName());
+			ff._pluginArgs = fpp.getArgs();
+			ff._kind = PLUGIN;
+		}
+		else if (type==Types.DATE || type==Types.TIMESTAMP)
+		{
+			/* apply default or custom date format? */
+			if (format==null)
+				format = defDateFmt;
+			ff._format = StringUtil.getDateFormat(format, locale, true);
+			ff._kind = DATE;
+		}
+		else if (format!=null)
+		{
+			//is a string data type?
+			if (type==Types.VARCHAR || type==Types.CHAR || type==Types.CLOB || type==Types.LONGVARCHAR)
+			{
+				if (format.equals("xml"))
+					ff._kind = XML;
+				else if (format.equals("html"))
+					ff._kind = HTML;
+				else if (format.equals("url"))
+					ff._kind = URL;
+				else if (format.equals("js"))
+					ff._kind = JS;
+				else
+					ff._kind = INVALID;
+			}
+			// it is a numeric data type
+			else
+			{
+				ff._format = StringUtil.getNumberFormat(format, locale);
+				ff._kind = NUMBER;
+			}
+		}
+
+		return ff;
+
+	}
+
+	/**
+	 * Returns the formatted value of the field for the current record
+	 * @param rs Recordset used to create this formatter
+	 * @param nullValueExpr The string to represent null values ("" or &ampnbsp;)
+	 * @return Formatted value
+	 * @throws Throwable
+	 */
+	String format(Recordset rs, String nullValueExpr) throws Throwable
+	{
+
+		//custom format??
+		if (_kind==PLUGIN)
+			return _plugin.format(_name, rs, _locale, _pluginArgs);
+
+		/* get field value */
+		Object value = null;
+		if (_col < 0)
+			value = rs.getValue(_name);
+		else
+			value = rs.getValue(_col);
+
+		/* apply appropiate null representation */
+		if (value==null)
+			return nullValueExpr;
+
+		switch (_kind)
+		{
+			case XML:
+				return _te.encodeXML((String)value);
+
+			case HTML:
+				return _te.encodeHTML((String)value);
+
+			case URL:
+				return URLEncoder.encode((String)value, "UTF-8");
+
+			case JS:
+				return _te.encodeJS((String)value);
+
+			case NUMBER:
+				return _format.format(value);
+
+			case DATE:
+				return _format.format((java.util.Date)value);
+
+			case INVALID:
+				throw new Throwable("Invalid format mask for the field:" + _name);
+
+			default:
+				return String.valueOf(value);
+		}
+
+	}
+
+}
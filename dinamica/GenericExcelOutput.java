@@ -133,6 +133,22 @@ public class GenericExcelOutput extends AbstractExcelOutput
 		return "attachment; filename=\"" + fileName + "\";";
 	}
 	
+	/**
+	 * El recordset del elemento [excel] se recorre una sola vez, por lo que
+	 * puede ser un recordset streaming (ver GenericOutput.isSinglePass). Las subclases
+	 * pueden usar los recordsets en beforeData() y afterData(), por eso en ese caso
+	 * se retorna FALSE, a menos que la subclase redefina este metodo.
+	 * @param id ID del recordset
+	 * @return TRUE si el recordset se lee una sola vez
+	 * @throws Throwable
+	 */
+	public boolean isSinglePass(String id) throws Throwable
+	{
+		if (getClass()!=GenericExcelOutput.class)
+			return false;
+		return id.equals(getConfig().getDocument().getElement("excel").getAttribute("recordset"));
+	}
+	
 	/**
 	 * Metodo que permite aadir data a la hoja de calculo antes
 	 * de la imprimir la data del detalle, es especial para los casos
@@ -168,6 +168,53 @@ public class GenericOutput
 		
 	}
 	
+	/**
+	 * Returns TRUE if this Output reads the given recordset only once,
+	 * from the first to the last record, so it can be consumed while it is
+	 * being read from the database (streaming="true" in the [recordset] element).
+	 * If it returns FALSE the recordset is loaded in memory before calling print().
+	 * This class reads a recordset in a single pass only when it is printed once
+	 * with mode="table", no paging and its metadata (ID.metadata, with the record count)
+	 * is not printed, because the record count of a streaming recordset is known only
+	 * after its last record is read; subclasses that iterate over the recordsets
+	 * in a single pass may redefine this method.
+	 * @param id Recordset ID
+	 * @return TRUE if the recordset is read in a single pass
+	 * @throws Throwable
+	 */
+	public boolean isSinglePass(String id) throws Throwable
+	{
+		
+		/* subclasses may read the recordsets in other ways */
+		if (getClass()!=GenericOutput.class)
+			return false;
+		
+		if (getRequest().getParameter("pagesize")!=null)
+			return false;
+		
+		int count = 0;
+		boolean table = true;
+		String metadata = id + ".metadata";
+		Recordset rs = _config.getPrintCommands();
+		while (rs.next())
+		{
+			if (id.equals(rs.getValue("recordset")))
+			{
+				count++;
+				if (!"table".equals(rs.getValue("mode")) || rs.getValue("pagesize")!=null)
+					table = false;
+			}
+			else if (metadata.equals(rs.getValue("recordset")))
+			{
+				table = false;
+			}
+		}
+		rs.top();
+		
+		return table && count==1;
+		
+	}
+
 	/**
 	 * This method is called for non text based output (images, binaries, etc.).
 	 * Reimplementations of this method MUST write the output
@@ -1,5 +1,7 @@
 package dinamica;
 
+import java.util.ArrayList;
+
 import dinamica.xml.*;
 
 /**
@@ -16,7 +18,13 @@ import dinamica.xml.*;
  * execute the queries defined via "query" elements in config.xml, it means
  * that if you defined one or more recordsets in config.xml, these will be created
  * BEFORE the DML queries are executed.<br><br>
- * Last update: 2009-06-22
+ * If the "params" recordset has many records -a grid- the query is executed once per record;
+ * with the attribute batch="N" the commands are sent to the database in JDBC batches
+ * of N records. With bind="true" the field markers are sent as parameters of a PreparedStatement
+ * (see TemplateEngine.getSqlStatement()), so the whole batch uses a single statement; otherwise
+ * each command is generated as text and sent with Db.addBatchCommand(). Example:<br>
+ * &lt;query params="items" bind="true" batch="500"&gt;insert.sql&lt;/query&gt;<br><br>
+ * Last update: 2010-06-29
  * @author Martin Cordova (dinamica@martincordova.com)
  */
 public class GenericTableManager extends GenericTransaction
@@ -55,31 +63,50 @@ public class GenericTableManager extends GenericTransaction
 				//patch 2010-03-08
 				String dsName = q[i].getAttribute("datasource");
 				
+				//patch 2010-06-29 - bind parameters and batch size
+				String bind = q[i].getAttribute("bind");
+				boolean useBind = bind!=null && bind.equals("true");
+				int batchSize = 0;
+				String batch = q[i].getAttribute("batch");
+				if (batch!=null && !batch.trim().equals(""))
+					batchSize = Integer.parseInt(batch.trim());
+				
 				//replace markers using a specific recordset
 				if (rsName!=null)
 				{
 					Recordset rs = getRecordset(rsName);
-					if( rs.getRecordCount()>1 ) {
+					if( rs.getRecordCount()>1 && batchSize>0 ) {
+						execBatch(db, dsName, sql, rs, inputParams, batchSize, useBind);
+					} else if( rs.getRecordCount()>1 ) {
 						rs.top();
 						while (rs.next()) {
-							String t = this.getSQL(sql, rs);
-							t = this.getSQL(t, inputParams);
-							if (dsName==null)
-								db.exec(t);
-							else
-								dbExec(dsName, t);
-							
+							if (useBind) {
+								exec(db, dsName, getSqlStatement(sql, rs, inputParams));
+							} else {
+								String t = this.getSQL(sql, rs);
+								t = this.getSQL(t, inputParams);
+								if (dsName==null)
+									db.exec(t);
+								else
+									dbExec(dsName, t);
+							}
 						}
 					} else if( rs.getRecordCount()==1 ) {
 						rs.first();
-						sql = this.getSQL(sql, rs);
-						sql = this.getSQL(sql, inputParams);
-						if (dsName==null)
-							db.exec(sql);
-						else
-							dbExec(dsName, sql);
+						if (useBind) {
+							exec(db, dsName, getSqlStatement(sql, rs, inputParams));
+						} else {
+							sql = this.getSQL(sql, rs);
+							sql = this.getSQL(sql, inputParams);
+							if (dsName==null)
+								db.exec(sql);
+							else
+								dbExec(dsName, sql);
+						}
 					}
 					
+				} else if (useBind) {
+					exec(db, dsName, getSqlStatement(sql, inputParams));
 				} else {
 					sql = this.getSQL(sql, inputParams);
 					if (dsName==null)
@@ -96,4 +123,100 @@ public class GenericTableManager extends GenericTransaction
 		
 	}
 
+	/**
+	 * Execute a SQL command with parameters using the connection
+	 * of the Action or a specific datasource
+	 * @param db Database channel of the Action
+	 * @param dsName Datasource name or null
+	 * @param stmt SQL command and parameters
+	 * @throws Throwable
+	 */
+	void exec(Db db, String dsName, SqlStatement stmt) throws Throwable
+	{
+		if (dsName==null)
+			db.exec(stmt);
+		else
+			dbExec(dsName, stmt);
+	}
+
+	/**
+	 * Execute the query once per record of a recordset, sending
+	 * the commands to the database in batches
+	 * @param db Database channel of the Action
+	 * @param dsName Datasource name or null to use the connection of the Action
+	 * @param sql SQL template
+	 * @param rs Recordset with the values, all its records are used
+	 * @param inputParams Request parameters
+	 * @param batchSize Maximum number of commands per batch
+	 * @param bind TRUE to send the field values as parameters of a PreparedStatement
+	 * @throws Throwable
+	 */
+	void execBatch(Db db, String dsName, String sql, Recordset rs, Recordset inputParams, int batchSize, boolean bind) throws Throwable
+	{
+		
+		/* a specific datasource uses one connection for all the batches */
+		java.sql.Connection conn = null;
+		if (dsName!=null)
+		{
+			conn = getDataSource(dsName).getConnection();
+			db = new Db(conn);
+			if (_pw!=null)
+				db.setLogWriter(_pw);
+		}
+		
+		try
+		{
+			ArrayList<SqlStatement> stmts = new ArrayList<SqlStatement>(Math.min(batchSize, rs.getRecordCount()));
+			int count = 0;
+			rs.top();
+			while (rs.next())
+			{
+				if (bind)
+				{
+					stmts.add(getSqlStatement(sql, rs, inputParams));
+				}
+				else
+				{
+					String t = this.getSQL(sql, rs);
+					t = this.getSQL(t, inputParams);
+					db.addBatchCommand(t);
+				}
+				
+				if (++count==batchSize)
+				{
+					flushBatch(db, stmts, bind);
+					count = 0;
+				}
+			}
+			if (count > 0)
+				flushBatch(db, stmts, bind);
+		}
+		finally
+		{
+			if (conn!=null)
+				conn.close();
+		}
+		
+	}
+
+	/**
+	 * Execute the commands accumulated for a batch
+	 * @param db Database channel
+	 * @param stmts Commands with parameters (bind mode), cleared after execution
+	 * @param bind TRUE if the commands are in stmts, FALSE if they were added to db
+	 * @throws Throwable
+	 */
+	void flushBatch(Db db, ArrayList<SqlStatement> stmts, boolean bind) throws Throwable
+	{
+		if (bind)
+		{
+			db.execBatch(stmts);
+			stmts.clear();
+		}
+		else
+		{
+			db.exec();
+		}
+	}
+
 }
@@ -1,8 +1,12 @@
 package dinamica;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import javax.naming.*;
 import javax.sql.DataSource;
@@ -31,6 +35,9 @@ public class GenericTransaction extends AbstractModule
 	
 	/** store recordsets published by this service */
 	private HashMap<String, Recordset> _publish = new HashMap<String, Recordset>();
+
+	/** streaming recordsets created by this service, their cursors must be closed after the output */
+	private ArrayList<StreamingRecordset> _streams = null;
 	
 	/**
 	 * Publish recordset to be consumed by Output modules
@@ -97,146 +104,205 @@ public class GenericTransaction extends AbstractModule
 		Recordset rs = _config.getRecordsets();
 		Recordset rs1 = null;
 		
-		/* for each defined recordset */
-		while (rs.next())
+		//patch 2010-06-25 - start the independent queries declared with parallel="true"
+		HashMap<Integer, ParallelQuery> parallel = startParallelQueries(rs, inputParams);
+		
+		//patch 2010-07-15 - the queries not consumed are cancelled on any exit, including errors
+		try
 		{
+			/* for each defined recordset */
+			while (rs.next())
+			{
 			
-			/* get parameters */
-			String id = (String)rs.getValue("id");
-			String source = (String)rs.getValue("source");
-			String scope = (String)rs.getValue("scope");
-			String onempty = (String)rs.getValue("onempty");
-			String maxRows = (String)rs.getValue("maxrows");
-			int limit = 0;
-			if (maxRows!=null)
-				limit = Integer.parseInt(maxRows);
-			String dataSrc = rs.getString("datasource");
-			String params = rs.getString("params");
-			String totalCols = rs.getString("totalCols");
+				/* get parameters */
+				String id = (String)rs.getValue("id");
+				String source = (String)rs.getValue("source");
+				String scope = (String)rs.getValue("scope");
+				String onempty = (String)rs.getValue("onempty");
+				String maxRows = (String)rs.getValue("maxrows");
+				int limit = 0;
+				if (maxRows!=null)
+					limit = Integer.parseInt(maxRows);
+				String dataSrc = rs.getString("datasource");
+				String params = rs.getString("params");
+				String totalCols = rs.getString("totalCols");
 
-			String fetchSize = (String)rs.getValue("fetchsize");
-			if (fetchSize==null)
-				db.setFetchSize(0);
-			else
-				db.setFetchSize(Integer.parseInt(fetchSize));
+				String fetchSize = (String)rs.getValue("fetchsize");
+				if (fetchSize==null)
+					db.setFetchSize(0);
+				else
+					db.setFetchSize(Integer.parseInt(fetchSize));
+
+				//patch 2010-06-24 - streaming recordsets, only for the transaction connection and scope
+				String streaming = rs.getString("streaming");
+				boolean stream = streaming!=null && streaming.equals("true") && dataSrc==null && scope.equals("transaction");
 			
-			/* create recordset using appropiate source */			
-			if (source.equals("sql"))
-			{
-				String sqlFile = getResource(id);
-				sqlFile = this.getSQL(sqlFile, inputParams);
-				
-				if (params!=null)
+				//patch 2010-06-28 - bind field values as parameters of a PreparedStatement
+				String bind = rs.getString("bind");
+				SqlStatement stmt = null;
+			
+				/* create recordset using appropiate source */			
+				if (source.equals("sql"))
 				{
-					// PATCH 2005-04-05 support for alternative input parameters recordset for SQL templates
-					Recordset rsParams = getRecordset(params);
-					if (rsParams.getRecordCount()>0)
-						rsParams.first();
+					ParallelQuery query = null;
+					if (parallel!=null)
+						query = parallel.remove(Integer.valueOf(rs.getRecordNumber()));
+				
+					String sqlFile = null;
+					if (query==null)
+					{
+						sqlFile = getResource(id);
+						if (bind==null || !bind.equals("true"))
+							sqlFile = this.getSQL(sqlFile, inputParams);
+					}
+				
+					Recordset rsParams = null;
+					if (query==null && params!=null)
+					{
+						// PATCH 2005-04-05 support for alternative input parameters recordset for SQL templates
+						rsParams = getRecordset(params);
+						loadStream(rsParams);
+						if (rsParams.getRecordCount()>0)
+							rsParams.first();
+						else
+							throw new Throwable("The recordset [" + params + "] used to replace SQL template values is empty.");
+						if (bind==null || !bind.equals("true"))
+							sqlFile = this.getSQL(sqlFile, rsParams);
+					}
+				
+					if (query==null && bind!=null && bind.equals("true"))
+						stmt = getSqlStatement(sqlFile, inputParams, rsParams);
+				
+					//PATCH 2005-03-14 support datasource defined at recordset level
+					if (query!=null)
+					{
+						rs1 = query.getResult();
+						if (query.log!=null)
+							_pw.print(query.log.toString());
+					}
+					else if (stream)
+					{
+						StreamingRecordset s = null;
+						if (stmt!=null)
+							s = db.getStream(stmt, limit);
+						else
+							s = db.getStream(sqlFile, limit);
+						if (_streams==null)
+							_streams = new ArrayList<StreamingRecordset>();
+						_streams.add(s);
+						rs1 = s;
+					}
+					else if (stmt!=null)
+					{
+						if (dataSrc==null)
+							rs1 = db.get(stmt, limit);
+						else
+							rs1 = dbGet(dataSrc, stmt, limit);
+					}
+					else if (dataSrc==null)
+					{
+						if (limit>0)
+							rs1 = db.get(sqlFile, limit);
+						else
+							rs1 = db.get(sqlFile);
+					}
 					else
-						throw new Throwable("The recordset [" + params + "] used to replace SQL template values is empty.");
-					sqlFile = this.getSQL(sqlFile, rsParams);
-				}
+					{
+						rs1 = dbGet(dataSrc, sqlFile, limit);
+					}
 				
-				//PATCH 2005-03-14 support datasource defined at recordset level
-				if (dataSrc==null)
+					if (onempty!=null)
+					{
+						//patch 2009-07-08 - do not evaluate anymore recordsets if on-empty rule matches
+						if (rs1.getRecordCount()==0) {
+							rc = Integer.parseInt(onempty);
+							break;
+						}
+					}
+				}
+				else if (source.equals("session"))
 				{
-					if (limit>0)
-						rs1 = db.get(sqlFile, limit);
-					else
-						rs1 = db.get(sqlFile);
+					rs1 = (Recordset)getSession().getAttribute(id);
+					//PATCH 2005-03-01 - enhance error message if session attribute is null
+					if (rs1==null)
+						throw new Throwable("Recordset [" + id + "] not found in Session attribute, maybe the application was reloaded, destroying the session.");
 				}
-				else
+				else if (source.equals("request"))
 				{
-					rs1 = dbGet(dataSrc, sqlFile, limit);
+					rs1 = (Recordset)_req.getAttribute(id);
+					if (rs1==null)
+						throw new Throwable("Request attribute [" + id + "] does not contain a recordset.");
 				}
-				
-				if (onempty!=null)
+				else if (source.equals("textfile"))
 				{
-					//patch 2009-07-08 - do not evaluate anymore recordsets if on-empty rule matches
-					if (rs1.getRecordCount()==0) {
-						rc = Integer.parseInt(onempty);
-						break;
-					}
+					rs1 = this.getRsFromFlatFile(id);
 				}
-			}
-			else if (source.equals("session"))
-			{
-				rs1 = (Recordset)getSession().getAttribute(id);
-				//PATCH 2005-03-01 - enhance error message if session attribute is null
-				if (rs1==null)
-					throw new Throwable("Recordset [" + id + "] not found in Session attribute, maybe the application was reloaded, destroying the session.");
-			}
-			else if (source.equals("request"))
-			{
-				rs1 = (Recordset)_req.getAttribute(id);
-				if (rs1==null)
-					throw new Throwable("Request attribute [" + id + "] does not contain a recordset.");
-			}
-			else if (source.equals("textfile"))
-			{
-				rs1 = this.getRsFromFlatFile(id);
-			}
-			else if (source.equals("class"))
-			{
-			    IRecordsetProvider rsProv = (IRecordsetProvider)getObject(id);
-				rs1 = rsProv.getRecordset(inputParams);
-				if (onempty!=null){
-					if (rs1.getRecordCount()==0)
-					rc = Integer.parseInt(onempty);	
-				}				
-			} else if (source.equals("total"))
-			{
-				//patch 2010-04-08 soporte para sumar o totalizar en memoria un campo
-				if ( source.equals("total") && totalCols==null)
-					throw new Throwable ("El atributo [totalCols] no ha sido definido para el elemento: recordset.");
-				if ( source.equals("total") && params==null)
-					throw new Throwable ("El atributo [params] no ha sido definido para el elemento: recordset.");
+				else if (source.equals("class"))
+				{
+				    IRecordsetProvider rsProv = (IRecordsetProvider)getObject(id);
+					rs1 = rsProv.getRecordset(inputParams);
+					if (onempty!=null){
+						if (rs1.getRecordCount()==0)
+						rc = Integer.parseInt(onempty);	
+					}				
+				} else if (source.equals("total"))
+				{
+					//patch 2010-04-08 soporte para sumar o totalizar en memoria un campo
+					if ( source.equals("total") && totalCols==null)
+						throw new Throwable ("El atributo [totalCols] no ha sido definido para el elemento: recordset.");
+					if ( source.equals("total") && params==null)
+						throw new Throwable ("El atributo [params] no ha sido definido para el elemento: recordset.");
 				
-				//obtener array de los valores
-				String cols[] = StringUtil.split(totalCols, ";");
-				//armar recordset de total
-				rs1 = new Recordset();
-				for (int i = 0; i < cols.length; i++) {
-					rs1.append(cols[i], java.sql.Types.DOUBLE);
-				}
-				rs1.addNew();
+					//obtener array de los valores
+					String cols[] = StringUtil.split(totalCols, ";");
+					//armar recordset de total
+					rs1 = new Recordset();
+					for (int i = 0; i < cols.length; i++) {
+						rs1.append(cols[i], java.sql.Types.DOUBLE);
+					}
+					rs1.addNew();
 				
-				//recordset de donde se sumara cada registro
-				Recordset rsParams = getRecordset(params);
+					//recordset de donde se sumara cada registro
+					Recordset rsParams = getRecordset(params);
 				
-				//realizar operacion de sumatoria
-				computeTotal(rs1, rsParams, cols);
-			}
-			else
-			{
-				throw new Throwable("Invalid recordset source in config.xml (" + _config.path + "). Source attribute values can be sql, session, textfile or request only.");
-			}
+					//realizar operacion de sumatoria
+					computeTotal(rs1, rsParams, cols);
+				}
+				else
+				{
+					throw new Throwable("Invalid recordset source in config.xml (" + _config.path + "). Source attribute values can be sql, session, textfile or request only.");
+				}
 
-			/* publish this recordset */
-			_publish.put(id, rs1);
+				/* publish this recordset */
+				_publish.put(id, rs1);
 			
-			/* get recordset simple metadata (recordcount, pagecount, etc) */
-			rs1.setID(id);
-			Recordset info = rs1.getRecordsetInfo();
+				/* get recordset simple metadata (recordcount, pagecount, etc) */
+				rs1.setID(id);
+				Recordset info = rs1.getRecordsetInfo();
 			
-			/* publish this new recordset */
-			String infoID = id + ".metadata";
-			_publish.put(infoID, info);
+				/* publish this new recordset */
+				String infoID = id + ".metadata";
+				_publish.put(infoID, info);
 			
-			/* persist recordset if necessary (in session or request object */
-			if (scope.equals("session"))
-			{
-				getSession().setAttribute(id, rs1);
-			}
-			else if (scope.equals("request"))
-			{
-				_req.setAttribute(id, rs1);
-			}
-			else if (!scope.equals("transaction"))
-			{
-				throw new Throwable("Invalid recordset scope in config.xml (" + _config.path + "). Scope attribute values can be transaction, session or request only.");
-			}
+				/* persist recordset if necessary (in session or request object */
+				if (scope.equals("session"))
+				{
+					getSession().setAttribute(id, rs1);
+				}
+				else if (scope.equals("request"))
+				{
+					_req.setAttribute(id, rs1);
+				}
+				else if (!scope.equals("transaction"))
+				{
+					throw new Throwable("Invalid recordset scope in config.xml (" + _config.path + "). Scope attribute values can be transaction, session or request only.");
+				}
 			
+			}
+		}
+		finally
+		{
+			cancelParallelQueries(parallel);
 		}
 		
 		return rc;
@@ -279,6 +345,243 @@ public class GenericTransaction extends AbstractModule
 		}
 	}
 	
+	/**
+	 * Query of a [recordset] element executed in parallel with the
+	 * other recordsets of the Action, using its own connection
+	 */
+	static class ParallelQuery implements Callable<Recordset>
+	{
+		
+		DataSource ds = null;
+		String sql = null;
+		SqlStatement stmt = null;
+		int limit = 0;
+		int fetchSize = 0;
+		
+		/** jdbc log of this query - if enabled */
+		StringWriter log = null;
+		
+		/** error executing the query */
+		Throwable error = null;
+		
+		Future<Recordset> future = null;
+		
+		public Recordset call() throws Exception
+		{
+			try
+			{
+				java.sql.Connection conn = ds.getConnection();
+				try
+				{
+					Db db = new Db(conn);
+					db.setFetchSize(fetchSize);
+					if (log!=null)
+						db.setLogWriter(new PrintWriter(log));
+					if (stmt!=null)
+						return db.get(stmt, limit);
+					else
+						return db.get(sql, limit);
+				}
+				finally
+				{
+					conn.close();
+				}
+			}
+			catch (Throwable e)
+			{
+				error = e;
+				return null;
+			}
+		}
+		
+		/**
+		 * Wait for the query to finish
+		 * @return Recordset
+		 * @throws Throwable The error of the query, if any
+		 */
+		Recordset getResult() throws Throwable
+		{
+			Recordset rs = future.get();
+			if (error!=null)
+				throw error;
+			return rs;
+		}
+		
+	}
+	
+	/**
+	 * Start the execution of the [recordset] elements declared with
+	 * parallel="true". Only SQL recordsets that do not depend on other
+	 * recordsets (no params attribute and no ${lst:xxx} markers) are started,
+	 * each one on its own connection from the datasource of the Action or the
+	 * datasource of the recordset element. They are published in the declared
+	 * order by createRecordsets(), which waits for each result. Parallel queries
+	 * use their own connections, so they don't see uncommitted changes made by
+	 * this transaction, and they are never streaming recordsets.
+	 * @param rs Recordsets configuration, it is left positioned before the first record
+	 * @param inputParams Request parameters used to replace SQL template values
+	 * @return Started queries indexed by position of the recordset element or NULL if there are none
+	 * @throws Throwable
+	 */
+	private HashMap<Integer, ParallelQuery> startParallelQueries(Recordset rs, Recordset inputParams) throws Throwable
+	{
+		
+		HashMap<Integer, ParallelQuery> queries = null;
+		
+		while (rs.next())
+		{
+			
+			String parallel = rs.getString("parallel");
+			if (parallel==null || !parallel.equals("true"))
+				continue;
+			if (!rs.getString("source").equals("sql") || rs.getString("params")!=null)
+				continue;
+			
+			String sql = getResource(rs.getString("id"));
+			if (sql.indexOf("${lst:")>=0)
+				continue;
+			
+			ParallelQuery q = new ParallelQuery();
+			String bind = rs.getString("bind");
+			if (bind!=null && bind.equals("true"))
+				q.stmt = getSqlStatement(sql, inputParams);
+			else
+				q.sql = getSQL(sql, inputParams);
+			
+			String dataSrc = rs.getString("datasource");
+			if (dataSrc==null)
+				q.ds = getDataSource();
+			else
+				q.ds = getDataSource(dataSrc);
+			
+			String maxRows = rs.getString("maxrows");
+			if (maxRows!=null)
+				q.limit = Integer.parseInt(maxRows);
+			
+			String fetchSize = rs.getString("fetchsize");
+			if (fetchSize!=null)
+				q.fetchSize = Integer.parseInt(fetchSize);
+			
+			if (_pw!=null)
+				q.log = new StringWriter();
+			
+			if (queries==null)
+				queries = new HashMap<Integer, ParallelQuery>();
+			queries.put(Integer.valueOf(rs.getRecordNumber()), q);
+			
+		}
+		rs.top();
+		
+		/* start all the queries */
+		if (queries!=null)
+		{
+			QueryExecutor executor = QueryExecutor.getInstance(_ctx);
+			try
+			{
+				for (ParallelQuery q : queries.values())
+					q.future = executor.submit(q);
+			}
+			catch (Throwable e)
+			{
+				cancelParallelQueries(queries);
+				throw e;
+			}
+		}
+		
+		return queries;
+		
+	}
+	
+	/**
+	 * Cancel the parallel queries whose result is not going to be used because
+	 * of an on-empty rule or an error: queued queries are never executed, so they
+	 * don't take a connection; queries already running finish and release their connections
+	 * @param queries Queries returned by startParallelQueries()
+	 */
+	private void cancelParallelQueries(HashMap<Integer, ParallelQuery> queries)
+	{
+		if (queries!=null)
+		{
+			for (ParallelQuery q : queries.values())
+			{
+				if (q.future!=null)
+					q.future.cancel(false);
+			}
+		}
+	}
+	
+	/**
+	 * Load in memory a streaming recordset that is going to be used
+	 * by this transaction, so it can still be read by the Output
+	 * @param rs Recordset
+	 * @throws Throwable
+	 */
+	private void loadStream(Recordset rs) throws Throwable
+	{
+		if (rs instanceof StreamingRecordset)
+			((StreamingRecordset)rs).load();
+	}
+
+	/**
+	 * Returns TRUE if this transaction created streaming recordsets
+	 * that may still have an open cursor
+	 */
+	boolean hasStreams()
+	{
+		return _streams!=null;
+	}
+
+	/**
+	 * Prepare the streaming recordsets for the Output: those that
+	 * the Output cannot consume in a single pass are loaded in memory
+	 * and their metadata is published again
+	 * @param o Output object
+	 * @throws Throwable
+	 */
+	void prepareStreams(GenericOutput o) throws Throwable
+	{
+		if (_streams==null)
+			return;
+
+		for (int i = 0; i < _streams.size(); i++)
+		{
+			StreamingRecordset s = _streams.get(i);
+			if (s.isStreaming() && !o.isSinglePass(s.getID()))
+			{
+				s.load();
+				_publish.put(s.getID() + ".metadata", s.getRecordsetInfo());
+			}
+		}
+	}
+
+	/**
+	 * Close the cursors of the streaming recordsets, called by
+	 * the Controller after the Output, before closing the connection
+	 * @throws Throwable
+	 */
+	void closeStreams() throws Throwable
+	{
+		if (_streams==null)
+			return;
+
+		Throwable error = null;
+		for (int i = 0; i < _streams.size(); i++)
+		{
+			try
+			{
+				_streams.get(i).close();
+			}
+			catch (Throwable e)
+			{
+				error = e;
+			}
+		}
+		_streams = null;
+
+		if (error!=null)
+			throw error;
+	}
+
 	/**
 	 * Generate SQL command. Encapsulates the use of the TemplateEngine
 	 * class, to make it easier for developers writing Transaction Modules
@@ -289,6 +592,35 @@ public class GenericTransaction extends AbstractModule
 	 * @throws Throwable
 	 */
 	protected String getSQL(String sql, Recordset rs) throws Throwable
+	{
+		return getSqlTemplate(sql).getSql(rs);
+	}
+	
+	/**
+	 * Generate a SQL command with ? placeholders for the field markers and
+	 * the values to bind to them, to be executed with Db.get(SqlStatement) or
+	 * Db.exec(SqlStatement). The SQL text does not change with the values, so the
+	 * database can reuse the execution plan. Markers ${lst:xxx} and the other
+	 * SQL markers are replaced by text as in getSQL().
+	 * @param sql SQL Template
+	 * @param rs Recordsets with at least one record - there must be
+	 * a current record; if a field exists in more than one recordset the first one is used
+	 * @return SQL command and its parameters
+	 * @throws Throwable
+	 */
+	protected SqlStatement getSqlStatement(String sql, Recordset... rs) throws Throwable
+	{
+		return getSqlTemplate(sql).getSqlStatement(rs);
+	}
+	
+	/**
+	 * Create the TemplateEngine used to generate SQL, with the
+	 * ${lst:xxx} markers already replaced
+	 * @param sql SQL Template
+	 * @return TemplateEngine
+	 * @throws Throwable
+	 */
+	private TemplateEngine getSqlTemplate(String sql) throws Throwable
 	{
 		
 		TemplateEngine t = new TemplateEngine(_ctx,_req, sql);
@@ -308,6 +640,7 @@ public class GenericTransaction extends AbstractModule
 					Recordset rsList = (Recordset)getRequest().getAttribute(rsID);
 					if (rsList==null)
 						rsList = getRecordset(rsID);
+					loadStream(rsList);
 					
 					String values = getSqlIN(rsList, colName);
 					t.replace(newMarker, values);
@@ -315,7 +648,7 @@ public class GenericTransaction extends AbstractModule
 			}
 		}
 		
-		return t.getSql(rs);
+		return t;
 		
 	}
 	
@@ -350,7 +683,7 @@ public class GenericTransaction extends AbstractModule
 		GenericTransaction t = null;
 
 		/* load transaction class */
-		t = (GenericTransaction) Thread.currentThread().getContextClassLoader().loadClass(className).newInstance();
+		t = (GenericTransaction) ClassCache.newInstance(className);
 		t.init(_ctx, _req, _res);
 		t.setConfig(_config);
 		t.setConnection(_conn);
@@ -520,6 +853,34 @@ public class GenericTransaction extends AbstractModule
 		return _publish;
 	}
 	
+	/**
+	 * Utility method to retrieve a recordset from a different data source
+	 * than the one used by the action, using a SQL command with parameters
+	 * @param DataSourceName Data Source name like "jdbc/xxxx"
+	 * @param sql SQL command and parameters created by getSqlStatement()
+	 * @param limit The maximum number of rows to retrieve (0 = no limit) 
+	 * @return
+	 * @throws Throwable
+	 */
+	protected Recordset dbGet(String DataSourceName, SqlStatement sql, int limit) throws Throwable
+	{
+		java.sql.Connection conn = getDataSource(DataSourceName).getConnection();
+		try
+		{
+			Db db = new Db(conn);
+			
+			if (this._pw!=null)
+				db.setLogWriter(_pw);
+			
+			return db.get(sql, limit);
+		}
+		finally
+		{
+			if (conn!=null)
+				conn.close();
+		}		
+	}
+	
 	/**
 	 * Utility method to retrieve a recordset from a different data source
 	 * than the one used by the action
@@ -714,6 +1075,36 @@ public class GenericTransaction extends AbstractModule
 		
 	}
 	
+	/**
+	 * Execute a SQL command with parameters (insert, update or delete) using a specific
+	 * DataSource, like dbExec(String, String); it will not be part of the JDBC transaction
+	 * of the Action.
+	 * @param dataSourceName Data Source name like "jdbc/xxxx"
+	 * @param sql SQL command and parameters created by getSqlStatement()
+	 * @return The number of rows affected
+	 * @throws Throwable
+	 */
+	protected int dbExec(String dataSourceName, SqlStatement sql) throws Throwable
+	{
+
+		java.sql.Connection conn = getDataSource(dataSourceName).getConnection();
+		try
+		{
+			Db db = new Db(conn);
+			
+			if (this._pw!=null)
+				db.setLogWriter(_pw);
+			
+			return db.exec(sql);
+		}
+		finally
+		{
+			if (conn!=null)
+				conn.close();
+		}			
+		
+	}
+	
 	/**
 	 * Retorna un recordset dado un array unidimensional, tendra un solo campo y un registro por cada elemento del array.
 	 * Es un metodo utilitario que sirve para recibir datos concatenados en un solo parametro, separados por ";" u otro caracter,
@@ -765,8 +1156,8 @@ public class GenericTransaction extends AbstractModule
 	 * Dado un recordset, retorna un String que contiene una lista
 	 * de valores tomados de una columna del recordset, separados por coma
 	 * y encerrados entre parentesis. Dependiendo del tipo de dato de la columna,
-	 * los valores estaran representados como literales VARCHAR o como numeros enteros.
-	 * Solo soporta campos de tipo VARCHAR o INTEGER.<br><br>
+	 * los valores estaran representados como literales VARCHAR o como numeros.
+	 * Solo soporta campos de tipo VARCHAR, INTEGER o DOUBLE.<br><br>
 	 * @param rs Recordset
 	 * @param colName Nombre de la columna a usar
 	 * @return Clausula IN o un string vacio si el recordset no tiene registros
@@ -789,6 +1180,7 @@ public class GenericTransaction extends AbstractModule
 				break;
 			case java.sql.Types.INTEGER:
 			case java.sql.Types.BIGINT:
+			case java.sql.Types.DOUBLE:
 				b.append(rs.getString(colName) + ",");
 				break;
 			}
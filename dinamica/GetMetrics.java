@@ -0,0 +1,61 @@
+package dinamica;
+
+/**
+ * Publishes the performance metrics of the Actions of this context
+ * (see Metrics) as a Recordset with ID "metrics" and the fields
+ * action, phase, count, errors, mean, p50, p95, p99 and max (milliseconds),
+ * and the statistics of the statement caches as a Recordset with ID "statementcache"
+ * and the fields hits and misses, and the statistics of the response cache as a Recordset
+ * with ID "responsecache" and the fields size, bytes, hits, misses, evictions and expirations.
+ * If the request parameter "reset" is "true" the metrics are discarded after being read.
+ * <br>
+ * Creation date: 2010-07-06<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public class GetMetrics extends GenericTransaction
+{
+
+	@Override
+	public int service(Recordset inputParams) throws Throwable
+	{
+
+		super.service(inputParams);
+
+		Metrics m = Metrics.getInstance(getContext());
+		publish("metrics", m.getRecordset());
+
+		Recordset rs = new Recordset();
+		rs.append("hits", java.sql.Types.DOUBLE);
+		rs.append("misses", java.sql.Types.DOUBLE);
+		rs.addNew();
+		rs.setValue("hits", Double.valueOf(m.getStatementCacheHits()));
+		rs.setValue("misses", Double.valueOf(m.getStatementCacheMisses()));
+		publish("statementcache", rs);
+
+		ResponseCache c = ResponseCache.getInstance(getContext());
+		rs = new Recordset();
+		rs.append("size", java.sql.Types.DOUBLE);
+		rs.append("bytes", java.sql.Types.DOUBLE);
+		rs.append("hits", java.sql.Types.DOUBLE);
+		rs.append("misses", java.sql.Types.DOUBLE);
+		rs.append("evictions", java.sql.Types.DOUBLE);
+		rs.append("expirations", java.sql.Types.DOUBLE);
+		rs.addNew();
+		rs.setValue("size", Double.valueOf(c.getSize()));
+		rs.setValue("bytes", Double.valueOf(c.getBytes()));
+		rs.setValue("hits", Double.valueOf(c.getHits()));
+		rs.setValue("misses", Double.valueOf(c.getMisses()));
+		rs.setValue("evictions", Double.valueOf(c.getEvictions()));
+		rs.setValue("expirations", Double.valueOf(c.getExpirations()));
+		publish("responsecache", rs);
+
+		if ("true".equals(getRequest().getParameter("reset")))
+			m.reset();
+
+		return 0;
+
+	}
+
+}
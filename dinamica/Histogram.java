@@ -0,0 +1,145 @@
+package dinamica;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in microseconds, used by the Metrics
+ * registry. Values are counted in logarithmic buckets with 32 linear sub-buckets
+ * each (like HdrHistogram), so the percentiles have a relative error below 3%
+ * with a fixed memory of about 15 KB per histogram. Values below 64 are exact.
+ * <br><br>
+ * record() only increments atomic counters and can be called by any number
+ * of threads; the percentiles are computed from a non-blocking reading of the
+ * counters, which may not include the values recorded while reading.
+ * <br>
+ * Creation date: 2010-07-06<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public class Histogram
+{
+
+	/** linear sub-buckets per power of 2 */
+	static final int SUB_BITS = 5;
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/** values below this limit have their own bucket */
+	static final int LINEAR = SUB_BUCKETS * 2;
+
+	/** number of buckets, enough for any positive long */
+	static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB_BUCKETS;
+
+	/** counters */
+	private AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+	private AtomicLong _count = new AtomicLong();
+	private AtomicLong _sum = new AtomicLong();
+	private AtomicLong _max = new AtomicLong();
+
+	/**
+	 * Record a value
+	 * @param value Latency in microseconds, negative values are recorded as 0
+	 */
+	public void record(long value)
+	{
+		if (value < 0)
+			value = 0;
+
+		_buckets.incrementAndGet(index(value));
+		_count.incrementAndGet();
+		_sum.addAndGet(value);
+
+		long max = _max.get();
+		while (value > max && !_max.compareAndSet(max, value))
+			max = _max.get();
+	}
+
+	/**
+	 * Returns the bucket of a value
+	 * @param value Positive value
+	 */
+	static int index(long value)
+	{
+		if (value < LINEAR)
+			return (int)value;
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int)(value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR + (exp - SUB_BITS - 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the highest value counted in a bucket
+	 * @param index Bucket
+	 */
+	static long highestValue(int index)
+	{
+		if (index < LINEAR)
+			return index;
+		int exp = (index - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+		long sub = (index - LINEAR) % SUB_BUCKETS;
+		long width = 1L << (exp - SUB_BITS);
+		return ((SUB_BUCKETS + sub) << (exp - SUB_BITS)) + width - 1;
+	}
+
+	/**
+	 * Returns the number of recorded values
+	 */
+	public long getCount()
+	{
+		return _count.get();
+	}
+
+	/**
+	 * Returns the mean of the recorded values or 0 if there are no values
+	 */
+	public double getMean()
+	{
+		long count = _count.get();
+		if (count==0)
+			return 0;
+		return (double)_sum.get() / count;
+	}
+
+	/**
+	 * Returns the highest recorded value
+	 */
+	public long getMax()
+	{
+		return _max.get();
+	}
+
+	/**
+	 * Returns the value below which a percentage of the values fall
+	 * @param percentile Percentile (0...100), like 50, 95 or 99
+	 * @return Value (upper limit of its bucket) or 0 if there are no values
+	 */
+	public long getPercentile(double percentile)
+	{
+
+		long counts[] = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			counts[i] = _buckets.get(i);
+			total += counts[i];
+		}
+		if (total==0)
+			return 0;
+
+		long target = (long)Math.ceil(total * percentile / 100);
+		if (target < 1)
+			target = 1;
+
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			n += counts[i];
+			if (n >= target)
+				return Math.min(highestValue(i), getMax());
+		}
+		return getMax();
+
+	}
+
+}
@@ -0,0 +1,19 @@
+package dinamica;
+
+/**
+ * Marker interface for plugins that keep no state between calls,
+ * like format plugins (IFormatPlugin) and chart plugins (AbstractChartPlugin)
+ * without instance fields. The framework creates only one instance of these
+ * classes and shares it between all the requests (and threads) of the application,
+ * see ClassCache.getSharedInstance(). Plugins that do not implement this
+ * interface are instantiated on every use.
+ * <br>
+ * Creation date: 2010-07-08<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public interface IStateless
+{
+
+}
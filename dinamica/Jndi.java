@@ -1,14 +1,21 @@
 package dinamica;
 
 import java.text.MessageFormat;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.sql.DataSource;
 import javax.naming.*;
 
 /**
- * Provides easy API to obtain a datasource via JNDI
+ * Provides easy API to obtain a datasource via JNDI.
+ * DataSources are looked up only once and kept in a cache, because creating
+ * an InitialContext on every request is expensive in some containers. Names like
+ * java:comp/env/jdbc/xxx are relative to the application, the cache is kept per web
+ * application because this class is loaded from WEB-INF/lib by the class loader of each
+ * application; the framework must not be installed in a library shared by several applications.
+ * Call invalidate() if a DataSource is redeployed.
  * <br>
  * Creation date: 10/09/2003<br>
- * Last Update: 10/09/2003<br>
+ * Last Update: 2010-07-07<br>
  * (c) 2003 Martin Cordova<br>
  * This code is released under the LGPL license<br> 
  * @author Martin Cordova (dinamica@martincordova.com)
@@ -16,6 +23,27 @@ import javax.naming.*;
 public class Jndi
 {
 
+	/** DataSources already found, indexed by name */
+	private static ConcurrentHashMap<String, DataSource> _cache = new ConcurrentHashMap<String, DataSource>();
+
+	/**
+	 * Discard a DataSource from the cache, it will be looked up
+	 * again on next use
+	 * @param name Name of the DataSource, as used with getDataSource()
+	 */
+	public static void invalidate(String name)
+	{
+		_cache.remove(name);
+	}
+
+	/**
+	 * Discard all the DataSources from the cache
+	 */
+	public static void invalidate()
+	{
+		_cache.clear();
+	}
+
 	/**
 	 * Obtain a DataSource object using its JNDI name
 	 * @param name Name of the DataSource like "jdbc/demo" or "java:comp/env/jdbc/demo"
@@ -37,7 +65,10 @@ public class Jndi
 	public static DataSource getDataSource(String name) throws Throwable
 	{
 
-		DataSource source = null;
+		//patch 2010-07-07 - cached lookup
+		DataSource source = _cache.get(name);
+		if (source!=null)
+			return source;
 
 		try
 		{
@@ -52,6 +83,7 @@ public class Jndi
 			}
 			else
 			{
+				_cache.put(name, source);
 				return source;
 			}
 		}
@@ -1,16 +1,22 @@
 package dinamica;
 
+import java.util.HashMap;
+import java.util.HashSet;
+
 import javax.servlet.*;
 import javax.xml.parsers.*;
 import org.w3c.dom.*;
-import javax.xml.xpath.*;
 
 /**
  * Carga el archivo labels.xml almacenado en /WEB-INF
  * y provee un mtodo para retornar el valor de una etiqueta
  * dado su ID y un cdigo de idioma, como "es" o "en".<br><br>
+ * El archivo se carga una sola vez por contexto en un diccionario
+ * idioma -> (ID -> valor) compartido por todos los threads (ver getInstance()),
+ * y se vuelve a cargar si cambia, segn el intervalo definido por el parmetro
+ * de contexto <b>resource-check-interval</b> (ver ActionRegistry).<br><br>
  * Creado: 2008-07-12<br>
- * Actualizado: 2008-07-12<br>
+ * Actualizado: 2010-06-30<br>
  * Framework Dinmica - (c) 2008 Martn Crdova y Asociados C.A.<br>
  * Este cdigo se distribuye bajo licencia LGPL<br>
  * @author martin.cordova@gmail.com
@@ -18,18 +24,85 @@ import javax.xml.xpath.*;
 public class Labels 
 {
 
-	Document _doc = null;
-	
+	/** atributo de contexto donde se almacena el diccionario compartido */
+	static final String CONTEXT_ATTRIBUTE = "dinamica.labels";
+
+	/** ruta del archivo de etiquetas */
+	static final String PATH = "/WEB-INF/labels.xml";
+
+	/** contexto del servlet */
+	private ServletContext _ctx = null;
+
+	/** etiquetas por idioma: idioma -> (ID -> valor), no se modifican una vez cargadas */
+	private volatile HashMap<String, HashMap<String, String>> _labels = null;
+
+	/** IDs de todas las etiquetas, para distinguir una etiqueta inexistente de una traduccin faltante */
+	private volatile HashSet<String> _ids = null;
+
+	/** fecha de modificacin del archivo cuando se carg */
+	private long _lastModified = 0;
+
+	/** ltima vez que se verific la fecha del archivo */
+	private volatile long _lastChecked = 0;
+
+	/** milisegundos entre verificaciones, -1 = nunca */
+	private long _checkInterval = 0;
+
+	/** se incrementa cada vez que se carga el archivo */
+	private volatile int _version = 0;
+
+	/**
+	 * Retorna el diccionario de etiquetas compartido por todo el contexto,
+	 * lo crea la primera vez y lo recarga si labels.xml fue modificado.
+	 * @param ctx Contexto del servlet
+	 * @return Diccionario de etiquetas
+	 * @throws Throwable Si el archivo no se puede leer
+	 */
+	public static Labels getInstance(ServletContext ctx) throws Throwable
+	{
+		//ya creado: solo se lee el atributo, sin bloquear
+		Labels l = (Labels)ctx.getAttribute(CONTEXT_ATTRIBUTE);
+		if (l==null)
+		{
+			synchronized (Labels.class)
+			{
+				l = (Labels)ctx.getAttribute(CONTEXT_ATTRIBUTE);
+				if (l==null)
+				{
+					l = new Labels(ctx);
+					l._checkInterval = ActionRegistry.getCheckInterval(ctx);
+					ctx.setAttribute(CONTEXT_ATTRIBUTE, l);
+					return l;
+				}
+			}
+		}
+		l.checkModified();
+		return l;
+	}
+
 	/**
 	 * Constructor, se le pasa el contexto de servlets, desde una clase
 	 * Output o Transaction el contexto se obtiene con el mtodo getContext(),
 	 * el servlet controlador del framework se lo pasa a estas clases.
+	 * Es preferible usar getInstance(), que no vuelve a leer el archivo.
 	 * @param ctx Contexto del servlet
 	 * @throws Throwable
 	 */
 	public Labels(ServletContext ctx) throws Throwable
+	{
+		_ctx = ctx;
+		load();
+	}
+
+	/**
+	 * Lee labels.xml y construye el diccionario de etiquetas
+	 * @throws Throwable
+	 */
+	private synchronized void load() throws Throwable
 	{
 	
+		long lastModified = StringUtil.getResourceLastModified(_ctx, PATH);
+		
         //preparar parser XML estandar (JAXP)
         DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
         dbf.setValidating(false);
@@ -39,10 +112,90 @@ public class Labels
         
         //leer respuesta xml
         DocumentBuilder db = dbf.newDocumentBuilder();
-        _doc = db.parse(ctx.getResourceAsStream("/WEB-INF/labels.xml"));
+        Document doc = db.parse(_ctx.getResourceAsStream(PATH));
+		
+		HashMap<String, HashMap<String, String>> labels = new HashMap<String, HashMap<String, String>>();
+		HashSet<String> ids = new HashSet<String>();
+		
+		/* <label id="xxx"><value language="es">...</value>...</label> - si un ID o idioma se repite vale el primero */
+		for (Node node = doc.getDocumentElement().getFirstChild(); node!=null; node = node.getNextSibling())
+		{
+			if (node.getNodeType()!=Node.ELEMENT_NODE || !node.getNodeName().equals("label"))
+				continue;
+			
+			String id = ((org.w3c.dom.Element)node).getAttribute("id");
+			if (!ids.add(id))
+				continue;
+			
+			for (Node node2 = node.getFirstChild(); node2!=null; node2 = node2.getNextSibling())
+			{
+				if (node2.getNodeType()!=Node.ELEMENT_NODE || !node2.getNodeName().equals("value"))
+					continue;
+				
+				String language = ((org.w3c.dom.Element)node2).getAttribute("language");
+				HashMap<String, String> values = labels.get(language);
+				if (values==null)
+				{
+					values = new HashMap<String, String>();
+					labels.put(language, values);
+				}
+				if (values.containsKey(id))
+					continue;
+				
+				String value = "";
+				Node x = node2.getFirstChild();
+				if (x!=null)
+					value = x.getNodeValue();
+				value = StringUtil.replace(value, "\t", "");
+				value = StringUtil.replace(value, "\n", "");
+				values.put(id, value.trim());
+			}
+		}
+		
+		_ids = ids;
+		_labels = labels;
+		_lastModified = lastModified;
+		_lastChecked = System.currentTimeMillis();
+		_version++;
 		
 	}
-	
+
+	/**
+	 * Recarga el archivo si fue modificado, de acuerdo al intervalo de verificacin
+	 * @throws Throwable
+	 */
+	private void checkModified() throws Throwable
+	{
+		if (_checkInterval < 0)
+			return;
+
+		long now = System.currentTimeMillis();
+		if (now - _lastChecked < _checkInterval)
+			return;
+		_lastChecked = now;
+
+		if (StringUtil.getResourceLastModified(_ctx, PATH) != _lastModified)
+		{
+			synchronized (this)
+			{
+				if (StringUtil.getResourceLastModified(_ctx, PATH) != _lastModified)
+				{
+					load();
+					_ctx.log("[Dinamica] Labels: " + PATH + " reloaded.");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Retorna un nmero que cambia cada vez que se recarga labels.xml,
+	 * permite invalidar objetos que contienen etiquetas ya reemplazadas.
+	 */
+	public int getVersion()
+	{
+		return _version;
+	}
+
 	/**
 	 * Retorna el valor de una etiqueta almacenado en labels.xml
 	 * dado su ID y cdigo de idioma.
@@ -59,24 +212,30 @@ public class Labels
 		{
 			labelName = labelName.replace("${lbl:", "").replace("}", "").trim();
 		}
-		/* find label */
-		XPath xpath = XPathFactory.newInstance().newXPath();
-		Node node = (Node)xpath.evaluate("label[@id='" + labelName + "']", _doc.getDocumentElement(), XPathConstants.NODE);
-		if (node==null)
-			throw new Throwable ("Label not found: " + labelName);
 		
 		/* find translation for language code */
-		Node node2 = (Node)xpath.evaluate("value[@language='" + language + "']", node, XPathConstants.NODE);
-		if (node2==null)
-			throw new Throwable ("Label [" + labelName + "] translation not found for this language code: " + language);
-		
-		String value = "";
-		Node x = node2.getFirstChild();
-		value =  x.getNodeValue();
-		value = StringUtil.replace(value, "\t", "");
-		value = StringUtil.replace(value, "\n", "");
-		return value.trim();
+		HashMap<String, String> values = _labels.get(language);
+		String value = (values!=null) ? values.get(labelName) : null;
+		if (value==null)
+		{
+			if (!_ids.contains(labelName))
+				throw new Throwable ("Label not found: " + labelName);
+			else
+				throw new Throwable ("Label [" + labelName + "] translation not found for this language code: " + language);
+		}
+		return value;
 		
 	}
+
+	/**
+	 * Retorna las etiquetas de un idioma, indexadas por ID; el mapa
+	 * no debe ser modificado.
+	 * @param language Cdigo del idioma
+	 * @return Etiquetas del idioma o NULL si no hay etiquetas para ese idioma
+	 */
+	public HashMap<String, String> getLabels(String language)
+	{
+		return _labels.get(language);
+	}
 	
 }
@@ -0,0 +1,372 @@
+package dinamica;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous log writer used by StringUtil.saveMessage(). The request
+ * threads only append the message to a lock-free queue of the log file and
+ * return; a single background thread writes the queued messages of each file in
+ * batches, keeping the files open, so logging never blocks a request.
+ * <br><br>
+ * The messages are written every second (context parameter <b>log-flush-interval</b>, milliseconds)
+ * or as soon as 500 messages are waiting. If the log files cannot be written fast enough and
+ * 100000 messages are waiting, new messages are discarded (see getDropped()).
+ * <br><br>
+ * Optional rotation: if the context parameter <b>log-max-size</b> (bytes, default 0 = no rotation)
+ * is set, a file that reaches that size is renamed to xxx.1 (xxx.1 to xxx.2 and so on) and a new file
+ * is started; <b>log-max-files</b> (default 5) is the number of old files kept. These parameters
+ * are read by the Controller.
+ * <br><br>
+ * When the context is stopped the Controller calls shutdown(): the queued messages are written
+ * and the writer thread ends; messages saved after that are written directly by the calling
+ * thread, no message is lost and no new thread is started.
+ * <br>
+ * Creation date: 2010-07-05<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public class LogWriter implements Runnable
+{
+
+	/** defaults */
+	static final long DEFAULT_FLUSH_INTERVAL = 1000;
+	static final int DEFAULT_FLUSH_SIZE = 500;
+	static final int DEFAULT_MAX_QUEUE = 100000;
+	static final int DEFAULT_MAX_FILES = 5;
+
+	/** the writer of this application */
+	private static LogWriter _instance = null;
+
+	/** log files indexed by path */
+	private ConcurrentHashMap<String, LogFile> _files = new ConcurrentHashMap<String, LogFile>();
+
+	/** number of messages waiting to be written */
+	private AtomicInteger _pending = new AtomicInteger();
+
+	/** number of messages discarded because the queue was full */
+	private AtomicLong _dropped = new AtomicLong();
+
+	/** configuration */
+	private volatile long _flushInterval = DEFAULT_FLUSH_INTERVAL;
+	private volatile long _maxFileSize = 0;
+	private volatile int _maxFiles = DEFAULT_MAX_FILES;
+
+	/** writer thread */
+	private Thread _thread = null;
+	private volatile boolean _stopped = false;
+
+	/** TRUE after shutdown(): messages are written by the thread that saves them */
+	private volatile boolean _closed = false;
+
+	/** line separator */
+	private String _eol = System.getProperty("line.separator", "\n");
+
+	/**
+	 * Queue and open channel of one log file
+	 */
+	static class LogFile
+	{
+		/** file */
+		File file = null;
+
+		/** messages waiting to be written */
+		ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<String>();
+
+		/** open channel, only used by the writer thread */
+		FileChannel channel = null;
+	}
+
+	/**
+	 * Returns the log writer, starts it on first use
+	 * @return The log writer of this application
+	 */
+	public static synchronized LogWriter getInstance()
+	{
+		if (_instance==null)
+		{
+			_instance = new LogWriter();
+			_instance.start();
+		}
+		return _instance;
+	}
+
+	/**
+	 * Write all the queued messages, close the files and stop the
+	 * writer thread; messages saved later are written synchronously.
+	 * Called by the Controller when the context is stopped.
+	 */
+	public static synchronized void shutdown()
+	{
+		if (_instance!=null)
+			_instance.stop();
+	}
+
+	/**
+	 * Start the writer thread
+	 */
+	private void start()
+	{
+		_thread = new Thread(this, "dinamica-log-writer");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/**
+	 * Stop the writer thread after writing the queued messages
+	 */
+	private void stop()
+	{
+		_closed = true;
+		_stopped = true;
+		LockSupport.unpark(_thread);
+		try
+		{
+			_thread.join(5000);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		/* messages left if the writer did not finish in time */
+		StringBuilder buf = new StringBuilder(8192);
+		for (LogFile f : _files.values())
+			writeQueue(f, buf, true);
+	}
+
+	/**
+	 * Set the configuration of the writer
+	 * @param flushInterval Maximum time a message waits to be written (milliseconds)
+	 * @param maxFileSize Maximum size of a log file (bytes), 0 = no rotation
+	 * @param maxFiles Number of old files kept when a log file is rotated
+	 */
+	public void configure(long flushInterval, long maxFileSize, int maxFiles)
+	{
+		if (flushInterval > 0)
+			_flushInterval = flushInterval;
+		_maxFileSize = maxFileSize;
+		_maxFiles = maxFiles;
+	}
+
+	/**
+	 * Queue a message to be appended to a log file, this method does not block
+	 * @param path File name
+	 * @param message String to append to file
+	 */
+	public void write(String path, String message)
+	{
+
+		if (!_closed && _pending.get() >= DEFAULT_MAX_QUEUE)
+		{
+			_dropped.incrementAndGet();
+			return;
+		}
+
+		LogFile f = _files.get(path);
+		if (f==null)
+		{
+			f = new LogFile();
+			f.file = new File(path);
+			LogFile old = _files.putIfAbsent(path, f);
+			if (old!=null)
+				f = old;
+		}
+
+		f.queue.offer(message);
+		int pending = _pending.incrementAndGet();
+
+		/* after shutdown() there is no writer thread, write the message now */
+		if (_closed)
+		{
+			writeQueue(f, new StringBuilder(message.length() + 2), true);
+			return;
+		}
+
+		/* wake up the writer if there are many messages waiting */
+		if (pending == DEFAULT_FLUSH_SIZE)
+			LockSupport.unpark(_thread);
+
+	}
+
+	/**
+	 * Returns the number of messages waiting to be written
+	 */
+	public int getPending()
+	{
+		return _pending.get();
+	}
+
+	/**
+	 * Returns the number of messages discarded because too many
+	 * messages were waiting to be written
+	 */
+	public long getDropped()
+	{
+		return _dropped.get();
+	}
+
+	/**
+	 * Writer thread
+	 */
+	public void run()
+	{
+
+		while (!_stopped)
+		{
+			if (_pending.get() < DEFAULT_FLUSH_SIZE)
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(_flushInterval));
+			writeAll();
+		}
+
+		/* last messages, until the queues are empty */
+		StringBuilder buf = new StringBuilder(8192);
+		for (LogFile f : _files.values())
+			writeQueue(f, buf, true);
+
+	}
+
+	/**
+	 * Write the queued messages of all the files
+	 */
+	private void writeAll()
+	{
+		StringBuilder buf = new StringBuilder(8192);
+		for (LogFile f : _files.values())
+			writeQueue(f, buf, false);
+	}
+
+	/**
+	 * Write the queued messages of a file; used by the writer thread
+	 * and, after shutdown(), by the threads that save messages
+	 * @param f Log file
+	 * @param buf Work buffer
+	 * @param close TRUE to close the file afterwards
+	 */
+	private void writeQueue(LogFile f, StringBuilder buf, boolean close)
+	{
+
+		synchronized (f)
+		{
+
+			buf.setLength(0);
+			int n = 0;
+			String msg = null;
+			while ((msg = f.queue.poll())!=null)
+			{
+				buf.append(msg).append(_eol);
+				n++;
+			}
+
+			if (n > 0)
+			{
+				_pending.addAndGet(-n);
+				try
+				{
+					write(f, buf.toString().getBytes());
+				}
+				catch (IOException e)
+				{
+					close(f);
+					try
+					{
+						String d = StringUtil.formatDate(new java.util.Date(), "yyyy-MM-dd HH:mm:ss");
+						System.err.println("ERROR [dinamica.LogWriter@" + d + "]: " + e.getMessage() + " file: " + f.file + " (" + n + " messages lost)");
+					}
+					catch (Throwable e1)
+					{
+					}
+				}
+			}
+
+			if (close)
+				close(f);
+
+		}
+
+	}
+
+	/**
+	 * Append data to a log file, rotate the file if necessary
+	 * @param f Log file
+	 * @param data Bytes to write
+	 * @throws IOException
+	 */
+	private void write(LogFile f, byte data[]) throws IOException
+	{
+
+		/* the file may have been deleted or moved by the administrator */
+		if (f.channel!=null && !f.file.exists())
+			close(f);
+
+		if (f.channel==null)
+			f.channel = new FileOutputStream(f.file, true).getChannel();
+
+		long maxSize = _maxFileSize;
+		if (maxSize > 0 && f.channel.size() > 0 && f.channel.size() + data.length > maxSize)
+		{
+			close(f);
+			rotate(f.file);
+			f.channel = new FileOutputStream(f.file, true).getChannel();
+		}
+
+		ByteBuffer b = ByteBuffer.wrap(data);
+		while (b.hasRemaining())
+			f.channel.write(b);
+
+	}
+
+	/**
+	 * Rename a log file to xxx.1, xxx.1 to xxx.2 and so on,
+	 * the oldest file is deleted
+	 * @param file Log file
+	 */
+	private void rotate(File file)
+	{
+		int maxFiles = _maxFiles;
+		if (maxFiles <= 0)
+		{
+			file.delete();
+			return;
+		}
+
+		String path = file.getPath();
+		new File(path + "." + maxFiles).delete();
+		for (int i = maxFiles - 1; i >= 1; i--)
+		{
+			File old = new File(path + "." + i);
+			if (old.exists())
+				old.renameTo(new File(path + "." + (i + 1)));
+		}
+		file.renameTo(new File(path + ".1"));
+	}
+
+	/**
+	 * Close the channel of a log file ignoring errors
+	 * @param f Log file
+	 */
+	private void close(LogFile f)
+	{
+		if (f.channel==null)
+			return;
+		try
+		{
+			f.channel.close();
+		}
+		catch (IOException e)
+		{
+		}
+		f.channel = null;
+	}
+
+}
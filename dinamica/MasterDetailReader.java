@@ -2,6 +2,10 @@ package dinamica;
 
 import javax.sql.*;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * DESCONTINUADO - VER LA NUEVA PLANTILLA MasterDetail Y SU DOCUMENTO RESPECTIVO.<BR>
@@ -12,6 +16,22 @@ import java.sql.*;
  * service() to publish a  recordset called "master" and
  * redefine the getDetail() method too. 
  * <br><br>
+ * Prefetch mode: if the element query-detail contains the attributes
+ * prefetch="true" and master-key, service() loads the detail of all the master
+ * records with one query (per batch of keys) on the transaction connection, and
+ * getDetail() returns them from memory, instead of running one query with a new
+ * connection for every master record:
+ * <xmp>
+ * <query-detail prefetch="true" master-key="id" detail-key="master_id">detail.sql</query-detail>
+ * </xmp>
+ * master-key is the key column of the master recordset, detail-key is the detail column that
+ * contains that value (default: the same name as master-key) and the optional attribute batch-size
+ * is the maximum number of keys per query (default 500). The detail SQL must filter by the list of
+ * keys using the marker ${lst:master-key@master}, like:<br>
+ * select * from detail where master_id in ${lst:id@master}<br>
+ * The field markers of this SQL are replaced with the request parameters. Only VARCHAR, CHAR, INTEGER,
+ * BIGINT or DOUBLE keys are supported.
+ * <br><br>
  * (c) 2004 Martin Cordova<br>
  * This code is released under the LGPL license<br>
  * Dinamica Framework - http://www.martincordova.com
@@ -20,6 +40,16 @@ import java.sql.*;
 public class MasterDetailReader extends GenericTransaction
 {
 
+	/** default maximum number of keys per query in prefetch mode */
+	static final int DEFAULT_BATCH_SIZE = 500;
+
+	/** prefetched details indexed by master key, null if prefetch is not enabled */
+	HashMap<Object, Recordset> _details = null;
+
+	/** master key column and empty detail recordset for prefetch mode */
+	String _masterKey = null;
+	Recordset _emptyDetail = null;
+
 	/** 
 	 * Publish recordset used for the master and subtotal
 	 */
@@ -39,10 +69,123 @@ public class MasterDetailReader extends GenericTransaction
 		Recordset rs = db.get(sql);
 		publish("master", rs);
 		
+		//patch 2010-07-11 - load all the details with one query
+		dinamica.xml.Element e = getConfig().getDocument().getElement("query-detail");
+		if (e!=null && "true".equals(e.getAttribute("prefetch")))
+			prefetchDetails(rs, e, inputParams);
+		
 		return rc;
 		
 	}
 
+	/**
+	 * Load the detail records of all the master records and
+	 * index them by master key (prefetch mode)
+	 * @param master Master recordset
+	 * @param e query-detail element
+	 * @param inputParams Request parameters
+	 * @throws Throwable
+	 */
+	void prefetchDetails(Recordset master, dinamica.xml.Element e, Recordset inputParams) throws Throwable
+	{
+
+		_masterKey = e.getAttribute("master-key");
+		if (_masterKey==null)
+			throw new Throwable("Attribute master-key not found in element <query-detail> - it is required when prefetch=\"true\".");
+
+		String detailKey = e.getAttribute("detail-key");
+		if (detailKey==null)
+			detailKey = _masterKey;
+
+		int batchSize = DEFAULT_BATCH_SIZE;
+		if (e.getAttribute("batch-size")!=null)
+			batchSize = Integer.parseInt(e.getAttribute("batch-size"));
+
+		int type = master.getField(_masterKey).getType();
+		if (type!=Types.VARCHAR && type!=Types.CHAR && type!=Types.INTEGER && type!=Types.BIGINT && type!=Types.DOUBLE)
+			throw new Throwable("Unsupported data type for the prefetch key: " + _masterKey);
+
+		//distinct keys
+		LinkedHashMap<Object, Object> keys = new LinkedHashMap<Object, Object>();
+		master.top();
+		while (master.next())
+		{
+			Object v = master.getValue(_masterKey);
+			if (v!=null && !keys.containsKey(ParentChildReader.getClave(v)))
+				keys.put(ParentChildReader.getClave(v), v);
+		}
+		master.top();
+
+		_details = new HashMap<Object, Recordset>(keys.size() * 2);
+		String template = getResource(e.getString());
+		Db db = getDb();
+
+		ArrayList<Object> batch = new ArrayList<Object>(Math.min(batchSize, keys.size()));
+		int n = 0;
+		for (Object v : keys.values())
+		{
+
+			batch.add(v);
+			n++;
+			if (batch.size() < batchSize && n < keys.size())
+				continue;
+
+			//the keys of this batch replace the master recordset in the ${lst:xxx} marker
+			Recordset rsKeys = new Recordset();
+			rsKeys.append(_masterKey, type);
+			for (Object key : batch)
+			{
+				rsKeys.addNew();
+				rsKeys.setValue(_masterKey, key);
+			}
+			batch.clear();
+
+			String sql = null;
+			Object old = getRequest().getAttribute("master");
+			getRequest().setAttribute("master", rsKeys);
+			try
+			{
+				sql = getSQL(template, inputParams);
+			}
+			finally
+			{
+				if (old!=null)
+					getRequest().setAttribute("master", old);
+				else
+					getRequest().removeAttribute("master");
+			}
+			Recordset rs = db.get(sql);
+
+			if (!rs.containsField(detailKey))
+				throw new Throwable("Column '" + detailKey + "' (attribute detail-key) not found in the detail recordset.");
+
+			//group detail records by key
+			HashMap<Object, ArrayList<Integer>> rows = new HashMap<Object, ArrayList<Integer>>();
+			rs.top();
+			while (rs.next())
+			{
+				Object v2 = rs.getValue(detailKey);
+				if (v2==null)
+					continue;
+				Object k = ParentChildReader.getClave(v2);
+				ArrayList<Integer> r = rows.get(k);
+				if (r==null)
+				{
+					r = new ArrayList<Integer>();
+					rows.put(k, r);
+				}
+				r.add(Integer.valueOf(rs.getRecordNumber()));
+			}
+			for (Map.Entry<Object, ArrayList<Integer>> r : rows.entrySet())
+				_details.put(r.getKey(), rs.copyRecords(ParentChildReader.toArray(r.getValue())));
+
+			if (_emptyDetail==null)
+				_emptyDetail = rs.copyRecords(new int[0]);
+
+		}
+
+	}
+
 	/**
 	 * Return recordset for detail section
 	 * @param master Master recordset positioned on the current record
@@ -52,6 +195,16 @@ public class MasterDetailReader extends GenericTransaction
 	public Recordset getDetail(Recordset master) throws Throwable
 	{
 
+		//prefetch mode
+		if (_details!=null)
+		{
+			Object v = master.getValue(_masterKey);
+			Recordset items = (v==null) ? null : _details.get(ParentChildReader.getClave(v));
+			if (items==null)
+				items = (_emptyDetail!=null) ? _emptyDetail : new Recordset();
+			return items;
+		}
+
 		//get datasource and DB connection
 		DataSource ds = getDataSource(); 
 		Connection conn = ds.getConnection();
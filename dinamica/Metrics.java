@@ -0,0 +1,331 @@
+package dinamica;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.ServletContext;
+
+/**
+ * In-memory performance metrics of the Actions of a context. The Controller
+ * records the time of every request, broken down into phases: validation, transaction,
+ * output and the JDBC time (query execution and recordset loading) measured by the Db objects
+ * of the request thread. Each phase of each Action has a lock-free latency histogram
+ * (see Histogram), so recording a request never blocks.
+ * <br><br>
+ * The registry is published as a JMX MBean (dinamica:type=Metrics,context=/xxx) with
+ * p50/p95/p99 per Action and phase, and the statistics of the statement caches; the
+ * same information can be published as a Recordset by an Action using the class GetMetrics.
+ * JDBC time has a resolution of 1 ms and does not include the queries executed by the
+ * thread pool of parallel recordsets.
+ * <br>
+ * Creation date: 2010-07-06<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public class Metrics implements MetricsMBean
+{
+
+	/** context attribute used to store the registry */
+	static final String CONTEXT_ATTRIBUTE = "dinamica.metrics";
+
+	/** phases of a request */
+	static final String PHASES[] = {"total", "validation", "transaction", "output", "jdbc"};
+	static final int TOTAL = 0;
+	static final int VALIDATION = 1;
+	static final int TRANSACTION = 2;
+	static final int OUTPUT = 3;
+	static final int JDBC = 4;
+
+	/** JDBC time accumulated by the current thread (microseconds) */
+	private static ThreadLocal<long[]> _jdbcTime = new ThreadLocal<long[]>()
+	{
+		protected long[] initialValue()
+		{
+			return new long[1];
+		}
+	};
+
+	/** metrics indexed by Action path */
+	private ConcurrentHashMap<String, ActionMetrics> _actions = new ConcurrentHashMap<String, ActionMetrics>();
+
+	/** number of requests measured */
+	private AtomicLong _requests = new AtomicLong();
+
+	/** JMX name -if registered- */
+	private ObjectName _name = null;
+
+	/**
+	 * Metrics of one Action
+	 */
+	public static class ActionMetrics
+	{
+		/** one histogram per phase */
+		Histogram phases[] = new Histogram[PHASES.length];
+
+		/** requests that ended with an error */
+		AtomicLong errors = new AtomicLong();
+
+		ActionMetrics()
+		{
+			for (int i = 0; i < phases.length; i++)
+				phases[i] = new Histogram();
+		}
+
+		/**
+		 * Returns the histogram of a phase
+		 * @param phase Phase index (TOTAL, VALIDATION, etc.)
+		 */
+		public Histogram getHistogram(int phase)
+		{
+			return phases[phase];
+		}
+
+		/**
+		 * Returns the number of requests that ended with an error
+		 */
+		public long getErrors()
+		{
+			return errors.get();
+		}
+	}
+
+	/**
+	 * Returns the registry of the context, creates it on first use
+	 * @param ctx Servlet context
+	 * @return The registry shared by all the Actions of the context
+	 */
+	public static synchronized Metrics getInstance(ServletContext ctx)
+	{
+		Metrics m = (Metrics)ctx.getAttribute(CONTEXT_ATTRIBUTE);
+		if (m==null)
+		{
+			m = new Metrics(ctx);
+			ctx.setAttribute(CONTEXT_ATTRIBUTE, m);
+		}
+		return m;
+	}
+
+	/**
+	 * Remove the registry from the context and unregister the MBean
+	 * @param ctx Servlet context
+	 */
+	public static synchronized void release(ServletContext ctx)
+	{
+		Metrics m = (Metrics)ctx.getAttribute(CONTEXT_ATTRIBUTE);
+		if (m!=null)
+		{
+			ctx.removeAttribute(CONTEXT_ATTRIBUTE);
+			if (m._name!=null)
+			{
+				try
+				{
+					ManagementFactory.getPlatformMBeanServer().unregisterMBean(m._name);
+				}
+				catch (Throwable e) {}
+			}
+		}
+	}
+
+	/**
+	 * Creates the registry and tries to register it as a JMX MBean
+	 * @param ctx Servlet context
+	 */
+	Metrics(ServletContext ctx)
+	{
+		try
+		{
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("dinamica:type=Metrics,context=" + ObjectName.quote(ctx.getContextPath()));
+			if (!mbs.isRegistered(name))
+			{
+				mbs.registerMBean(this, name);
+				_name = name;
+			}
+		}
+		catch (Throwable e)
+		{
+			ctx.log("[Dinamica] Metrics could not be registered as a JMX MBean: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Add JDBC time to the request of the current thread, called by Db
+	 * @param millis Time in milliseconds
+	 */
+	static void addJdbcTime(long millis)
+	{
+		_jdbcTime.get()[0] += millis * 1000;
+	}
+
+	/**
+	 * Returns the JDBC time accumulated by the current thread, the
+	 * Controller reads it at the start and at the end of a request
+	 * @return Time in microseconds
+	 */
+	static long getJdbcTime()
+	{
+		return _jdbcTime.get()[0];
+	}
+
+	/**
+	 * Record the times of a request
+	 * @param action Action path
+	 * @param times Time of each phase in microseconds (TOTAL, VALIDATION...), -1 if the phase was not executed
+	 * @param error TRUE if the request ended with an error
+	 */
+	void record(String action, long times[], boolean error)
+	{
+		ActionMetrics m = getActionMetrics(action);
+		for (int i = 0; i < times.length; i++)
+		{
+			if (times[i] >= 0)
+				m.phases[i].record(times[i]);
+		}
+		if (error)
+			m.errors.incrementAndGet();
+		_requests.incrementAndGet();
+	}
+
+	/**
+	 * Returns the metrics of an Action, creates them on first use
+	 * @param action Action path
+	 */
+	public ActionMetrics getActionMetrics(String action)
+	{
+		ActionMetrics m = _actions.get(action);
+		if (m==null)
+		{
+			m = new ActionMetrics();
+			ActionMetrics old = _actions.putIfAbsent(action, m);
+			if (old!=null)
+				m = old;
+		}
+		return m;
+	}
+
+	/**
+	 * Returns the metrics as a Recordset with the fields action, phase, count,
+	 * errors, mean, p50, p95, p99 and max (times in milliseconds); phases
+	 * that were never executed are not included
+	 * @return Recordset sorted by action and phase
+	 * @throws Throwable
+	 */
+	public Recordset getRecordset() throws Throwable
+	{
+
+		Recordset rs = new Recordset();
+		rs.append("action", java.sql.Types.VARCHAR);
+		rs.append("phase", java.sql.Types.VARCHAR);
+		rs.append("count", java.sql.Types.INTEGER);
+		rs.append("errors", java.sql.Types.INTEGER);
+		rs.append("mean", java.sql.Types.DOUBLE);
+		rs.append("p50", java.sql.Types.DOUBLE);
+		rs.append("p95", java.sql.Types.DOUBLE);
+		rs.append("p99", java.sql.Types.DOUBLE);
+		rs.append("max", java.sql.Types.DOUBLE);
+
+		for (String action : getActions())
+		{
+			ActionMetrics m = _actions.get(action);
+			if (m==null)
+				continue;
+			for (int i = 0; i < PHASES.length; i++)
+			{
+				Histogram h = m.phases[i];
+				if (h.getCount()==0)
+					continue;
+				rs.addNew();
+				rs.setValue("action", action);
+				rs.setValue("phase", PHASES[i]);
+				rs.setValue("count", Integer.valueOf((int)h.getCount()));
+				rs.setValue("errors", Integer.valueOf(i==TOTAL ? (int)m.errors.get() : 0));
+				rs.setValue("mean", Double.valueOf(h.getMean() / 1000));
+				rs.setValue("p50", Double.valueOf(h.getPercentile(50) / 1000.0));
+				rs.setValue("p95", Double.valueOf(h.getPercentile(95) / 1000.0));
+				rs.setValue("p99", Double.valueOf(h.getPercentile(99) / 1000.0));
+				rs.setValue("max", Double.valueOf(h.getMax() / 1000.0));
+			}
+		}
+
+		if (rs.getRecordCount() > 0)
+			rs.top();
+		return rs;
+
+	}
+
+	/* MBean interface */
+
+	public String[] getActions()
+	{
+		String actions[] = _actions.keySet().toArray(new String[0]);
+		Arrays.sort(actions);
+		return actions;
+	}
+
+	public long getRequestCount()
+	{
+		return _requests.get();
+	}
+
+	public String getReport()
+	{
+		StringBuilder b = new StringBuilder();
+		b.append("action\tphase\tcount\terrors\tmean\tp50\tp95\tp99\tmax\n");
+		try
+		{
+			Recordset rs = getRecordset();
+			while (rs.next())
+			{
+				b.append(rs.getString("action")).append('\t');
+				b.append(rs.getString("phase")).append('\t');
+				b.append(rs.getValue("count")).append('\t');
+				b.append(rs.getValue("errors")).append('\t');
+				b.append(StringUtil.formatNumber(rs.getValue("mean"), "0.###")).append('\t');
+				b.append(StringUtil.formatNumber(rs.getValue("p50"), "0.###")).append('\t');
+				b.append(StringUtil.formatNumber(rs.getValue("p95"), "0.###")).append('\t');
+				b.append(StringUtil.formatNumber(rs.getValue("p99"), "0.###")).append('\t');
+				b.append(StringUtil.formatNumber(rs.getValue("max"), "0.###")).append('\n');
+			}
+		}
+		catch (Throwable e)
+		{
+			b.append("ERROR: ").append(e.getMessage());
+		}
+		return b.toString();
+	}
+
+	public double getPercentile(String action, String phase, double percentile)
+	{
+		ActionMetrics m = _actions.get(action);
+		if (m==null)
+			return -1;
+		for (int i = 0; i < PHASES.length; i++)
+		{
+			if (PHASES[i].equals(phase))
+				return m.phases[i].getPercentile(percentile) / 1000.0;
+		}
+		throw new IllegalArgumentException("Invalid phase: " + phase);
+	}
+
+	public long getStatementCacheHits()
+	{
+		return StatementCache.getTotalHits();
+	}
+
+	public long getStatementCacheMisses()
+	{
+		return StatementCache.getTotalMisses();
+	}
+
+	public void reset()
+	{
+		_actions.clear();
+		_requests.set(0);
+	}
+
+}
@@ -0,0 +1,54 @@
+package dinamica;
+
+/**
+ * JMX management interface of the Metrics registry
+ * <br>
+ * Creation date: 2010-07-06<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public interface MetricsMBean
+{
+
+	/**
+	 * Returns the paths of the Actions with metrics
+	 */
+	public String[] getActions();
+
+	/**
+	 * Returns the number of requests measured
+	 */
+	public long getRequestCount();
+
+	/**
+	 * Returns a text table with the count, errors, mean, p50, p95, p99
+	 * and max (milliseconds) of each phase of each Action
+	 */
+	public String getReport();
+
+	/**
+	 * Returns a percentile of the time of a phase of an Action
+	 * @param action Action path, like /action/test
+	 * @param phase total, validation, transaction, output or jdbc
+	 * @param percentile Percentile (0...100)
+	 * @return Time in milliseconds or -1 if there are no metrics for the Action
+	 */
+	public double getPercentile(String action, String phase, double percentile);
+
+	/**
+	 * Returns the number of prepared statements reused by the statement caches
+	 */
+	public long getStatementCacheHits();
+
+	/**
+	 * Returns the number of statements prepared by the statement caches
+	 */
+	public long getStatementCacheMisses();
+
+	/**
+	 * Discard all the metrics
+	 */
+	public void reset();
+
+}
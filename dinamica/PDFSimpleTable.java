@@ -74,6 +74,34 @@ public class PDFSimpleTable extends AbstractPDFOutput
     float scale = 100; //escala del grafico
     String pageXofY = " de ";  //texto por defecto para Pagina X de Y
     
+    /**
+     * El recordset de la tabla se recorre una sola vez, por lo que puede ser
+     * un recordset streaming (ver GenericOutput.isSinglePass), siempre que no se use tambien
+     * en los elementos [record] o [after-table-row]. Las subclases pueden usar los recordsets
+     * en otros metodos, por eso en ese caso se retorna FALSE, a menos que la subclase redefina este metodo.
+     * @param id ID del recordset
+     * @return TRUE si el recordset se lee una sola vez
+     * @throws Throwable
+     */
+    public boolean isSinglePass(String id) throws Throwable
+    {
+    	if (getClass()!=PDFSimpleTable.class)
+    		return false;
+    	
+    	dinamica.xml.Document doc = getConfig().getDocument();
+    	if (!id.equals(doc.getElement("pdf-table").getAttribute("recordset")))
+    		return false;
+    	
+    	String paths[] = {"//pdf-table/record", "//pdf-table/after-table-row"};
+    	for (int i = 0; i < paths.length; i++)
+    	{
+    		dinamica.xml.Element e = doc.getElement(paths[i]);
+    		if (e!=null && id.equals(e.getAttribute("recordset")))
+    			return false;
+    	}
+    	return true;
+    }
+    
     protected void createPDF(GenericTransaction data, ByteArrayOutputStream buf)
             throws Throwable
     {
@@ -1,5 +1,11 @@
 package dinamica;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Ejecuta un conjunto de queries jerarquicamente relacionados
  * y exporta un solo recordset, que a su vez contiene recordsets
@@ -38,8 +44,12 @@ package dinamica;
  * <br><br>
  * Esta clase no tiene limite en niveles de anidacion se pueden aadir tanto elementos <group-detail></group-detail>
  * como se requieran para la regla de negocio
+ * <br><br>
+ * Si un elemento <group-detail></group-detail> contiene el atributo parent-key, ese nivel se carga por lotes
+ * (ver cargaPorLotes()): se ejecuta un solo query para todos los registros del nivel superior en lugar
+ * de un query por cada registro.
  * <br><br> 
- * Fecha de Actualizado: 2010-03-23<br>
+ * Fecha de Actualizado: 2010-07-10<br>
  * Fecha de Creacion: 2010-03-22<br>
  * Framework Dinamica - Distribuido bajo licencia LGPL<br>
  * @author Francisco Galizia (Martin Cordova y Asociados C.A)
@@ -49,6 +59,9 @@ public class ParentChildReader extends GenericTransaction
 {
 	//documento config.xml
 	dinamica.xml.Document docXML = null;
+	
+	//numero maximo de claves por query en la carga por lotes
+	static final int DEFAULT_BATCH_SIZE = 500;
 
 	public int service(Recordset inputParams) throws Throwable
 	{
@@ -67,23 +80,31 @@ public class ParentChildReader extends GenericTransaction
 		
 		//recordset maestro
 		Recordset rsMaster = getRecordset(e.getAttribute("recordset"));
-		while (rsMaster.next())  {
+		
+		//patch 2010-07-10 - carga por lotes, un query por nivel en lugar de uno por registro
+		dinamica.xml.Element detail = docXML.getElement("//group-master/group-detail");
+		if (detail!=null && detail.getAttribute("parent-key")!=null) {
+			cargaPorLotes(rsMaster, e.getAttribute("recordset"), inputParams, "//group-master");
+		}
+		else {
+			while (rsMaster.next())  {
 			
-			//obtener elementos
-			String tagName = "//group-master/group-detail";
-			dinamica.xml.Element e2 = docXML.getElement(tagName);
+				//obtener elementos
+				String tagName = "//group-master/group-detail";
+				dinamica.xml.Element e2 = docXML.getElement(tagName);
 			
-			if (e2==null)
-				throw new Throwable("No se encontro el elemento <group-detail></group-detail>");
+				if (e2==null)
+					throw new Throwable("No se encontro el elemento <group-detail></group-detail>");
 			
-			if (e2.getAttribute("recordset")==null)
-				throw new Throwable("No se encontro el atributo 'recordset' en el elemento <group-detail></group-detail>");
+				if (e2.getAttribute("recordset")==null)
+					throw new Throwable("No se encontro el atributo 'recordset' en el elemento <group-detail></group-detail>");
 			
-			//obtener recordset hijos
-			Recordset rsNew = empaquetaRecordset(rsMaster, e2.getAttribute("recordset"), inputParams, tagName);
-			//aadir al recordset
-			rsMaster.setChildrenRecordset(rsNew);
+				//obtener recordset hijos
+				Recordset rsNew = empaquetaRecordset(rsMaster, e2.getAttribute("recordset"), inputParams, tagName);
+				//aadir al recordset
+				rsMaster.setChildrenRecordset(rsNew);
 			
+			}
 		}
 		
 		//se debe guardar el recordset en sesion?
@@ -134,4 +155,213 @@ public class ParentChildReader extends GenericTransaction
 		return rs;
 	}
 	
+	/**
+	 * Carga por lotes de un nivel de detalle: ejecuta el query del nivel
+	 * una sola vez para todas las claves del recordset padre (o una vez por cada
+	 * lote de claves) y reparte los registros obtenidos entre los registros padre
+	 * segun el valor de la clave. Los niveles inferiores se cargan de la misma forma,
+	 * por lo tanto se ejecuta un query por nivel en lugar de uno por cada registro.
+	 * Se activa con el atributo parent-key del elemento group-detail:
+	 * <br><br>
+	 * <xmp>
+	 * <group-master recordset="master.sql">
+	 *		<group-detail recordset="detail1.sql" parent-key="id_pedido" child-key="pedido_id">
+	 *		</group-detail>
+	 * </group-master>
+	 * </xmp>
+	 * parent-key es la columna del recordset padre, child-key es la columna del detalle que contiene
+	 * ese valor (por defecto el mismo nombre de parent-key) y el atributo opcional batch-size es el numero
+	 * maximo de claves por query (por defecto 500). El SQL del detalle debe filtrar por la lista de
+	 * claves con el marker ${lst:parent-key@recordset-padre}, por ejemplo:
+	 * <br><br>
+	 * select * from detalle where pedido_id in ${lst:id_pedido@master.sql}
+	 * <br><br>
+	 * Solo se soportan claves de tipo VARCHAR, CHAR, INTEGER, BIGINT o DOUBLE. En este modo los markers ${fld:xxx} del SQL
+	 * se reemplazan con los parametros del request, no con los valores del registro padre.
+	 * <br><br>
+	 * Todos los registros padre reciben un recordset hijo, vacio si no tienen registros relacionados o si su clave
+	 * es nula. Si ningun registro padre tiene clave, el query se ejecuta una sola vez con la lista <b>(null)</b>
+	 * en lugar del marker ${lst:xxx}, que no coincide con ningun registro, para obtener la estructura del recordset vacio.
+	 * @param rsParent Recordset padre, recibe los recordset hijos de cada registro
+	 * @param parentId Nombre del recordset padre (atributo recordset de su elemento)
+	 * @param inputParams Parametros del request
+	 * @param tagName Elemento TAG en xml del recordset padre
+	 * @throws Throwable
+	 */
+	void cargaPorLotes(Recordset rsParent, String parentId, Recordset inputParams, String tagName) throws Throwable
+	{
+		
+		//obtener elemento
+		tagName = tagName + "/group-detail";
+		dinamica.xml.Element e = docXML.getElement(tagName);
+		if (e==null)
+			return;
+		
+		String fileName = e.getAttribute("recordset");
+		if (fileName==null)
+			throw new Throwable("No se encontro el atributo 'recordset' en el elemento <group-detail></group-detail>");
+		
+		//nivel sin carga por lotes, un query por registro
+		String parentKey = e.getAttribute("parent-key");
+		if (parentKey==null) {
+			rsParent.top();
+			while (rsParent.next())
+				rsParent.setChildrenRecordset(empaquetaRecordset(rsParent, fileName, inputParams, tagName));
+			return;
+		}
+		
+		String childKey = e.getAttribute("child-key");
+		if (childKey==null)
+			childKey = parentKey;
+		
+		int batchSize = DEFAULT_BATCH_SIZE;
+		if (e.getAttribute("batch-size")!=null)
+			batchSize = Integer.parseInt(e.getAttribute("batch-size"));
+		
+		int type = rsParent.getField(parentKey).getType();
+		if (type!=java.sql.Types.VARCHAR && type!=java.sql.Types.CHAR && type!=java.sql.Types.INTEGER
+				&& type!=java.sql.Types.BIGINT && type!=java.sql.Types.DOUBLE)
+			throw new Throwable("Tipo de dato no soportado para la carga por lotes en la columna '" + parentKey + "' del recordset " + parentId);
+		
+		//claves distintas del recordset padre
+		LinkedHashMap<Object, Object> claves = new LinkedHashMap<Object, Object>();
+		rsParent.top();
+		while (rsParent.next()) {
+			Object v = rsParent.getValue(parentKey);
+			if (v!=null) {
+				Object k = getClave(v);
+				if (!claves.containsKey(k))
+					claves.put(k, v);
+			}
+		}
+		
+		String sqlTemplate = getResource(fileName);
+		
+		//registros hijos agrupados por clave
+		HashMap<Object, Recordset> grupos = new HashMap<Object, Recordset>();
+		Recordset rsEstructura = null;
+		
+		//ningun registro padre tiene clave, solo se necesita la estructura del detalle
+		if (claves.isEmpty()) {
+			if (rsParent.getRecordCount()==0)
+				return;
+			String marker = "${lst:" + parentKey + "@" + parentId + "}";
+			rsEstructura = getDb().get(getSQL(StringUtil.replace(sqlTemplate, marker, "(null)"), inputParams));
+		}
+		
+		ArrayList<Object> lote = new ArrayList<Object>(Math.min(batchSize, claves.size()));
+		int n = 0;
+		for (Object v : claves.values()) {
+			
+			lote.add(v);
+			n++;
+			if (lote.size() < batchSize && n < claves.size())
+				continue;
+			
+			//recordset con las claves del lote, reemplaza al recordset padre en el marker ${lst:xxx}
+			Recordset rsClaves = new Recordset();
+			rsClaves.append(parentKey, type);
+			for (Object clave : lote) {
+				rsClaves.addNew();
+				rsClaves.setValue(parentKey, clave);
+			}
+			lote.clear();
+			
+			String sql = null;
+			Object old = getRequest().getAttribute(parentId);
+			getRequest().setAttribute(parentId, rsClaves);
+			try {
+				sql = getSQL(sqlTemplate, inputParams);
+			} finally {
+				getRequest().setAttribute(parentId, old);
+			}
+			Recordset rs = getDb().get(sql);
+			
+			if (!rs.containsField(childKey))
+				throw new Throwable("No se encontro la columna '" + childKey + "' (atributo child-key) en el recordset " + fileName);
+			
+			//cargar los niveles inferiores
+			cargaPorLotes(rs, fileName, inputParams, tagName);
+			
+			//agrupar los registros por clave
+			HashMap<Object, ArrayList<Integer>> filas = new HashMap<Object, ArrayList<Integer>>();
+			rs.top();
+			while (rs.next()) {
+				Object v2 = rs.getValue(childKey);
+				if (v2==null)
+					continue;
+				Object k = getClave(v2);
+				ArrayList<Integer> f = filas.get(k);
+				if (f==null) {
+					f = new ArrayList<Integer>();
+					filas.put(k, f);
+				}
+				f.add(Integer.valueOf(rs.getRecordNumber()));
+			}
+			for (Map.Entry<Object, ArrayList<Integer>> f : filas.entrySet())
+				grupos.put(f.getKey(), rs.copyRecords(toArray(f.getValue())));
+			
+			if (rsEstructura==null)
+				rsEstructura = rs;
+			
+		}
+		
+		//anexar los recordset hijos, los registros sin hijos reciben un recordset vacio
+		HashSet<Object> asignados = new HashSet<Object>();
+		rsParent.top();
+		while (rsParent.next()) {
+			Object v = rsParent.getValue(parentKey);
+			Object k = (v==null) ? null : getClave(v);
+			Recordset rsNew = (k==null) ? null : grupos.get(k);
+			if (rsNew==null) {
+				rsNew = rsEstructura.copyRecords(new int[0]);
+			} else if (!asignados.add(k)) {
+				//clave repetida en el padre, cada registro recibe su propia copia
+				rsNew = rsNew.copyRecords(toArray(rsNew.getRecordCount()));
+			}
+			rsParent.setChildrenRecordset(rsNew);
+		}
+		rsParent.top();
+		
+	}
+	
+	/**
+	 * Normaliza el valor de una clave para comparar valores
+	 * numericos de distinta clase (Integer, Long, Double, BigDecimal)
+	 * @param v Valor de la clave
+	 * @return Valor a usar en los HashMap
+	 */
+	static Object getClave(Object v)
+	{
+		if (v instanceof Number) {
+			double d = ((Number)v).doubleValue();
+			if (d==Math.rint(d) && !Double.isInfinite(d))
+				return Long.valueOf(((Number)v).longValue());
+			return Double.valueOf(d);
+		}
+		return v;
+	}
+	
+	/**
+	 * Convierte una lista de numeros de registro en un arreglo
+	 */
+	static int[] toArray(ArrayList<Integer> list)
+	{
+		int rows[] = new int[list.size()];
+		for (int i = 0; i < rows.length; i++)
+			rows[i] = list.get(i).intValue();
+		return rows;
+	}
+	
+	/**
+	 * Retorna los numeros de registro 0...n-1
+	 */
+	static int[] toArray(int n)
+	{
+		int rows[] = new int[n];
+		for (int i = 0; i < n; i++)
+			rows[i] = i;
+		return rows;
+	}
+	
 }
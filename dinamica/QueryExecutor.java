@@ -0,0 +1,101 @@
+package dinamica;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletContext;
+
+/**
+ * Thread pool shared by all the Actions of a context to execute
+ * the queries of [recordset] elements declared with parallel="true" (see
+ * GenericTransaction). The number of threads is set with the context parameter
+ * <b>parallel-query-threads</b> (default 8); each running query uses its own
+ * connection from the pool of the datasource, so the datasource must allow
+ * enough connections.
+ * <br>
+ * Creation date: 2010-06-25<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public class QueryExecutor
+{
+
+	/** context attribute used to store the executor */
+	static final String CONTEXT_ATTRIBUTE = "dinamica.query.executor";
+
+	/** default number of threads */
+	static final int DEFAULT_THREADS = 8;
+
+	/** thread pool */
+	ExecutorService _pool = null;
+
+	/**
+	 * Returns the executor of the context, creates it on first use
+	 * @param ctx Servlet context
+	 * @return The executor shared by all the Actions of the context
+	 */
+	public static synchronized QueryExecutor getInstance(ServletContext ctx)
+	{
+		QueryExecutor e = (QueryExecutor)ctx.getAttribute(CONTEXT_ATTRIBUTE);
+		if (e==null)
+		{
+			e = new QueryExecutor(ctx);
+			ctx.setAttribute(CONTEXT_ATTRIBUTE, e);
+		}
+		return e;
+	}
+
+	/**
+	 * Remove the executor from the context and stop its threads
+	 * @param ctx Servlet context
+	 */
+	public static synchronized void release(ServletContext ctx)
+	{
+		QueryExecutor e = (QueryExecutor)ctx.getAttribute(CONTEXT_ATTRIBUTE);
+		if (e!=null)
+		{
+			ctx.removeAttribute(CONTEXT_ATTRIBUTE);
+			e._pool.shutdown();
+		}
+	}
+
+	/**
+	 * Creates the thread pool
+	 * @param ctx Servlet context
+	 */
+	QueryExecutor(ServletContext ctx)
+	{
+		int threads = DEFAULT_THREADS;
+		String n = ctx.getInitParameter("parallel-query-threads");
+		if (n!=null && !n.trim().equals(""))
+			threads = Integer.parseInt(n.trim());
+
+		final String name = "dinamica-query" + ctx.getContextPath().replace('/', '-') + "-";
+		_pool = Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			AtomicInteger _count = new AtomicInteger();
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, name + _count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Execute a query in the thread pool
+	 * @param query Query to execute
+	 * @return Future used to wait for the Recordset
+	 */
+	public Future<Recordset> submit(Callable<Recordset> query)
+	{
+		return _pool.submit(query);
+	}
+
+}
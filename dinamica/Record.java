@@ -8,6 +8,10 @@ import java.util.Set;
 
 /**
  * Utility class for Recordset: represents a record inside a recordset
+ * <br><br>
+ * The Recordset stores its data by column, the records returned by
+ * Recordset.getData() are read-only copies: setValue() and setChildren()
+ * throw an exception instead of losing the change.
  * <br>
  * Creation date: 10/09/2003<br>
  * Last Update: 29/april/2004<br>
@@ -29,6 +33,9 @@ public class Record  implements Serializable
 	/** every record in a recordset can contain a children recordset */
 	Recordset _children = null;
 
+	/** TRUE for the copies returned by Recordset.getData() */
+	boolean _readOnly = false;
+
 	/**
 	 * Quick constructor to build a record given a HashMap with field|value pairs
 	 * @param values Record values
@@ -75,6 +82,10 @@ public class Record  implements Serializable
 	public void setValue(String fieldName, Object value) throws RecordsetException
 	{
 	
+		//patch 2010-07-15 - changes to the copies returned by Recordset.getData() would be lost
+		if (_readOnly)
+			throw new RecordsetException("Read-only record returned by Recordset.getData(), use Recordset.setValue() to change field: " + fieldName);
+		
 		if (!_record.containsKey(fieldName))
 		{
 			
@@ -98,9 +109,12 @@ public class Record  implements Serializable
 	/**
 	 * Set the children recordset of this record
 	 * @param rs Children recordset
+	 * @throws IllegalStateException If the record was returned by Recordset.getData()
 	 */
 	public void setChildren(Recordset rs)
 	{
+		if (_readOnly)
+			throw new IllegalStateException("Read-only record returned by Recordset.getData(), use Recordset.setChildrenRecordset() instead.");
 		_children = rs;
 	}
 	
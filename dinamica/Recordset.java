@@ -2,10 +2,9 @@ package dinamica;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.io.Serializable;
 import java.io.StringWriter;
 import java.io.PrintWriter;
@@ -31,6 +30,12 @@ import java.sql.*;
  * <br><br>
  * Each field in the recordset is mantained in its native data type
  * as represented by the JDBC driver, or a java null value.
+ * <br><br>
+ * The data is stored by column (see Column), each field name is resolved
+ * to a column position using a map shared by all the records, so there is no
+ * per-record HashMap and reading a value is a simple array index. For this reason
+ * getData() returns read-only copies of the records, the recordset must be changed
+ * with its own methods (setValue(), addNew(), delete(), etc.).
  * <br>
  * <br>
  * Creation date: 10/09/2003<br>
@@ -50,8 +55,20 @@ public class Recordset implements Serializable
 	/** contains list of fields */
 	private HashMap<String, RecordsetField> _fields = new HashMap<String, RecordsetField>();
 
-	/** contains list of records */
-	private ArrayList<Record> _data = new ArrayList<Record>();
+	/** TRUE if _fields is shared with other recordsets (pages, cursors) and must be copied before a change */
+	private boolean _sharedFields = false;
+
+	/** column position of each field, treated as read-only once assigned so it can be shared */
+	private HashMap<String, Integer> _columnIndex = new HashMap<String, Integer>();
+
+	/** contains the data, one column per field */
+	private Column _columns[] = new Column[0];
+
+	/** children recordset of each record - created on first use */
+	private Column _children = null;
+
+	/** number of records */
+	private int _rowCount = 0;
 
 	/** recordset position (0...N-1)*/
 	private int _recordNumber = -1;
@@ -67,6 +84,12 @@ public class Recordset implements Serializable
 	
 	private String _lastSortColName = null;
 	private String _lastSortMode = null;
+
+	/** column indexes created with createIndex() or createSortedIndex() - not serialized */
+	private transient ArrayList<RecordsetIndex> _indexes = null;
+
+	/** TRUE for the pages returned by getPage(), their records cannot be changed */
+	private boolean _readOnly = false;
 	
 	/**
 	 * Return records per page (page size) for recordsets 
@@ -94,10 +117,10 @@ public class Recordset implements Serializable
 		rs.append(_ID + ".recordcount", Types.INTEGER);
 		
 		rs.addNew();
-		rs.setValue("recordcount", Integer.valueOf(_data.size()));
+		rs.setValue("recordcount", Integer.valueOf(getRecordCount()));
 		rs.setValue("pagecount", Integer.valueOf(_pageCount));
 		rs.setValue("currentpage", Integer.valueOf(_currentPage));
-		rs.setValue(_ID + ".recordcount", Integer.valueOf(_data.size()));
+		rs.setValue(_ID + ".recordcount", Integer.valueOf(getRecordCount()));
 		
 		return rs;
 		
@@ -151,16 +174,17 @@ public class Recordset implements Serializable
 			throw new Throwable("Invalid page size, must be > 0!");
 		}
 
-		if (_data.size() == 0)
+		if (_rowCount == 0)
 		{
 			throw new Throwable("Invalid page size, recordset is empty!");
 		}
 	
 		_pageSize = p;
 
-		java.math.BigDecimal b1 = new java.math.BigDecimal(_data.size());
-		java.math.BigDecimal b2 = new java.math.BigDecimal(_pageSize);
-		_pageCount = b1.divide(b2,java.math.BigDecimal.ROUND_UP).intValue();
+		//patch 2010-07-14 - integer division rounded up, no BigDecimal
+		_pageCount = _rowCount / _pageSize;
+		if (_rowCount % _pageSize != 0)
+			_pageCount++;
 		
 		if (getRecordCount()>0)
 			_currentPage = 1;
@@ -170,7 +194,15 @@ public class Recordset implements Serializable
 
 	/**
 	 * Paging support.<br>
-	 * Get Recordset representing the requeste page of records
+	 * Get Recordset representing the requeste page of records.<br>
+	 * The page is a read-only view of this recordset: it shares the structure and the
+	 * data, no record is copied. setValue(), addNew(), delete() and setChildrenRecordset()
+	 * throw an exception when called on the page; in versions before 2010-07 the values set on
+	 * a page were also changed in this recordset, now they must be set on this recordset before
+	 * requesting the page. The page can be sorted, that does not change this recordset.
+	 * A change made afterwards to this recordset makes the pages that contain the
+	 * affected records copy their own records first, so a page keeps the records it had
+	 * when it was created; the pages already discarded are not copied.
 	 */
 	public Recordset getPage(int p) throws Throwable
 	{
@@ -183,49 +215,214 @@ public class Recordset implements Serializable
 		//calculate first and last row numbers for this page
 		int row1 = (p - 1) * _pageSize;
 		int row2 = (p * _pageSize) - 1;
-		if (row2 > (_data.size()-1))
-			row2 = _data.size() - 1;
+		if (row2 > (_rowCount-1))
+			row2 = _rowCount - 1;
 
-		 
-		//create an identical recordset containing only the records for the requested page
-		ArrayList<Record> newData = new ArrayList<Record>(_pageSize);
-		for (int i=row1;i<=row2;i++)
-		{
-			newData.add(_data.get(i));
-		}
-		
 		//new recordset representing data page
 		Recordset x = new Recordset();
 		
-		//copy metadata
-		HashMap<String,RecordsetField> newFields = new HashMap<String,RecordsetField>(_fields.keySet().size());
-		newFields.putAll(_fields);
-		x.setFields(newFields);
-		
-		//set recordset data
-		x.setData(newData);
+		//patch 2010-07-14 - share metadata, it is copied before either recordset changes it
+		x._fields = _fields;
+		x._sharedFields = true;
+		_sharedFields = true;
+		x._columnIndex = _columnIndex;
+		 
+		//views over the records of the requested page, nothing is copied
+		int size = row2 - row1 + 1;
+		x._columns = new Column[_columns.length];
+		for (int i=0;i<_columns.length;i++)
+		{
+			x._columns[i] = new Column.View(_columns[i], row1, size);
+		}
+		if (_children!=null)
+			x._children = new Column.View(_children, row1, size);
+		x._rowCount = size;
+		x._readOnly = true;
 		
 		//return new recordset containing page/
 		return x;			
 	
 	}
 
+	/**
+	 * Returns a new Recordset with the same structure and a copy
+	 * of some records of this one, including their children recordsets
+	 * @param rows Record numbers (0...N-1), in the order they will have in the new Recordset
+	 * @return Recordset positioned before the first record
+	 */
+	Recordset copyRecords(int rows[])
+	{
+
+		Recordset x = new Recordset();
+		x._fields = new HashMap<String,RecordsetField>(_fields);
+		x._columnIndex = _columnIndex;
+
+		x._columns = new Column[_columns.length];
+		for (int i=0;i<_columns.length;i++)
+		{
+			Column c = _columns[i].copy(0, 0);
+			for (int j=0;j<rows.length;j++)
+				c = c.add(_columns[i].get(rows[j]));
+			x._columns[i] = c;
+		}
+		if (_children!=null)
+		{
+			Column c = _children.copy(0, 0);
+			for (int j=0;j<rows.length;j++)
+				c = c.add(_children.get(rows[j]));
+			x._children = c;
+		}
+		x._rowCount = rows.length;
+		x._ID = _ID;
+
+		return x;
+
+	}
+
 	/**
 	 * Feed the recordset metadata (column structure)
 	 * @param fields HashMap containing the recordset field objects
 	 */
 	protected void setFields(HashMap<String, RecordsetField> fields)
 	{
+		
+		//keep the data of the fields that already exist
+		HashMap<String, Integer> index = new HashMap<String, Integer>(fields.size() * 2);
+		Column cols[] = new Column[fields.size()];
+		int n = 0;
+		Iterator<Map.Entry<String, RecordsetField>> i = fields.entrySet().iterator();
+		while (i.hasNext())
+		{
+			Map.Entry<String, RecordsetField> e = i.next();
+			Integer pos = _columnIndex.get(e.getKey());
+			if (pos!=null)
+				cols[n] = _columns[pos.intValue()];
+			else
+				cols[n] = Column.create(e.getValue().getType(), _rowCount);
+			index.put(e.getKey(), Integer.valueOf(n));
+			n++;
+		}
+		
 		_fields = fields;
+		_sharedFields = false;
+		_columnIndex = index;
+		_columns = cols;
+		invalidateIndexes();
+		
 	}
 	
 	/**
-	 * Feed the recordset data
+	 * Feed the recordset data, replacing any existing records.
+	 * Values of fields not defined in the recordset structure are ignored.
 	 * @param data ArrayList containing record objects
 	 */
 	protected void setData(ArrayList<Record> data)
 	{
-		this._data = data;
+		
+		String names[] = getColumnNames();
+		Column cols[] = new Column[_columns.length];
+		for (int i = 0; i < cols.length; i++)
+			cols[i] = Column.create(_columns[i]._type, 0);
+		Column children = null;
+		
+		for (int r = 0; r < data.size(); r++)
+		{
+			Record rec = data.get(r);
+			for (int i = 0; i < cols.length; i++)
+				cols[i] = cols[i].add(rec._record.get(names[i]));
+			if (rec.getChildren()!=null && children==null)
+				children = Column.create(Types.JAVA_OBJECT, r);
+			if (children!=null)
+				children = children.add(rec.getChildren());
+		}
+		
+		_columns = cols;
+		_children = children;
+		_rowCount = data.size();
+		invalidateIndexes();
+		
+	}
+	
+	/**
+	 * Returns a new Recordset that shares the structure and the data
+	 * of this one, but with its own record pointer. Used to let
+	 * several threads read the same data. A change made to either recordset
+	 * afterwards is applied to a copy of the affected column (see unshare()),
+	 * so it is not seen by the other one nor by its indexes. A cursor of a page
+	 * is read-only like the page.
+	 * @return Recordset positioned before the first record
+	 */
+	Recordset newCursor()
+	{
+		Recordset x = new Recordset();
+		x._fields = _fields;
+		x._sharedFields = true;
+		_sharedFields = true;
+		x._columnIndex = _columnIndex;
+		x._columns = _columns.clone();
+		for (int i = 0; i < _columns.length; i++)
+			_columns[i]._shared = true;
+		if (_children!=null)
+			_children._shared = true;
+		x._children = _children;
+		x._rowCount = _rowCount;
+		x._ID = _ID;
+		x._readOnly = _readOnly;
+		return x;
+	}
+	
+	/**
+	 * Returns a column ready to be changed: a column shared with another
+	 * recordset is replaced by a copy of its records (copy-on-write)
+	 * @param c Column
+	 * @return The same column or its copy
+	 */
+	private Column unshare(Column c)
+	{
+		if (c._shared)
+			return c.copy(0, _rowCount);
+		return c;
+	}
+
+	/**
+	 * Returns a column ready to change a range of its records: the pages
+	 * that contain any of those records copy them first (see getPage()) and
+	 * a column shared with a cursor is replaced by a copy
+	 * @param c Column
+	 * @param from First record that will change (inclusive)
+	 * @param to Last record that will change (exclusive)
+	 * @return The same column or its copy
+	 */
+	private Column unshare(Column c, int from, int to)
+	{
+		c.detachViews(from, to);
+		return unshare(c);
+	}
+
+	/**
+	 * Throws an exception if this recordset is a page (see getPage())
+	 * @throws RecordsetException
+	 */
+	private void checkWritable() throws RecordsetException
+	{
+		if (_readOnly)
+			throw new RecordsetException("The records of a page are read-only, change them in the recordset that returned the page.");
+	}
+	
+	/**
+	 * Returns the field names ordered by column position
+	 * @return Array of field names
+	 */
+	private String[] getColumnNames()
+	{
+		String names[] = new String[_columns.length];
+		Iterator<Map.Entry<String, Integer>> i = _columnIndex.entrySet().iterator();
+		while (i.hasNext())
+		{
+			Map.Entry<String, Integer> e = i.next();
+			names[e.getValue().intValue()] = e.getKey();
+		}
+		return names;
 	}
 
 	/**
@@ -243,7 +440,7 @@ public class Recordset implements Serializable
 	 */
 	public int getRecordCount()
 	{
-		return _data.size();
+		return _rowCount;
 	}
 
 	/**
@@ -266,12 +463,73 @@ public class Recordset implements Serializable
 	}
 
 	/**
-	 * Returns ArrayList containing the recordset data (the records)
+	 * Returns ArrayList containing the recordset data (the records).
+	 * The list and the records are a copy of the data: the records are
+	 * read-only (Record.setValue() throws an exception) and adding or removing
+	 * elements of the list does not change the Recordset.
 	 * @return 
+	 * @deprecated The records are no longer the storage of the Recordset, read
+	 * the values with getValue() and change them with setValue(), addNew() and delete()
 	 */
+	@Deprecated
 	public ArrayList<Record> getData()
 	{
-		return _data;
+		String names[] = getColumnNames();
+		ArrayList<Record> data = new ArrayList<Record>(_rowCount);
+		for (int r = 0; r < _rowCount; r++)
+		{
+			HashMap<String, Object> values = new HashMap<String, Object>(names.length * 2);
+			for (int i = 0; i < names.length; i++)
+				values.put(names[i], _columns[i].get(r));
+			Record rec = new Record(values);
+			if (_children!=null)
+				rec._children = (Recordset)_children.get(r);
+			rec._readOnly = true;
+			data.add(rec);
+		}
+		return data;
+	}
+
+	/**
+	 * Returns the position of a field in the column storage of the
+	 * recordset. It can be used with getValue(int) to avoid resolving
+	 * the field name on every record when reading many records.
+	 * @param fieldName Field name
+	 * @return Column position (0...N-1) or -1 if the field does not exist
+	 */
+	public int getColumnIndex(String fieldName)
+	{
+		Integer pos = _columnIndex.get(fieldName);
+		if (pos==null)
+			return -1;
+		else
+			return pos.intValue();
+	}
+
+	/**
+	 * Returns the column position of a field, throws exception
+	 * if the field does not exist
+	 * @param fieldName Field name
+	 * @return Column position (0...N-1)
+	 * @throws RecordsetException
+	 */
+	private int getColumnPosition(String fieldName) throws RecordsetException
+	{
+		Integer pos = _columnIndex.get(fieldName);
+		if (pos==null)
+		{
+			//patch 2010-03-10 - print current record field names to help detecting errors
+			StringBuilder colNames = new StringBuilder();
+			Iterator<String> i = _columnIndex.keySet().iterator();
+			while (i.hasNext())
+				colNames.append(i.next() + ";") ;
+			
+			String args[] = {fieldName, colNames.toString()};
+			String msg = Errors.FIELD_NOT_FOUND;
+			msg = MessageFormat.format(msg, (Object[])args);
+			throw new RecordsetException(msg);
+		}
+		return pos.intValue();
 	}
 
 	/**
@@ -284,7 +542,36 @@ public class Recordset implements Serializable
 	private void append(String fieldName, String nativeSqlType, int type)
 	{
 		RecordsetField f = new RecordsetField(fieldName, nativeSqlType, type);
+		if (_sharedFields)
+		{
+			_fields = new HashMap<String, RecordsetField>(_fields);
+			_sharedFields = false;
+		}
 		_fields.put(fieldName, f);
+		
+		Integer pos = _columnIndex.get(fieldName);
+		if (pos!=null)
+		{
+			//redefined field, keeps its values in a copy of the column,
+			//the column and the array may be shared with cursors or pages
+			Column cols[] = _columns.clone();
+			Column c = cols[pos.intValue()].copy(0, _rowCount);
+			c._type = f.getType();
+			cols[pos.intValue()] = c;
+			_columns = cols;
+			invalidateIndexes();
+		}
+		else
+		{
+			//the index map may be shared with other recordsets, don't modify it
+			HashMap<String, Integer> index = new HashMap<String, Integer>(_columnIndex);
+			index.put(fieldName, Integer.valueOf(_columns.length));
+			Column cols[] = new Column[_columns.length + 1];
+			System.arraycopy(_columns, 0, cols, 0, _columns.length);
+			cols[_columns.length] = Column.create(f.getType(), _rowCount);
+			_columnIndex = index;
+			_columns = cols;
+		}
 	}
 
 	/**
@@ -347,16 +634,14 @@ public class Recordset implements Serializable
 	public void addNew()
 	{
 		
-		HashMap<String, Object> values = new HashMap<String, Object>();
+		if (_readOnly)
+			throw new IllegalStateException("The records of a page are read-only, change them in the recordset that returned the page.");
 		
-		Iterator<String> i = _fields.keySet().iterator();
-		while (i.hasNext())
-		{
-			String f = i.next();
-			values.put(f, null);
-		}
-		
-		_data.add(new Record(values));
+		for (int i = 0; i < _columns.length; i++)
+			_columns[i] = unshare(_columns[i]).add(null);
+		if (_children!=null)
+			_children = unshare(_children).add(null);
+		_rowCount++;
 		
 		/* set record number */ 
 		_recordNumber++;
@@ -385,6 +670,7 @@ public class Recordset implements Serializable
 	public void setValue(String fieldName, Object value) throws RecordsetException
 	{
 
+		checkWritable();
 		checkRecordPosition();		
 				
 		RecordsetField f = null;
@@ -415,8 +701,17 @@ public class Recordset implements Serializable
 			}
 		}
 		
-		Record rec = _data.get(_recordNumber );
-		rec.setValue(fieldName, value);
+		int col = getColumnPosition(fieldName);
+		
+		//patch 2010-07-12 - keep the hash index of the column up to date
+		RecordsetIndex idx = findIndex(fieldName, false);
+		if (idx!=null && idx._valid)
+			idx.update(_columns[col].get(_recordNumber), value, _recordNumber);
+		idx = findIndex(fieldName, true);
+		if (idx!=null)
+			idx._valid = false;
+		
+		_columns[col] = unshare(_columns[col], _recordNumber, _recordNumber + 1).set(_recordNumber, value);
 		
 	}
 
@@ -435,29 +730,50 @@ public class Recordset implements Serializable
 		/* special treatment for reserved field names */
 		if (fieldName.equals("_rowIndex"))
 		{
-			return Integer.valueOf(_recordNumber);
+			return Integer.valueOf(getRecordNumber());
 		}
 		else if (fieldName.equals("_rowNumber"))
 		{
-			return Integer.valueOf(_recordNumber + 1);
+			return Integer.valueOf(getRecordNumber() + 1);
 		}
 		else
 		{
+			return getColumnValue(getColumnPosition(fieldName));
+		}
 
-			Record rec = (Record)_data.get(_recordNumber );
-			Object value = rec.getFieldValue(fieldName);
-			
-			//patch 2009-08-24 - convertir campos CLOB a String
-			if (value!=null) {
-				RecordsetField f = _fields.get(fieldName);
-				if (f.getType()==java.sql.Types.CLOB) {
-					java.sql.Clob clob = (java.sql.Clob)value; 
-					value =  clob.getSubString((long)1, (int)clob.length());
-				}
+	}
+
+	/**
+	 * Return field value given a column position
+	 * @param columnIndex Column position as returned by getColumnIndex()
+	 * @return
+	 * @throws Throwable
+	 */
+	public Object getValue(int columnIndex) throws Throwable
+	{
+		checkRecordPosition();
+		return getColumnValue(columnIndex);
+	}
+
+	/**
+	 * Return the value of a column for the current record
+	 * @param col Column position
+	 * @return
+	 * @throws Throwable
+	 */
+	private Object getColumnValue(int col) throws Throwable
+	{
+		Column c = _columns[col];
+		Object value = c.get(_recordNumber);
+		
+		//patch 2009-08-24 - convertir campos CLOB a String
+		if (value!=null) {
+			if (c._type==java.sql.Types.CLOB) {
+				java.sql.Clob clob = (java.sql.Clob)value; 
+				value =  clob.getSubString((long)1, (int)clob.length());
 			}
-			return value;
 		}
-
+		return value;
 	}
 
 	/**
@@ -469,29 +785,68 @@ public class Recordset implements Serializable
 	 * @throws Throwable
 	 */
 	private void loadRecords(java.sql.ResultSet rs) throws Throwable
+	{
+		int target[] = loadStructure(rs);
+		while (rs.next())
+			loadRow(rs, target);
+	}
+
+	/**
+	 * Define the fields of the recordset using the resultset metadata
+	 * @param rs Resultset
+	 * @return Column position of each resultset column, -1 if the column must be ignored
+	 * @throws Throwable
+	 */
+	int[] loadStructure(java.sql.ResultSet rs) throws Throwable
 	{
 
 		/* load field definitions */
 		ResultSetMetaData md = rs.getMetaData();
 		int cols = md.getColumnCount();
+		int target[] = new int[cols];
 		for (int i=1;i<=cols;i++)
 		{
-			append(md.getColumnLabel(i).toLowerCase(), md.getColumnTypeName(i), md.getColumnType(i));
+			String name = md.getColumnLabel(i).toLowerCase();
+			append(name, md.getColumnTypeName(i), md.getColumnType(i));
+			target[i-1] = _columnIndex.get(name).intValue();
 		}
 		
-		/* load data */
-		while (rs.next())
+		/* repeated column names keep the value of the last one */
+		for (int i=0;i<cols;i++)
 		{
-			HashMap<String, Object> flds = new HashMap<String, Object>(cols);
-			for (int i=1;i<=cols;i++)
+			for (int j=i+1;j<cols;j++)
 			{
-				flds.put(md.getColumnLabel(i).toLowerCase(), rs.getObject(i));
+				if (target[j]==target[i])
+				{
+					target[i] = -1;
+					break;
+				}
 			}
-			_data.add(new Record(flds));
 		}
+		return target;
 		
 	}
 
+	/**
+	 * Append the current row of a resultset as a new record,
+	 * the cursor position is not changed
+	 * @param rs Resultset positioned on a valid row
+	 * @param target Column positions as returned by loadStructure()
+	 * @throws Throwable
+	 */
+	void loadRow(java.sql.ResultSet rs, int target[]) throws Throwable
+	{
+		Column c[] = _columns;
+		for (int i=0;i<target.length;i++)
+		{
+			int pos = target[i];
+			if (pos >= 0)
+				c[pos] = unshare(c[pos]).add(rs.getObject(i+1));
+		}
+		_rowCount++;
+		invalidateIndexes();
+	}
+
 	/**
 	 * Create a recordset given a resultset. It is the
 	 * responsability of the caller of this method to close the resultset
@@ -571,7 +926,7 @@ public class Recordset implements Serializable
 	 */
 	public boolean next() 
 	{
-		if (_recordNumber < (_data.size()-1))
+		if (_recordNumber < (_rowCount-1))
 		{
 			_recordNumber++;
 			return true;
@@ -635,7 +990,7 @@ public class Recordset implements Serializable
 	 */
 	public void last() throws Throwable
 	{
-		setRecordNumber(_data.size()-1);
+		setRecordNumber(_rowCount-1);
 	}
 
 	/**
@@ -644,8 +999,29 @@ public class Recordset implements Serializable
 	 */
 	public void delete(int recNum) throws Throwable
 	{
+		checkWritable();
 		checkRecordPosition(recNum);
-		_data.remove(recNum);
+		if (_indexes!=null)
+		{
+			for (int i = 0; i < _indexes.size(); i++)
+			{
+				RecordsetIndex idx = _indexes.get(i);
+				Integer pos = _columnIndex.get(idx._colName);
+				if (idx._valid && pos!=null)
+					idx.delete(_columns[pos.intValue()].get(recNum), recNum);
+			}
+		}
+		for (int i = 0; i < _columns.length; i++)
+		{
+			_columns[i] = unshare(_columns[i], recNum, _rowCount);
+			_columns[i].remove(recNum);
+		}
+		if (_children!=null)
+		{
+			_children = unshare(_children, recNum, _rowCount);
+			_children.remove(recNum);
+		}
+		_rowCount--;
 		_recordNumber--;
 	}
 
@@ -728,6 +1104,18 @@ public class Recordset implements Serializable
 	 */
 	public double getDouble(String colName) throws Throwable
 	{
+		
+		/* numeric column - read the primitive value */
+		Integer pos = _columnIndex.get(colName);
+		if (pos!=null && _columns[pos.intValue()] instanceof Column.NumericColumn)
+		{
+			checkRecordPosition();
+			Column.NumericColumn c = (Column.NumericColumn)_columns[pos.intValue()];
+			if (c.isNull(_recordNumber))
+				throw new NumberFormatException("For input string: \"null\"");
+			return c.doubleValue(_recordNumber);
+		}
+		
 		Double d = new Double( String.valueOf(getValue(colName)) );
 		return d.doubleValue();
 	}
@@ -740,6 +1128,18 @@ public class Recordset implements Serializable
 	 */
 	public int getInt(String colName) throws Throwable
 	{
+
+		/* integer column - read the primitive value */
+		Integer pos = _columnIndex.get(colName);
+		if (pos!=null && _columns[pos.intValue()] instanceof Column.IntColumn)
+		{
+			checkRecordPosition();
+			Column.IntColumn c = (Column.IntColumn)_columns[pos.intValue()];
+			if (c.isNull(_recordNumber))
+				throw new NumberFormatException("For input string: \"null\"");
+			return c.intValue(_recordNumber);
+		}
+
 		Integer i = new Integer(String.valueOf(getValue(colName)));
 		return i.intValue();
 	}
@@ -792,7 +1192,7 @@ public class Recordset implements Serializable
 	 */
 	private void checkRecordPosition(int recNum) throws RecordsetException
 	{
-		if (recNum < 0 || recNum > _data.size()-1)
+		if (recNum < 0 || recNum > _rowCount-1)
 		{
 
 			StringBuffer errMsg = new StringBuffer();
@@ -800,7 +1200,7 @@ public class Recordset implements Serializable
 			errMsg.append("Invalid record position: " + recNum + "; ");
 			if (recNum==-1)
 				errMsg.append("After creating a Recordset you must move to a valid record using next(), first(), last() or setRecordNumber() methods before attempting read/write operations with any record of this Recordset; ");
-			errMsg.append("This Recordset contains " + _data.size() + " record(s); Set the record position between 0 and N-1 where N is the number of records.");
+			errMsg.append("This Recordset contains " + _rowCount + " record(s); Set the record position between 0 and N-1 where N is the number of records.");
 
 			throw new RecordsetException(errMsg.toString());			
 
@@ -825,9 +1225,11 @@ public class Recordset implements Serializable
 	 */
 	public void setChildrenRecordset(Recordset rs) throws Throwable
 	{
+		checkWritable();
 		checkRecordPosition();
-		Record rec = (Record)_data.get(_recordNumber);
-		rec.setChildren(rs);	
+		if (_children==null)
+			_children = Column.create(Types.JAVA_OBJECT, _rowCount);
+		_children = unshare(_children, _recordNumber, _recordNumber + 1).set(_recordNumber, rs);	
 	}
 
 	/**
@@ -838,12 +1240,14 @@ public class Recordset implements Serializable
 	public Recordset getChildrenRecordset() throws Throwable
 	{
 		checkRecordPosition();
-		Record rec = (Record)_data.get(_recordNumber);
-		return rec.getChildren();	
+		if (_children==null)
+			return null;
+		return (Recordset)_children.get(_recordNumber);	
 	}
 
 	/**
-	 * Sort Recordset data in ascending order by the given column
+	 * Sort Recordset data in ascending order by the given column,
+	 * null values first. Sorting again by the same column applies descending order.
 	 * @param col Name of the column to be used for the sort
 	 * @throws Throwable
 	 */
@@ -852,85 +1256,80 @@ public class Recordset implements Serializable
     
 		//patch 2007-06-19
 		//when ordering for 2nd time on the same column, apply descending order
+		String mode = null;
 		if (_lastSortColName!=null && _lastSortColName.equals(col))
 		{
 			if (_lastSortMode==null)
-				_lastSortMode = "desc";
-			else
-				_lastSortMode = null;
-				
-		} else
-		{
-			_lastSortMode = null;
-			_lastSortColName = col;
+				mode = "desc";
 		}
 		
-		Comparator<Record> comp = new Comp(col, _lastSortMode);
-		Collections.sort(_data, comp);
+		SortKey keys[] = {new SortKey(col, mode!=null, true)};
+		sort(keys, null);
+		
+		_lastSortMode = mode;
+		_lastSortColName = col;
     	
 	}
 
 	/**
-	 * Comparator inner class that provides sorting support
+	 * Sort Recordset data by one or more columns, see SortKey
+	 * @param keys Sort criteria, in order of precedence
+	 * @throws Throwable
 	 */
-	class Comp implements Serializable, Comparator<Record>
+	public void sort(SortKey keys[]) throws Throwable
 	{
-		/**
-		 * 
-		 */
-		private static final long serialVersionUID = 1L;
-		private String _sortCol = null;
-		private String _sortMode = null;
+		sort(keys, null);
+	}
+
+	/**
+	 * Sort Recordset data by one or more columns, see SortKey. The
+	 * sort is stable: records with the same values keep their relative order.
+	 * If a locale is given strings are compared with its rules (java.text.Collator),
+	 * otherwise with String.compareTo(), like sort(String) does.
+	 * @param keys Sort criteria, in order of precedence
+	 * @param locale Locale used to compare strings, null to use String.compareTo()
+	 * @throws Throwable
+	 */
+	public void sort(SortKey keys[], java.util.Locale locale) throws Throwable
+	{
+
+		if (keys==null || keys.length==0)
+			throw new Throwable("No columns passed to sort() method.");
 		
-		public Comp(String colName, String sortMode) throws Throwable
+		Column cols[] = new Column[keys.length];
+		for (int i = 0; i < keys.length; i++)
 		{
-			_sortMode = sortMode;
-			_sortCol = colName;
-			
-			if (!containsField(colName))
-				throw new Throwable("Invalid column name passed to sort() method: " + colName);
+			if (!containsField(keys[i].getColName()))
+				throw new Throwable("Invalid column name passed to sort() method: " + keys[i].getColName());
+			cols[i] = _columns[getColumnPosition(keys[i].getColName())];
 		}
 		
+		//patch 2010-07-13 - read the sort columns once into primitive arrays, no comparator per record
+		RecordsetSorter sorter = new RecordsetSorter(cols, keys, _rowCount, locale);
+		reorder(sorter.sort(_rowCount));
 		
-		public int compare(Record r1, Record r2)  
-		{
-			
-			int result = 0;
+		_lastSortColName = null;
+		_lastSortMode = null;
 
-			try
-			{
-				if (r1.getFieldValue(_sortCol)==null)
-				{
-					result = 0; 
-				}
-				else if (r2.getFieldValue(_sortCol)==null)
-				{
-					result = 1;
-				}
-				else
-				{
-					@SuppressWarnings("unchecked")
-					Comparable<Object> x1 = (Comparable<Object>)r1.getFieldValue(_sortCol);
-					result = x1.compareTo(r2.getFieldValue(_sortCol));
-					
-					//descending order?
-					if (_sortMode!=null) {
-						if (result<0)
-							result = 1;
-						else if (result > 0)
-							result = -1;
-					}
-				}
-			}
-			catch (Throwable e)
-			{
-				System.err.println("SORT ERROR: " + e.getMessage());
-			}
-			
-			return result;
-			
-		}
+	}
 
+	/**
+	 * Rearrange the records, the new record i will be the old record order[i]
+	 * @param order Permutation of the record numbers
+	 */
+	private void reorder(int[] order)
+	{
+		for (int i = 0; i < _columns.length; i++)
+		{
+			_columns[i] = unshare(_columns[i], 0, _rowCount);
+			_columns[i].reorder(order);
+		}
+		if (_children!=null)
+		{
+			_children = unshare(_children, 0, _rowCount);
+			_children.reorder(order);
+		}
+		invalidateIndexes();
 	}
 
 	/**
@@ -1021,6 +1420,11 @@ public class Recordset implements Serializable
 	{
 		int rc = -1;
 		
+		//patch 2010-07-12 - use the hash index of the column if there is one
+		RecordsetIndex idx = getIndex(colName, false);
+		if (idx!=null && _columns[getColumnPosition(colName)] instanceof Column.IntColumn)
+			return moveTo(idx.findFirst(Integer.valueOf(value)));
+		
 		top();
 		while (next())
 		{
@@ -1045,6 +1449,15 @@ public class Recordset implements Serializable
 	{
 		int rc = -1;
 		
+		//patch 2010-07-12 - use the hash index of the column if there is one
+		RecordsetIndex idx = getIndex(colName, false);
+		if (idx!=null && value!=null)
+		{
+			int type = getField(colName).getType();
+			if (type==Types.VARCHAR || type==Types.CHAR)
+				return moveTo(idx.findFirst(value));
+		}
+		
 		top();
 		while (next())
 		{
@@ -1069,6 +1482,15 @@ public class Recordset implements Serializable
 	{
 		int rc = -1;
 		
+		//patch 2010-07-12 - use the hash index of the column if there is one
+		RecordsetIndex idx = getIndex(colName, false);
+		if (idx!=null && value!=null)
+		{
+			int type = getField(colName).getType();
+			if (type==Types.DATE || type==Types.TIMESTAMP)
+				return moveTo(idx.findFirst(value));
+		}
+		
 		top();
 		while (next())
 		{
@@ -1082,6 +1504,192 @@ public class Recordset implements Serializable
 		return rc;
 	}	
 
+	/**
+	 * Position the record pointer after an indexed search the same way
+	 * a sequential search would: on the record found or on the last record
+	 * @param recNum Record found or -1
+	 * @return recNum
+	 */
+	private int moveTo(int recNum)
+	{
+		if (recNum >= 0)
+			_recordNumber = recNum;
+		else
+			_recordNumber = _rowCount - 1;
+		return recNum;
+	}
+
+	/**
+	 * Create a hash index on a column, so findRecord(), lookup() and lookupAll()
+	 * don't have to scan the whole recordset. The index is built on first use and
+	 * is updated by addNew(), setValue() and delete(); null values are not indexed.
+	 * Use it on recordsets that are searched many times, like the recordsets kept in session.
+	 * @param colName Column name
+	 * @throws Throwable If the column does not exist
+	 */
+	public void createIndex(String colName) throws Throwable
+	{
+		createIndex(colName, false);
+	}
+
+	/**
+	 * Create a sorted index on a column, used by findRange() to
+	 * return the records with values in a range without scanning the recordset.
+	 * It is rebuilt on the next search after the column values change.
+	 * @param colName Column name
+	 * @throws Throwable If the column does not exist
+	 */
+	public void createSortedIndex(String colName) throws Throwable
+	{
+		createIndex(colName, true);
+	}
+
+	/**
+	 * Add an index to the list of indexes of this recordset
+	 */
+	private void createIndex(String colName, boolean sorted) throws Throwable
+	{
+		if (!containsField(colName))
+			throw new Throwable("Invalid column name passed to createIndex() method: " + colName);
+		if (findIndex(colName, sorted)!=null)
+			return;
+		if (_indexes==null)
+			_indexes = new ArrayList<RecordsetIndex>(2);
+		_indexes.add(new RecordsetIndex(colName, sorted));
+	}
+
+	/**
+	 * Remove the indexes of a column
+	 * @param colName Column name
+	 */
+	public void dropIndex(String colName)
+	{
+		if (_indexes==null)
+			return;
+		for (int i = _indexes.size() - 1; i >= 0; i--)
+		{
+			if (_indexes.get(i)._colName.equals(colName))
+				_indexes.remove(i);
+		}
+	}
+
+	/**
+	 * Returns TRUE if the column has a hash index
+	 * @param colName Column name
+	 */
+	public boolean hasIndex(String colName)
+	{
+		return findIndex(colName, false)!=null;
+	}
+
+	/**
+	 * Returns an index of a column, or null if it does not exist
+	 */
+	private RecordsetIndex findIndex(String colName, boolean sorted)
+	{
+		if (_indexes==null)
+			return null;
+		for (int i = 0; i < _indexes.size(); i++)
+		{
+			RecordsetIndex idx = _indexes.get(i);
+			if (idx._sorted==sorted && idx._colName.equals(colName))
+				return idx;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns an index of a column ready to be used, or null if it does not exist
+	 */
+	private RecordsetIndex getIndex(String colName, boolean sorted) throws Throwable
+	{
+		RecordsetIndex idx = findIndex(colName, sorted);
+		if (idx!=null && !idx._valid)
+			idx.build(_columns[getColumnPosition(colName)], _rowCount);
+		return idx;
+	}
+
+	/**
+	 * Mark the indexes to be rebuilt on their next use
+	 */
+	private void invalidateIndexes()
+	{
+		if (_indexes==null)
+			return;
+		for (int i = 0; i < _indexes.size(); i++)
+			_indexes.get(i)._valid = false;
+	}
+
+	/**
+	 * Find the first record where a column's value matches a given value, without
+	 * changing the record position. Numbers are compared by value and dates by time.
+	 * Uses the hash index of the column if there is one, otherwise scans the recordset.
+	 * @param colName Column to use for the search
+	 * @param value Value to search for
+	 * @return Record position (0...N-1) or -1 if not found
+	 * @throws Throwable
+	 */
+	public int lookup(String colName, Object value) throws Throwable
+	{
+		RecordsetIndex idx = getIndex(colName, false);
+		if (idx!=null)
+			return idx.findFirst(value);
+
+		if (value==null)
+			return -1;
+		Column c = _columns[getColumnPosition(colName)];
+		Object key = RecordsetIndex.getKey(value);
+		for (int i = 0; i < _rowCount; i++)
+		{
+			Object v = c.get(i);
+			if (v!=null && key.equals(RecordsetIndex.getKey(v)))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Find all the records where a column's value matches a given value, without
+	 * changing the record position. Numbers are compared by value and dates by time.
+	 * Uses the hash index of the column if there is one, otherwise scans the recordset.
+	 * @param colName Column to use for the search
+	 * @param value Value to search for
+	 * @return Record positions (0...N-1) in ascending order, empty if not found
+	 * @throws Throwable
+	 */
+	public int[] lookupAll(String colName, Object value) throws Throwable
+	{
+		RecordsetIndex idx = getIndex(colName, false);
+		if (idx==null)
+		{
+			idx = new RecordsetIndex(colName, false);
+			idx.build(_columns[getColumnPosition(colName)], _rowCount);
+		}
+		return idx.find(value);
+	}
+
+	/**
+	 * Find the records where a column's value is between two values, without
+	 * changing the record position. Null values are not returned.
+	 * Uses the sorted index of the column if there is one, otherwise sorts the record numbers.
+	 * @param colName Column to use for the search
+	 * @param from Lowest value (inclusive) or null for no lower limit
+	 * @param to Highest value (inclusive) or null for no upper limit
+	 * @return Record positions (0...N-1) in ascending order of the column values, empty if not found
+	 * @throws Throwable
+	 */
+	public int[] findRange(String colName, Object from, Object to) throws Throwable
+	{
+		Column c = _columns[getColumnPosition(colName)];
+		RecordsetIndex idx = getIndex(colName, true);
+		if (idx==null)
+		{
+			idx = new RecordsetIndex(colName, true);
+			idx.build(c, _rowCount);
+		}
+		return idx.findRange(c, from, to);
+	}
+
 	/**
 	 * Sumar o totalizar el valor de una columna para todos los registros del recordset
 	 * @param colName Nombre de la columna a sumar
@@ -1092,6 +1700,22 @@ public class Recordset implements Serializable
 	{
 		double total = 0;
 		
+		/* numeric column - add the primitive values */
+		Integer pos = _columnIndex.get(colName);
+		if (pos!=null && _columns[pos.intValue()] instanceof Column.NumericColumn)
+		{
+			Column.NumericColumn c = (Column.NumericColumn)_columns[pos.intValue()];
+			for (int i = 0; i < _rowCount; i++)
+			{
+				_recordNumber = i;
+				if (c.isNull(i))
+					throw new NumberFormatException("For input string: \"null\"");
+				total = total + c.doubleValue(i);
+			}
+			_recordNumber = _rowCount - 1;
+			return total;
+		}
+		
 		top();
 		while (next())
 		{
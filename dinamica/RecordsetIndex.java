@@ -0,0 +1,340 @@
+package dinamica;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Utility class for Recordset: secondary index of one column, created
+ * with Recordset.createIndex() or Recordset.createSortedIndex().
+ * <br><br>
+ * The hash index keeps the record numbers of each value, so exact-match
+ * lookups don't scan the recordset; it is updated by addNew(), setValue() and delete().
+ * The sorted index keeps the record numbers ordered by value for range lookups, it is
+ * rebuilt on the next lookup after the column or the record numbers change.
+ * Null values are not indexed. Numeric values are compared by value (an Integer
+ * and a Long or a BigDecimal with the same value are the same key), dates by time.
+ * <br>
+ * Creation date: 2010-07-12<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+class RecordsetIndex
+{
+
+	/** empty result */
+	static final int[] NONE = new int[0];
+
+	/** indexed field */
+	String _colName = null;
+
+	/** TRUE for a sorted (range) index */
+	boolean _sorted = false;
+
+	/** FALSE if the index must be rebuilt before its next use */
+	boolean _valid = false;
+
+	/** hash index: record numbers of each value, in ascending order */
+	HashMap<Object, Rows> _keys = null;
+
+	/** sorted index: record numbers of the not null values, ordered by value */
+	int _order[] = null;
+
+	/**
+	 * Record numbers with the same value
+	 */
+	static class Rows
+	{
+		int rows[] = new int[1];
+		int size = 0;
+
+		void add(int row)
+		{
+			if (size==rows.length)
+				rows = Arrays.copyOf(rows, Column.grow(size));
+
+			/* keep the ascending order, new records are usually the last ones */
+			int pos = size;
+			while (pos > 0 && rows[pos - 1] > row)
+				pos--;
+			System.arraycopy(rows, pos, rows, pos + 1, size - pos);
+			rows[pos] = row;
+			size++;
+		}
+
+		void remove(int row)
+		{
+			for (int i = 0; i < size; i++)
+			{
+				if (rows[i]==row)
+				{
+					System.arraycopy(rows, i + 1, rows, i, size - i - 1);
+					size--;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates an index, it is built on first use
+	 * @param colName Field name
+	 * @param sorted TRUE for a sorted (range) index, FALSE for a hash index
+	 */
+	RecordsetIndex(String colName, boolean sorted)
+	{
+		_colName = colName;
+		_sorted = sorted;
+	}
+
+	/**
+	 * Returns the value used as key of the index
+	 * @param v Column value (not null)
+	 * @return Long for integral numbers and dates, Double for other numbers, the same value otherwise
+	 */
+	static Object getKey(Object v)
+	{
+		if (v instanceof Number)
+		{
+			double d = ((Number)v).doubleValue();
+			if (d==Math.rint(d) && !Double.isInfinite(d))
+				return Long.valueOf(((Number)v).longValue());
+			return Double.valueOf(d);
+		}
+		if (v instanceof java.util.Date)
+			return Long.valueOf(((java.util.Date)v).getTime());
+		return v;
+	}
+
+	/**
+	 * Compare two not null values of a column
+	 * @return Negative, zero or positive as in Comparable.compareTo()
+	 */
+	static int compare(Object v1, Object v2)
+	{
+		return compareKeys(getKey(v1), getKey(v2));
+	}
+
+	/**
+	 * Compare two keys returned by getKey()
+	 * @return Negative, zero or positive as in Comparable.compareTo()
+	 */
+	@SuppressWarnings("unchecked")
+	static int compareKeys(Object k1, Object k2)
+	{
+		if (k1 instanceof Number && k2 instanceof Number)
+		{
+			if (k1 instanceof Long && k2 instanceof Long)
+				return ((Long)k1).compareTo((Long)k2);
+			return Double.compare(((Number)k1).doubleValue(), ((Number)k2).doubleValue());
+		}
+		return ((Comparable<Object>)k1).compareTo(k2);
+	}
+
+	/**
+	 * Build the index
+	 * @param c Column data
+	 * @param rowCount Number of records
+	 */
+	void build(Column c, int rowCount)
+	{
+
+		if (_sorted)
+		{
+			/* same order used by findRange(), the keys are read once */
+			final Object keys[] = new Object[rowCount];
+			Integer rows[] = new Integer[rowCount];
+			int n = 0;
+			for (int i = 0; i < rowCount; i++)
+			{
+				if (!c.isNull(i))
+				{
+					keys[i] = getKey(c.get(i));
+					rows[n++] = Integer.valueOf(i);
+				}
+			}
+			Arrays.sort(rows, 0, n, new Comparator<Integer>()
+			{
+				public int compare(Integer r1, Integer r2)
+				{
+					int x = compareKeys(keys[r1.intValue()], keys[r2.intValue()]);
+					return (x!=0) ? x : r1.compareTo(r2);
+				}
+			});
+			_order = new int[n];
+			for (int i = 0; i < n; i++)
+				_order[i] = rows[i].intValue();
+		}
+		else
+		{
+			_keys = new HashMap<Object, Rows>(rowCount * 2);
+			for (int i = 0; i < rowCount; i++)
+				add(c.get(i), i);
+		}
+
+		_valid = true;
+
+	}
+
+	/**
+	 * A record was added or one of its values changed
+	 * @param value New value
+	 * @param row Record number
+	 */
+	void add(Object value, int row)
+	{
+		if (_sorted)
+		{
+			_valid = false;
+			return;
+		}
+		if (value==null)
+			return;
+
+		Object key = getKey(value);
+		Rows r = _keys.get(key);
+		if (r==null)
+		{
+			r = new Rows();
+			_keys.put(key, r);
+		}
+		r.add(row);
+	}
+
+	/**
+	 * The value of a record changed
+	 * @param oldValue Previous value
+	 * @param newValue New value
+	 * @param row Record number
+	 */
+	void update(Object oldValue, Object newValue, int row)
+	{
+		if (_sorted)
+		{
+			_valid = false;
+			return;
+		}
+		remove(oldValue, row);
+		add(newValue, row);
+	}
+
+	/**
+	 * Remove a record number from the entry of a value
+	 */
+	private void remove(Object value, int row)
+	{
+		if (value==null)
+			return;
+
+		Object key = getKey(value);
+		Rows r = _keys.get(key);
+		if (r!=null)
+		{
+			r.remove(row);
+			if (r.size==0)
+				_keys.remove(key);
+		}
+	}
+
+	/**
+	 * A record was deleted, the following records are shifted one position
+	 * @param value Value of the deleted record
+	 * @param row Record number
+	 */
+	void delete(Object value, int row)
+	{
+		if (_sorted)
+		{
+			_valid = false;
+			return;
+		}
+		remove(value, row);
+		Iterator<Rows> i = _keys.values().iterator();
+		while (i.hasNext())
+		{
+			Rows r = i.next();
+			for (int j = r.size - 1; j >= 0 && r.rows[j] > row; j--)
+				r.rows[j]--;
+		}
+	}
+
+	/**
+	 * Returns the record numbers with a value (hash index)
+	 * @param value Value to search for
+	 * @return Record numbers in ascending order
+	 */
+	int[] find(Object value)
+	{
+		if (value==null)
+			return NONE;
+		Rows r = _keys.get(getKey(value));
+		if (r==null)
+			return NONE;
+		return Arrays.copyOf(r.rows, r.size);
+	}
+
+	/**
+	 * Returns the first record number with a value (hash index)
+	 * @param value Value to search for
+	 * @return Record number or -1 if not found
+	 */
+	int findFirst(Object value)
+	{
+		if (value==null)
+			return -1;
+		Rows r = _keys.get(getKey(value));
+		if (r==null)
+			return -1;
+		return r.rows[0];
+	}
+
+	/**
+	 * Returns the record numbers with a value in a range (sorted index)
+	 * @param c Column data
+	 * @param from Lowest value (inclusive) or null
+	 * @param to Highest value (inclusive) or null
+	 * @return Record numbers ordered by value
+	 */
+	int[] findRange(Column c, Object from, Object to)
+	{
+		int start = 0;
+		int end = _order.length;
+
+		if (from!=null)
+		{
+			/* first position with value >= from */
+			int lo = 0, hi = _order.length;
+			while (lo < hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				if (compare(c.get(_order[mid]), from) < 0)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			start = lo;
+		}
+
+		if (to!=null)
+		{
+			/* first position with value > to */
+			int lo = start, hi = _order.length;
+			while (lo < hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				if (compare(c.get(_order[mid]), to) <= 0)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			end = lo;
+		}
+
+		if (end <= start)
+			return NONE;
+		return Arrays.copyOfRange(_order, start, end);
+	}
+
+}
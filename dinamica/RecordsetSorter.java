@@ -0,0 +1,238 @@
+package dinamica;
+
+import java.text.Collator;
+import java.util.Locale;
+
+/**
+ * Utility class for Recordset: sorts the record numbers by one or
+ * more columns. The values of the sort columns are read once into arrays
+ * of primitive values (strings are converted to collation keys when a locale
+ * is given), so the comparisons do not create objects nor look up columns.
+ * The sort is stable and runs in the calling thread.
+ * <br>
+ * Creation date: 2010-07-13<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+class RecordsetSorter
+{
+
+	/** ranges smaller than this are sorted by insertion */
+	private static final int INSERTION_SORT_SIZE = 16;
+
+	/** sort keys: values of one column and its sort criteria */
+	private Key _keys[] = null;
+
+	/**
+	 * Values of a sort column
+	 */
+	static class Key
+	{
+		/** TRUE if the value of the record is null */
+		boolean nulls[] = null;
+
+		/** integers, dates (milliseconds) */
+		long longs[] = null;
+
+		/** decimal numbers */
+		double doubles[] = null;
+
+		/** strings or their collation keys, other comparable objects (see RecordsetIndex.getKey) */
+		Object objects[] = null;
+
+		/** -1 for descending order */
+		int sign = 1;
+
+		/** -1 if the null values go first */
+		int nullSign = -1;
+
+		int compare(int r1, int r2)
+		{
+			if (nulls[r1] || nulls[r2])
+			{
+				if (nulls[r1]==nulls[r2])
+					return 0;
+				return nulls[r1] ? nullSign : -nullSign;
+			}
+
+			int x = 0;
+			if (longs!=null)
+			{
+				long x1 = longs[r1];
+				long x2 = longs[r2];
+				x = (x1 < x2) ? -1 : ((x1 == x2) ? 0 : 1);
+			}
+			else if (doubles!=null)
+			{
+				x = Double.compare(doubles[r1], doubles[r2]);
+			}
+			else
+			{
+				x = RecordsetIndex.compareKeys(objects[r1], objects[r2]);
+			}
+			return x * sign;
+		}
+	}
+
+	/**
+	 * Read the values of the sort columns
+	 * @param cols Columns, in order of precedence
+	 * @param keys Sort criteria of each column
+	 * @param rowCount Number of records
+	 * @param locale Locale used to compare strings (java.text.Collator), null to use String.compareTo()
+	 */
+	RecordsetSorter(Column cols[], SortKey keys[], int rowCount, Locale locale)
+	{
+
+		Collator collator = null;
+
+		_keys = new Key[cols.length];
+		for (int i = 0; i < cols.length; i++)
+		{
+			Column c = cols[i];
+			Key k = new Key();
+			k.sign = keys[i].isDescending() ? -1 : 1;
+			k.nullSign = keys[i].isNullsFirst() ? -1 : 1;
+			k.nulls = new boolean[rowCount];
+			for (int r = 0; r < rowCount; r++)
+				k.nulls[r] = c.isNull(r);
+
+			if (c instanceof Column.IntColumn)
+			{
+				Column.IntColumn x = (Column.IntColumn)c;
+				k.longs = new long[rowCount];
+				for (int r = 0; r < rowCount; r++)
+					k.longs[r] = x._values[r];
+			}
+			else if (c instanceof Column.LongColumn)
+			{
+				k.longs = ((Column.LongColumn)c)._values;
+			}
+			else if (c instanceof Column.DateColumn)
+			{
+				k.longs = ((Column.DateColumn)c)._values;
+			}
+			else if (c instanceof Column.NumericColumn)
+			{
+				Column.NumericColumn x = (Column.NumericColumn)c;
+				k.doubles = new double[rowCount];
+				for (int r = 0; r < rowCount; r++)
+				{
+					if (!k.nulls[r])
+						k.doubles[r] = x.doubleValue(r);
+				}
+			}
+			else
+			{
+				k.objects = new Object[rowCount];
+				for (int r = 0; r < rowCount; r++)
+				{
+					Object v = c.get(r);
+					if (v instanceof String && locale!=null)
+					{
+						if (collator==null)
+							collator = Collator.getInstance(locale);
+						v = collator.getCollationKey((String)v);
+					}
+					else if (v!=null)
+					{
+						v = RecordsetIndex.getKey(v);
+					}
+					k.objects[r] = v;
+				}
+			}
+			_keys[i] = k;
+		}
+
+	}
+
+	/**
+	 * Compare two records using all the sort columns
+	 */
+	private int compare(int r1, int r2)
+	{
+		for (int i = 0; i < _keys.length; i++)
+		{
+			int x = _keys[i].compare(r1, r2);
+			if (x!=0)
+				return x;
+		}
+		return 0;
+	}
+
+	/**
+	 * Sort the record numbers
+	 * @param rowCount Number of records
+	 * @return Permutation of the record numbers: the new record i is the old record order[i]
+	 */
+	int[] sort(int rowCount)
+	{
+		int order[] = new int[rowCount];
+		for (int i = 0; i < rowCount; i++)
+			order[i] = i;
+		mergeSort(order.clone(), order, 0, rowCount);
+		return order;
+	}
+
+	/**
+	 * Stable merge sort of a range
+	 * @param src Copy of the range to sort, used as work area
+	 * @param dst Range to sort, receives the result
+	 * @param lo First position (inclusive)
+	 * @param hi Last position (exclusive)
+	 */
+	private void mergeSort(int src[], int dst[], int lo, int hi)
+	{
+
+		if (hi - lo < INSERTION_SORT_SIZE)
+		{
+			for (int i = lo + 1; i < hi; i++)
+			{
+				int row = dst[i];
+				int j = i;
+				while (j > lo && compare(dst[j - 1], row) > 0)
+				{
+					dst[j] = dst[j - 1];
+					j--;
+				}
+				dst[j] = row;
+			}
+			return;
+		}
+
+		/* sort both halves of src using dst as work area, then merge them into dst */
+		int mid = (lo + hi) >>> 1;
+		mergeSort(dst, src, lo, mid);
+		mergeSort(dst, src, mid, hi);
+
+		/* already in order */
+		if (compare(src[mid - 1], src[mid]) <= 0)
+		{
+			System.arraycopy(src, lo, dst, lo, hi - lo);
+			return;
+		}
+
+		merge(src, dst, lo, mid, hi);
+
+	}
+
+	/**
+	 * Merge two consecutive sorted ranges
+	 * @param src Sorted ranges [lo, mid) and [mid, hi)
+	 * @param dst Receives the merged range [lo, hi)
+	 */
+	private void merge(int src[], int dst[], int lo, int mid, int hi)
+	{
+		int p = lo;
+		int q = mid;
+		for (int i = lo; i < hi; i++)
+		{
+			if (q >= hi || (p < mid && compare(src[p], src[q]) <= 0))
+				dst[i] = src[p++];
+			else
+				dst[i] = src[q++];
+		}
+	}
+
+}
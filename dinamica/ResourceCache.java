@@ -0,0 +1,279 @@
+package dinamica;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.ServletContext;
+
+/**
+ * Cache of text resources (SQL and HTML templates) shared by all
+ * the Actions of a context, used by AbstractModule.getResource() so the
+ * template files are not read from the ServletContext on every request.
+ * <br><br>
+ * The timestamp of each file is checked to reload it when it changes, the
+ * interval between checks is set with the context parameter <b>resource-check-interval</b>
+ * (seconds, 0 = check on every request (default), -1 = never check, for production sites),
+ * the same parameter used by the ActionRegistry.
+ * <br><br>
+ * The cache is bounded by the context parameters <b>resource-cache-size</b> (maximum number
+ * of files, default 1000, 0 = disabled) and <b>resource-cache-max-chars</b> (maximum total size in
+ * characters, default 8388608); when a limit is reached the least recently used files are discarded.
+ * The statistics and a clear() operation are published as a JMX MBean (dinamica:type=ResourceCache,context=/xxx).
+ * <br>
+ * Creation date: 2010-07-02<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public class ResourceCache implements ResourceCacheMBean
+{
+
+	/** context attribute used to store the cache */
+	static final String CONTEXT_ATTRIBUTE = "dinamica.resource.cache";
+
+	/** default maximum number of files */
+	static final int DEFAULT_SIZE = 1000;
+
+	/** default maximum total size (chars) */
+	static final long DEFAULT_MAX_CHARS = 8 * 1024 * 1024;
+
+	/** servlet context */
+	private ServletContext _ctx = null;
+
+	/** files indexed by path and encoding, in access order */
+	private LinkedHashMap<String, Entry> _resources = null;
+
+	/** milliseconds between timestamp checks, -1 = never */
+	private long _checkInterval = 0;
+
+	/** limits */
+	private int _maxSize = DEFAULT_SIZE;
+	private long _maxChars = DEFAULT_MAX_CHARS;
+
+	/** total size of the files in the cache (chars) */
+	private long _chars = 0;
+
+	/** statistics */
+	private long _hits = 0;
+	private long _misses = 0;
+
+	/** JMX name -if registered- */
+	private ObjectName _name = null;
+
+	/**
+	 * Contents of one file
+	 */
+	static class Entry
+	{
+		/** file contents */
+		String data = null;
+
+		/** timestamp of the file when loaded */
+		long lastModified = 0;
+
+		/** last time the timestamp was checked */
+		volatile long lastChecked = 0;
+	}
+
+	/**
+	 * Returns the cache of the context, creates it on first use
+	 * @param ctx Servlet context
+	 * @return The cache shared by all the Actions of the context
+	 */
+	public static synchronized ResourceCache getInstance(ServletContext ctx)
+	{
+		ResourceCache c = (ResourceCache)ctx.getAttribute(CONTEXT_ATTRIBUTE);
+		if (c==null)
+		{
+			c = new ResourceCache(ctx);
+			ctx.setAttribute(CONTEXT_ATTRIBUTE, c);
+		}
+		return c;
+	}
+
+	/**
+	 * Remove the cache from the context and unregister the MBean
+	 * @param ctx Servlet context
+	 */
+	public static synchronized void release(ServletContext ctx)
+	{
+		ResourceCache c = (ResourceCache)ctx.getAttribute(CONTEXT_ATTRIBUTE);
+		if (c!=null)
+		{
+			ctx.removeAttribute(CONTEXT_ATTRIBUTE);
+			if (c._name!=null)
+			{
+				try
+				{
+					ManagementFactory.getPlatformMBeanServer().unregisterMBean(c._name);
+				}
+				catch (Throwable e) {}
+			}
+		}
+	}
+
+	/**
+	 * Creates the cache reading its configuration from the context
+	 * and tries to register it as a JMX MBean
+	 * @param ctx Servlet context
+	 */
+	@SuppressWarnings("serial")
+	ResourceCache(ServletContext ctx)
+	{
+		_ctx = ctx;
+		_checkInterval = ActionRegistry.getCheckInterval(ctx);
+
+		String size = ctx.getInitParameter("resource-cache-size");
+		if (size!=null && !size.trim().equals(""))
+			_maxSize = Integer.parseInt(size.trim());
+
+		String chars = ctx.getInitParameter("resource-cache-max-chars");
+		if (chars!=null && !chars.trim().equals(""))
+			_maxChars = Long.parseLong(chars.trim());
+
+		_resources = new LinkedHashMap<String, Entry>(64, 0.75f, true)
+		{
+			protected boolean removeEldestEntry(Map.Entry<String, ResourceCache.Entry> eldest)
+			{
+				if (size() > _maxSize)
+				{
+					_chars -= eldest.getValue().data.length();
+					return true;
+				}
+				return false;
+			}
+		};
+
+		try
+		{
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("dinamica:type=ResourceCache,context=" + ObjectName.quote(ctx.getContextPath()));
+			if (!mbs.isRegistered(name))
+			{
+				mbs.registerMBean(this, name);
+				_name = name;
+			}
+		}
+		catch (Throwable e)
+		{
+			ctx.log("[Dinamica] ResourceCache could not be registered as a JMX MBean: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the contents of a text resource, it is read from the
+	 * context only the first time or if the file was modified
+	 * @param path Path of the resource inside the context
+	 * @param encoding Character encoding of the file
+	 * @return A String containing the resource
+	 * @throws Throwable If the resource does not exist
+	 */
+	public String getResource(String path, String encoding) throws Throwable
+	{
+
+		if (_maxSize <= 0)
+			return StringUtil.getResource(_ctx, path, encoding);
+
+		String key = path + "|" + encoding;
+
+		Entry e = null;
+		synchronized (this)
+		{
+			e = _resources.get(key);
+		}
+
+		if (e!=null && !isModified(e, path))
+		{
+			synchronized (this)
+			{
+				_hits++;
+			}
+			return e.data;
+		}
+
+		/* read file - outside the lock, other threads may read it too */
+		e = new Entry();
+		e.lastModified = StringUtil.getResourceLastModified(_ctx, path);
+		e.lastChecked = System.currentTimeMillis();
+		e.data = StringUtil.getResource(_ctx, path, encoding);
+
+		synchronized (this)
+		{
+			_misses++;
+
+			Entry old = _resources.remove(key);
+			if (old!=null)
+				_chars -= old.data.length();
+
+			/* very large files are not cached - the old contents are discarded too */
+			if (e.data.length() > _maxChars)
+				return e.data;
+
+			_resources.put(key, e);
+			_chars += e.data.length();
+
+			/* discard least recently used files until the size is below the limit */
+			Iterator<Entry> i = _resources.values().iterator();
+			while (_chars > _maxChars && i.hasNext())
+			{
+				_chars -= i.next().data.length();
+				i.remove();
+			}
+		}
+
+		return e.data;
+
+	}
+
+	/**
+	 * Check the timestamp of a file according to the check interval
+	 * @param e Cache entry
+	 * @param path Path of the file
+	 * @return TRUE if the file was modified
+	 */
+	boolean isModified(Entry e, String path)
+	{
+		if (_checkInterval < 0)
+			return false;
+
+		long now = System.currentTimeMillis();
+		if (now - e.lastChecked < _checkInterval)
+			return false;
+		e.lastChecked = now;
+
+		return StringUtil.getResourceLastModified(_ctx, path) != e.lastModified;
+	}
+
+	/* MBean interface */
+
+	public synchronized void clear()
+	{
+		_resources.clear();
+		_chars = 0;
+	}
+
+	public synchronized int getSize()
+	{
+		return _resources.size();
+	}
+
+	public synchronized long getChars()
+	{
+		return _chars;
+	}
+
+	public synchronized long getHits()
+	{
+		return _hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return _misses;
+	}
+
+}
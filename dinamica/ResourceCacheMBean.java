@@ -0,0 +1,39 @@
+package dinamica;
+
+/**
+ * JMX management interface of the resource cache
+ * <br>
+ * Creation date: 2010-07-02<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public interface ResourceCacheMBean
+{
+
+	/**
+	 * Number of files in the cache
+	 */
+	public int getSize();
+
+	/**
+	 * Total size of the files in the cache (chars)
+	 */
+	public long getChars();
+
+	/**
+	 * Number of requests served from the cache
+	 */
+	public long getHits();
+
+	/**
+	 * Number of files read from the context
+	 */
+	public long getMisses();
+
+	/**
+	 * Discard all the files, they will be read again on next use
+	 */
+	public void clear();
+
+}
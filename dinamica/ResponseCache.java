@@ -0,0 +1,419 @@
+package dinamica;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * In-memory cache of the pages produced by read-only Actions, like
+ * combos, menus and catalogs. An Action is cached only if its config.xml contains
+ * the element <b>&lt;cache ttl="60" vary="param1,param2,session:attr,user"/&gt;</b>; the
+ * Controller serves GET requests of that Action with the bytes saved by a previous request
+ * during <b>ttl</b> seconds, without executing its validator, transaction and output.
+ * <br><br>
+ * <b>vary</b> lists the request values that identify a page: request parameter names, session attributes
+ * (session:name) and the user ID (user); if it is not defined the complete query string, the user ID and
+ * the user locale (session attribute dinamica.user.locale, used for the labels) are used, so a page with
+ * ${def:user} or labels is never served to another user. All the parameters used by the Action must be listed,
+ * pages that depend on the user must vary on <b>user</b>, multi-language pages on <b>session:dinamica.user.locale</b>,
+ * and pages with other session attributes (${ses:xxx}) must list them too.
+ * Pages with cookies, redirects, errors or a status other than 200 are not cached.
+ * <br><br>
+ * When several requests ask for a page that is not in the cache only the first one executes the Action,
+ * the others wait for it and are served from the cache. The cache is bounded by the context parameters
+ * <b>response-cache-size</b> (maximum number of pages, default 1000, 0 = disabled) and
+ * <b>response-cache-max-bytes</b> (default 16777216); when a limit is reached the least recently used pages
+ * are discarded. The statistics are published as a JMX MBean (dinamica:type=ResponseCache,context=/xxx) and
+ * by the class GetMetrics, the MBean operation clear() discards all the pages.
+ * <br>
+ * Creation date: 2010-07-09<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public class ResponseCache implements ResponseCacheMBean
+{
+
+	/** context attribute used to store the cache */
+	static final String CONTEXT_ATTRIBUTE = "dinamica.response.cache";
+
+	/** default maximum number of pages */
+	static final int DEFAULT_SIZE = 1000;
+
+	/** default maximum total size (bytes) */
+	static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+	/** maximum time a request waits for another request producing the same page (milliseconds) */
+	static final long MAX_WAIT = 30000;
+
+	/** pages indexed by key, in access order */
+	private LinkedHashMap<String, Entry> _pages = null;
+
+	/** pages being produced, indexed by key */
+	private ConcurrentHashMap<String, Loader> _loading = new ConcurrentHashMap<String, Loader>();
+
+	/** limits */
+	private int _maxSize = DEFAULT_SIZE;
+	private long _maxBytes = DEFAULT_MAX_BYTES;
+
+	/** total size of the pages in the cache (bytes) */
+	private long _bytes = 0;
+
+	/** statistics */
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+	private long _expirations = 0;
+
+	/** JMX name -if registered- */
+	private ObjectName _name = null;
+
+	/**
+	 * A cached page
+	 */
+	static class Entry
+	{
+		/** response body */
+		byte body[] = null;
+
+		/** content type and encoding */
+		String contentType = null;
+		String encoding = null;
+
+		/** headers: pairs of name and value */
+		String headers[][] = null;
+
+		/** expiration time (System.currentTimeMillis()) */
+		long expires = 0;
+	}
+
+	/**
+	 * A page being produced by a request
+	 */
+	static class Loader
+	{
+		/** request thread that produces the page */
+		Thread owner = Thread.currentThread();
+
+		/** released when the page is ready or the request fails */
+		CountDownLatch done = new CountDownLatch(1);
+	}
+
+	/**
+	 * Returns the cache of the context, creates it on first use
+	 * @param ctx Servlet context
+	 * @return The cache shared by all the Actions of the context
+	 */
+	public static synchronized ResponseCache getInstance(ServletContext ctx)
+	{
+		ResponseCache c = (ResponseCache)ctx.getAttribute(CONTEXT_ATTRIBUTE);
+		if (c==null)
+		{
+			c = new ResponseCache(ctx);
+			ctx.setAttribute(CONTEXT_ATTRIBUTE, c);
+		}
+		return c;
+	}
+
+	/**
+	 * Remove the cache from the context and unregister the MBean
+	 * @param ctx Servlet context
+	 */
+	public static synchronized void release(ServletContext ctx)
+	{
+		ResponseCache c = (ResponseCache)ctx.getAttribute(CONTEXT_ATTRIBUTE);
+		if (c!=null)
+		{
+			ctx.removeAttribute(CONTEXT_ATTRIBUTE);
+			if (c._name!=null)
+			{
+				try
+				{
+					ManagementFactory.getPlatformMBeanServer().unregisterMBean(c._name);
+				}
+				catch (Throwable e) {}
+			}
+		}
+	}
+
+	/**
+	 * Creates the cache reading its configuration from the context
+	 * and tries to register it as a JMX MBean
+	 * @param ctx Servlet context
+	 */
+	@SuppressWarnings("serial")
+	ResponseCache(ServletContext ctx)
+	{
+
+		String size = ctx.getInitParameter("response-cache-size");
+		if (size!=null && !size.trim().equals(""))
+			_maxSize = Integer.parseInt(size.trim());
+
+		String bytes = ctx.getInitParameter("response-cache-max-bytes");
+		if (bytes!=null && !bytes.trim().equals(""))
+			_maxBytes = Long.parseLong(bytes.trim());
+
+		_pages = new LinkedHashMap<String, Entry>(64, 0.75f, true)
+		{
+			protected boolean removeEldestEntry(Map.Entry<String, ResponseCache.Entry> eldest)
+			{
+				if (size() > _maxSize)
+				{
+					_bytes -= eldest.getValue().body.length;
+					_evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+
+		try
+		{
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("dinamica:type=ResponseCache,context=" + ObjectName.quote(ctx.getContextPath()));
+			if (!mbs.isRegistered(name))
+			{
+				mbs.registerMBean(this, name);
+				_name = name;
+			}
+		}
+		catch (Throwable e)
+		{
+			ctx.log("[Dinamica] ResponseCache could not be registered as a JMX MBean: " + e.getMessage());
+		}
+
+	}
+
+	/**
+	 * Returns TRUE if the cache is enabled (response-cache-size > 0)
+	 */
+	public boolean isEnabled()
+	{
+		return _maxSize > 0;
+	}
+
+	/**
+	 * Returns the key of the page requested, built with the Action path
+	 * and the request values listed in the attribute vary of the element &lt;cache&gt;,
+	 * or the query string, the user ID and the user locale if vary is not defined
+	 * @param req Servlet request
+	 * @param config Action configuration
+	 * @return Key of the page
+	 */
+	public static String getKey(HttpServletRequest req, Config config)
+	{
+
+		StringBuilder b = new StringBuilder(128);
+		b.append(config.path);
+
+		if (config.cacheVary==null)
+		{
+			b.append('?').append(req.getQueryString());
+			b.append('\u0000').append(req.getRemoteUser());
+			HttpSession s = req.getSession(false);
+			if (s!=null)
+				b.append('\u0000').append(s.getAttribute("dinamica.user.locale"));
+			return b.toString();
+		}
+
+		for (int i = 0; i < config.cacheVary.length; i++)
+		{
+			String name = config.cacheVary[i];
+			b.append('\u0000');
+			if (name.equals("user"))
+			{
+				b.append(req.getRemoteUser());
+			}
+			else if (name.startsWith("session:"))
+			{
+				HttpSession s = req.getSession(false);
+				if (s!=null)
+					b.append(s.getAttribute(name.substring(8)));
+			}
+			else
+			{
+				String values[] = req.getParameterValues(name);
+				if (values!=null)
+				{
+					for (int j = 0; j < values.length; j++)
+						b.append(values[j]).append('\u0001');
+				}
+			}
+		}
+		return b.toString();
+
+	}
+
+	/**
+	 * Returns a page from the cache. If the page is being produced by
+	 * another request this method waits for it; if the page is not in the cache
+	 * and no other request is producing it, the current thread becomes responsible
+	 * for producing it and must call done() when finished, with or without success
+	 * @param key Key of the page
+	 * @return The page or null if it is not in the cache
+	 * @throws InterruptedException
+	 */
+	public Entry get(String key) throws InterruptedException
+	{
+
+		Entry e = lookup(key);
+		if (e!=null)
+			return e;
+
+		/* wait if the page is being produced by another request */
+		Loader other = _loading.putIfAbsent(key, new Loader());
+		if (other!=null && other.done.await(MAX_WAIT, TimeUnit.MILLISECONDS))
+		{
+			e = lookup(key);
+			if (e!=null)
+				return e;
+		}
+
+		synchronized (this)
+		{
+			_misses++;
+		}
+		return null;
+
+	}
+
+	/**
+	 * Returns a page if it is in the cache and has not expired
+	 * @param key Key of the page
+	 * @return The page or null
+	 */
+	synchronized Entry lookup(String key)
+	{
+		Entry e = _pages.get(key);
+		if (e==null)
+			return null;
+
+		if (e.expires <= System.currentTimeMillis())
+		{
+			_pages.remove(key);
+			_bytes -= e.body.length;
+			_expirations++;
+			return null;
+		}
+
+		_hits++;
+		return e;
+	}
+
+	/**
+	 * Save a page in the cache
+	 * @param key Key of the page
+	 * @param e Page
+	 * @param ttl Time to live (seconds)
+	 */
+	public void put(String key, Entry e, int ttl)
+	{
+
+		/* very large pages are not cached */
+		if (ttl <= 0 || e.body.length > _maxBytes)
+			return;
+
+		e.expires = System.currentTimeMillis() + ttl * 1000L;
+
+		synchronized (this)
+		{
+			Entry old = _pages.put(key, e);
+			if (old!=null)
+				_bytes -= old.body.length;
+			_bytes += e.body.length;
+
+			/* discard least recently used pages until the size is below the limit */
+			Iterator<Entry> i = _pages.values().iterator();
+			while (_bytes > _maxBytes && i.hasNext())
+			{
+				_bytes -= i.next().body.length;
+				i.remove();
+				_evictions++;
+			}
+		}
+
+	}
+
+	/**
+	 * Release the requests waiting for a page produced by the current thread
+	 * @param key Key of the page
+	 */
+	public void done(String key)
+	{
+		Loader l = _loading.get(key);
+		if (l!=null && l.owner==Thread.currentThread())
+		{
+			_loading.remove(key, l);
+			l.done.countDown();
+		}
+	}
+
+	/**
+	 * Send a cached page
+	 * @param e Page
+	 * @param res Servlet response
+	 * @throws IOException
+	 */
+	public void write(Entry e, HttpServletResponse res) throws IOException
+	{
+		if (e.contentType!=null)
+			res.setContentType(e.contentType);
+		if (e.encoding!=null)
+			res.setCharacterEncoding(e.encoding);
+		for (int i = 0; i < e.headers.length; i++)
+			res.addHeader(e.headers[i][0], e.headers[i][1]);
+		res.setContentLength(e.body.length);
+		res.getOutputStream().write(e.body);
+	}
+
+	/* MBean interface */
+
+	public synchronized int getSize()
+	{
+		return _pages.size();
+	}
+
+	public synchronized long getBytes()
+	{
+		return _bytes;
+	}
+
+	public synchronized long getHits()
+	{
+		return _hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return _misses;
+	}
+
+	public synchronized long getEvictions()
+	{
+		return _evictions;
+	}
+
+	public synchronized long getExpirations()
+	{
+		return _expirations;
+	}
+
+	public synchronized void clear()
+	{
+		_pages.clear();
+		_bytes = 0;
+	}
+
+}
@@ -0,0 +1,49 @@
+package dinamica;
+
+/**
+ * JMX management interface of the response cache
+ * <br>
+ * Creation date: 2010-07-09<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public interface ResponseCacheMBean
+{
+
+	/**
+	 * Number of pages in the cache
+	 */
+	public int getSize();
+
+	/**
+	 * Total size of the pages in the cache (bytes)
+	 */
+	public long getBytes();
+
+	/**
+	 * Number of requests served from the cache
+	 */
+	public long getHits();
+
+	/**
+	 * Number of requests that had to execute the Action
+	 */
+	public long getMisses();
+
+	/**
+	 * Number of pages discarded to keep the cache below its limits
+	 */
+	public long getEvictions();
+
+	/**
+	 * Number of pages discarded because their time to live expired
+	 */
+	public long getExpirations();
+
+	/**
+	 * Discard all the pages
+	 */
+	public void clear();
+
+}
@@ -0,0 +1,223 @@
+package dinamica;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper used by the Controller to keep a copy of the page
+ * produced by an Action with a response cache (see ResponseCache). The headers
+ * are passed to the response and remembered, the body is written to a buffer
+ * and sent by finish(). Responses with cookies, redirects, errors or a status
+ * other than 200 are not cacheable.
+ * <br>
+ * Creation date: 2010-07-09<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+class ResponseCapture extends HttpServletResponseWrapper
+{
+
+	/** response body */
+	private ByteArrayOutputStream _body = new ByteArrayOutputStream(8192);
+
+	/** headers set by the Action: pairs of name and value */
+	private ArrayList<String[]> _headers = new ArrayList<String[]>();
+
+	/** content type and encoding set by the Action */
+	private String _contentType = null;
+	private String _encoding = null;
+
+	/** writer or stream returned to the Action */
+	private PrintWriter _writer = null;
+	private ServletOutputStream _stream = null;
+
+	/** FALSE if the response cannot be cached */
+	private boolean _cacheable = true;
+
+	/** TRUE if the response was sent by sendError() or sendRedirect() */
+	private boolean _sent = false;
+
+	/**
+	 * Wrap a response
+	 * @param res Servlet response
+	 */
+	ResponseCapture(HttpServletResponse res)
+	{
+		super(res);
+	}
+
+	public ServletOutputStream getOutputStream() throws IOException
+	{
+		if (_writer!=null)
+			throw new IllegalStateException("getWriter() has already been called for this response");
+		if (_stream==null)
+		{
+			_stream = new ServletOutputStream()
+			{
+				public void write(int b) throws IOException
+				{
+					_body.write(b);
+				}
+
+				public void write(byte b[], int off, int len) throws IOException
+				{
+					_body.write(b, off, len);
+				}
+			};
+		}
+		return _stream;
+	}
+
+	public PrintWriter getWriter() throws IOException
+	{
+		if (_stream!=null)
+			throw new IllegalStateException("getOutputStream() has already been called for this response");
+		if (_writer==null)
+			_writer = new PrintWriter(new OutputStreamWriter(_body, getCharacterEncoding()));
+		return _writer;
+	}
+
+	public void setContentLength(int len)
+	{
+		/* set by finish() */
+	}
+
+	public void flushBuffer() throws IOException
+	{
+		/* the body is sent by finish() */
+	}
+
+	public void setContentType(String type)
+	{
+		super.setContentType(type);
+		_contentType = type;
+	}
+
+	public void setCharacterEncoding(String charset)
+	{
+		super.setCharacterEncoding(charset);
+		_encoding = charset;
+	}
+
+	public void setHeader(String name, String value)
+	{
+		super.setHeader(name, value);
+		for (int i = _headers.size() - 1; i >= 0; i--)
+		{
+			if (_headers.get(i)[0].equalsIgnoreCase(name))
+				_headers.remove(i);
+		}
+		_headers.add(new String[] {name, value});
+	}
+
+	public void addHeader(String name, String value)
+	{
+		super.addHeader(name, value);
+		_headers.add(new String[] {name, value});
+	}
+
+	public void setDateHeader(String name, long date)
+	{
+		super.setDateHeader(name, date);
+		_cacheable = false;
+	}
+
+	public void addDateHeader(String name, long date)
+	{
+		super.addDateHeader(name, date);
+		_cacheable = false;
+	}
+
+	public void setIntHeader(String name, int value)
+	{
+		setHeader(name, String.valueOf(value));
+	}
+
+	public void addIntHeader(String name, int value)
+	{
+		addHeader(name, String.valueOf(value));
+	}
+
+	public void addCookie(Cookie cookie)
+	{
+		super.addCookie(cookie);
+		_cacheable = false;
+	}
+
+	public void setStatus(int sc)
+	{
+		super.setStatus(sc);
+		if (sc!=SC_OK)
+			_cacheable = false;
+	}
+
+	public void sendError(int sc) throws IOException
+	{
+		_cacheable = false;
+		_sent = true;
+		super.sendError(sc);
+	}
+
+	public void sendError(int sc, String msg) throws IOException
+	{
+		_cacheable = false;
+		_sent = true;
+		super.sendError(sc, msg);
+	}
+
+	public void sendRedirect(String location) throws IOException
+	{
+		_cacheable = false;
+		_sent = true;
+		super.sendRedirect(location);
+	}
+
+	/**
+	 * Returns TRUE if the page can be saved in the response cache
+	 */
+	boolean isCacheable()
+	{
+		return _cacheable && !_sent;
+	}
+
+	/**
+	 * Send the body to the response
+	 * @return The cache entry with the page, or null if it is not cacheable
+	 * @throws IOException
+	 */
+	ResponseCache.Entry finish() throws IOException
+	{
+
+		if (_writer!=null)
+			_writer.flush();
+
+		if (_sent)
+			return null;
+
+		byte body[] = _body.toByteArray();
+		HttpServletResponse res = (HttpServletResponse)getResponse();
+		res.setContentLength(body.length);
+		res.getOutputStream().write(body);
+
+		if (!_cacheable)
+			return null;
+
+		ResponseCache.Entry e = new ResponseCache.Entry();
+		e.body = body;
+		e.contentType = _contentType;
+		e.encoding = _encoding;
+		e.headers = _headers.toArray(new String[_headers.size()][]);
+		return e;
+
+	}
+
+}
@@ -0,0 +1,111 @@
+package dinamica;
+
+import java.util.ArrayList;
+
+/**
+ * Sort criteria of one column, used by Recordset.sort(SortKey[]).
+ * Besides the direction it defines where the null values go: first (default)
+ * or last, independently of the direction.
+ * <br><br>
+ * parse() builds the criteria from a SQL-like order expression, for example:
+ * <b>"lname, fname desc, hire_date desc nulls last"</b>.
+ * <br>
+ * Creation date: 2010-07-13<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public class SortKey
+{
+
+	/** column name */
+	private String _colName = null;
+
+	/** TRUE for descending order */
+	private boolean _descending = false;
+
+	/** TRUE if null values go before the others */
+	private boolean _nullsFirst = true;
+
+	/**
+	 * Ascending order, null values first
+	 * @param colName Column name
+	 */
+	public SortKey(String colName)
+	{
+		this(colName, false, true);
+	}
+
+	/**
+	 * @param colName Column name
+	 * @param descending TRUE for descending order
+	 * @param nullsFirst TRUE if null values go before the others, FALSE if they go after
+	 */
+	public SortKey(String colName, boolean descending, boolean nullsFirst)
+	{
+		_colName = colName;
+		_descending = descending;
+		_nullsFirst = nullsFirst;
+	}
+
+	public String getColName()
+	{
+		return _colName;
+	}
+
+	public boolean isDescending()
+	{
+		return _descending;
+	}
+
+	public boolean isNullsFirst()
+	{
+		return _nullsFirst;
+	}
+
+	/**
+	 * Parse an order expression: a comma separated list of
+	 * <b>column [asc|desc] [nulls first|nulls last]</b>
+	 * @param orderBy Order expression
+	 * @return Sort criteria, in order of precedence
+	 * @throws Throwable If the expression is not valid
+	 */
+	public static SortKey[] parse(String orderBy) throws Throwable
+	{
+
+		ArrayList<SortKey> keys = new ArrayList<SortKey>();
+
+		String items[] = StringUtil.split(orderBy, ",");
+		for (int i = 0; i < items.length; i++)
+		{
+			String words[] = items[i].trim().split("\\s+");
+			if (words[0].equals(""))
+				throw new Throwable("Invalid sort expression: " + orderBy);
+
+			boolean desc = false;
+			boolean nullsFirst = true;
+			int j = 1;
+			if (j < words.length && (words[j].equalsIgnoreCase("asc") || words[j].equalsIgnoreCase("desc")))
+			{
+				desc = words[j].equalsIgnoreCase("desc");
+				j++;
+			}
+			if (j + 1 < words.length && words[j].equalsIgnoreCase("nulls"))
+			{
+				if (words[j + 1].equalsIgnoreCase("last"))
+					nullsFirst = false;
+				else if (!words[j + 1].equalsIgnoreCase("first"))
+					throw new Throwable("Invalid sort expression: " + orderBy);
+				j = j + 2;
+			}
+			if (j < words.length)
+				throw new Throwable("Invalid sort expression: " + orderBy);
+
+			keys.add(new SortKey(words[0], desc, nullsFirst));
+		}
+
+		return keys.toArray(new SortKey[keys.size()]);
+
+	}
+
+}
@@ -5,6 +5,9 @@ package dinamica;
  * parameters: rs and colname. rs is the ID of the session attribute
  * that contains the recordset to be sorted, and colname is the column
  * to use for the sorting.<br>
+ * Instead of colname the request may include the parameter orderby, a list
+ * of columns like "lname, fname desc, hire_date desc nulls last" (see SortKey);
+ * strings are compared using the locale of the user session, if any.<br>
  * 2007-06-19 <br>
  * @author martin.cordova@gmail.com
  */
@@ -22,7 +25,17 @@ public class SortRS extends GenericTransaction
 		if (rs==null)
 			throw new Throwable("Recordset not found in session attribute: " + rsName);
 		
-		rs.sort(getRequest().getParameter("colname"));
+		//patch 2010-07-13 - multi-column sort
+		String orderBy = getRequest().getParameter("orderby");
+		if (orderBy!=null && !orderBy.trim().equals(""))
+		{
+			java.util.Locale locale = (java.util.Locale)getSession().getAttribute("dinamica.user.locale");
+			rs.sort(SortKey.parse(orderBy), locale);
+		}
+		else
+		{
+			rs.sort(getRequest().getParameter("colname"));
+		}
 		
 		return 0;
 	}
@@ -0,0 +1,129 @@
+package dinamica;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+
+/**
+ * SQL command with ? placeholders and the values to bind to them,
+ * created by TemplateEngine.getSqlStatement() from a SQL template. Field
+ * markers ${fld:xxx} are converted into placeholders instead of being replaced
+ * by literal values, so the SQL text is the same for every request and the
+ * database can reuse the execution plan. Values are bound using the data type
+ * of the recordset field (RecordsetField.getType()).
+ * <br>
+ * Creation date: 2010-06-28<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public class SqlStatement
+{
+
+	/** SQL with ? placeholders */
+	private String _sql = null;
+
+	/** values to bind, in placeholder order */
+	private ArrayList<Object> _values = new ArrayList<Object>();
+
+	/** JDBC type of each value */
+	private ArrayList<Integer> _types = new ArrayList<Integer>();
+
+	/**
+	 * Create a statement without parameters
+	 * @param sql SQL command
+	 */
+	public SqlStatement(String sql)
+	{
+		_sql = sql;
+	}
+
+	/**
+	 * Returns the SQL command with ? placeholders
+	 */
+	public String getSql()
+	{
+		return _sql;
+	}
+
+	/**
+	 * Set the SQL command
+	 * @param sql SQL command with ? placeholders
+	 */
+	void setSql(String sql)
+	{
+		_sql = sql;
+	}
+
+	/**
+	 * Add a parameter value
+	 * @param value Value or null
+	 * @param sqlType JDBC data type (java.sql.Types)
+	 */
+	public void addParameter(Object value, int sqlType)
+	{
+		_values.add(value);
+		_types.add(Integer.valueOf(sqlType));
+	}
+
+	/**
+	 * Returns the number of parameters
+	 */
+	public int getParameterCount()
+	{
+		return _values.size();
+	}
+
+	/**
+	 * Bind the parameter values to a prepared statement
+	 * @param s Prepared statement created with getSql()
+	 * @throws SQLException
+	 */
+	public void setParameters(PreparedStatement s) throws SQLException
+	{
+		for (int i = 0; i < _values.size(); i++)
+		{
+			Object value = _values.get(i);
+			int type = _types.get(i).intValue();
+			if (value==null)
+			{
+				s.setNull(i+1, type);
+			}
+			else
+			{
+				switch (type)
+				{
+					case Types.DATE:
+						value = new java.sql.Date(((java.util.Date)value).getTime());
+						break;
+
+					case Types.TIMESTAMP:
+						value = new java.sql.Timestamp(((java.util.Date)value).getTime());
+						break;
+				}
+				s.setObject(i+1, value, type);
+			}
+		}
+	}
+
+	/**
+	 * Returns the SQL command and the parameter values - for logs and error messages
+	 */
+	public String toString()
+	{
+		if (_values.size()==0)
+			return _sql;
+
+		StringBuilder b = new StringBuilder(_sql);
+		b.append(" ; parameters: ");
+		for (int i = 0; i < _values.size(); i++)
+		{
+			if (i > 0)
+				b.append(", ");
+			b.append(_values.get(i));
+		}
+		return b.toString();
+	}
+
+}
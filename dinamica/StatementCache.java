@@ -0,0 +1,222 @@
+package dinamica;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of PreparedStatements of one database connection, indexed
+ * by SQL text. The Controller opens a cache for the connection of the
+ * Action when it is obtained from the pool, and closes it -closing all its
+ * statements- before returning the connection to the pool; during the request
+ * every Db object created for that connection reuses the statements already
+ * prepared, so a command executed once per record (GenericTableManager) or
+ * repeated by several queries is prepared only once.
+ * <br><br>
+ * The maximum number of statements per connection is set with the context parameter
+ * <b>statement-cache-size</b> (default 20, 0 = disabled); when the limit is reached the
+ * least recently used statement is closed. Reuse across requests depends on the
+ * statement pooling of the datasource (i.e. poolPreparedStatements in DBCP), because the
+ * statements of a pooled connection are no longer valid once it is returned to the pool.
+ * <br><br>
+ * A connection must be used by one thread at a time, like any JDBC connection.
+ * Hit/miss counters are kept per cache and for all the caches of the JVM.
+ * <br>
+ * Creation date: 2010-06-29<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public class StatementCache
+{
+
+	/** default maximum number of statements per connection */
+	static final int DEFAULT_SIZE = 20;
+
+	/** open caches indexed by connection */
+	private static Map<Connection, StatementCache> _caches = Collections.synchronizedMap(new WeakHashMap<Connection, StatementCache>());
+
+	/** statistics of all the caches */
+	private static AtomicLong _totalHits = new AtomicLong();
+	private static AtomicLong _totalMisses = new AtomicLong();
+
+	/** statements indexed by SQL, in access order */
+	private LinkedHashMap<String, PreparedStatement> _statements = null;
+
+	/** statistics of this cache */
+	private long _hits = 0;
+	private long _misses = 0;
+
+	/**
+	 * Open a cache for a connection
+	 * @param conn Database connection
+	 * @param size Maximum number of statements, if zero or negative no cache is created
+	 * @return The new cache or null if size is not greater than zero
+	 */
+	public static StatementCache open(Connection conn, int size)
+	{
+		if (conn==null || size <= 0)
+			return null;
+		StatementCache c = new StatementCache(size);
+		_caches.put(conn, c);
+		return c;
+	}
+
+	/**
+	 * Returns the cache opened for a connection
+	 * @param conn Database connection
+	 * @return The cache or null if the connection has no cache
+	 */
+	public static StatementCache get(Connection conn)
+	{
+		if (conn==null)
+			return null;
+		return _caches.get(conn);
+	}
+
+	/**
+	 * Close the cache of a connection and all its statements;
+	 * must be called before the connection is closed
+	 * @param conn Database connection
+	 */
+	public static void close(Connection conn)
+	{
+		if (conn==null)
+			return;
+		StatementCache c = _caches.remove(conn);
+		if (c!=null)
+			c.clear();
+	}
+
+	/**
+	 * Returns the number of statements reused by all the caches
+	 */
+	public static long getTotalHits()
+	{
+		return _totalHits.get();
+	}
+
+	/**
+	 * Returns the number of statements prepared by all the caches
+	 */
+	public static long getTotalMisses()
+	{
+		return _totalMisses.get();
+	}
+
+	/**
+	 * Create an empty cache
+	 * @param size Maximum number of statements
+	 */
+	@SuppressWarnings("serial")
+	StatementCache(final int size)
+	{
+		_statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true)
+		{
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+			{
+				if (size() > size)
+				{
+					closeStatement(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns a prepared statement for the SQL command, reusing the one
+	 * in the cache if available. The statement must not be closed by the caller.
+	 * @param conn Connection of this cache
+	 * @param sql SQL command
+	 * @return Prepared statement with its parameters cleared
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepare(Connection conn, String sql) throws SQLException
+	{
+		PreparedStatement s = _statements.get(sql);
+		if (s!=null)
+		{
+			_hits++;
+			_totalHits.incrementAndGet();
+			s.clearParameters();
+			return s;
+		}
+
+		_misses++;
+		_totalMisses.incrementAndGet();
+		s = conn.prepareStatement(sql);
+		_statements.put(sql, s);
+		return s;
+	}
+
+	/**
+	 * Discard a statement that may be in an invalid state after an error;
+	 * the statement is closed and removed from the cache
+	 * @param sql SQL command used to prepare the statement
+	 */
+	public void remove(String sql)
+	{
+		PreparedStatement s = _statements.remove(sql);
+		if (s!=null)
+			closeStatement(s);
+	}
+
+	/**
+	 * Close all the statements of this cache
+	 */
+	public void clear()
+	{
+		Iterator<PreparedStatement> i = _statements.values().iterator();
+		while (i.hasNext())
+			closeStatement(i.next());
+		_statements.clear();
+	}
+
+	/**
+	 * Returns the number of statements reused by this cache
+	 */
+	public long getHits()
+	{
+		return _hits;
+	}
+
+	/**
+	 * Returns the number of statements prepared by this cache
+	 */
+	public long getMisses()
+	{
+		return _misses;
+	}
+
+	/**
+	 * Returns the number of statements in this cache
+	 */
+	public int getSize()
+	{
+		return _statements.size();
+	}
+
+	/**
+	 * Close a statement ignoring errors, the connection may be already closed
+	 * @param s Statement
+	 */
+	static void closeStatement(PreparedStatement s)
+	{
+		try
+		{
+			s.close();
+		}
+		catch (SQLException e)
+		{
+		}
+	}
+
+}
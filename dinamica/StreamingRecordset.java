@@ -0,0 +1,376 @@
+package dinamica;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+
+/**
+ * Forward-only Recordset that reads its records from an open ResultSet
+ * while they are consumed, instead of loading the whole query result in memory.
+ * Only the current record and the next one (read ahead to detect the
+ * end of the data) are kept in memory, so a single pass over a very large result
+ * -an export to Excel or PDF, a print mode="table"- runs in constant memory.
+ * <br><br>
+ * It is created by Db.getStream() when a [recordset] element in config.xml
+ * declares streaming="true". The cursor remains open until the last record is read
+ * or close() is called; the Controller keeps the database connection open until
+ * the Output finishes and then closes the cursor and the connection.
+ * <br><br>
+ * getRecordCount() returns the number of records read so far (including the one
+ * read ahead), so it is zero only if the query returned no records. For the same reason
+ * the metadata published by GenericTransaction (ID.metadata: recordcount, pagecount, etc.) is
+ * not valid while the recordset is streaming: GenericOutput loads the recordset in memory
+ * if the metadata is printed, other Outputs and the Transaction must not use it. Any operation
+ * that needs random access (sort, paging, findRecord, indexes, last, getSUM, etc.) loads the
+ * rest of the records in memory first, and from then on this object behaves
+ * like a normal Recordset; this is only possible if no record has been consumed yet,
+ * otherwise an exception is thrown. The same happens if the recordset is serialized.
+ * <br>
+ * Creation date: 2010-06-24<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public class StreamingRecordset extends Recordset
+{
+
+	private static final long serialVersionUID = 1L;
+
+	/** open cursor */
+	private transient ResultSet _rs = null;
+	private transient Statement _stmt = null;
+
+	/** column position of each resultset column */
+	private int _target[] = null;
+
+	/** true until the records are loaded in memory */
+	private boolean _streaming = true;
+
+	/** position of the current record (0...N-1) */
+	private int _position = -1;
+
+	/** number of records read from the resultset */
+	private int _read = 0;
+
+	/**
+	 * Create a streaming recordset, the cursor is closed
+	 * by this object when the last record has been read
+	 * @param stmt Statement that created the resultset
+	 * @param rs Resultset positioned before the first record
+	 * @throws Throwable
+	 */
+	StreamingRecordset(Statement stmt, ResultSet rs) throws Throwable
+	{
+		_stmt = stmt;
+		_rs = rs;
+		_target = loadStructure(rs);
+		fetch();
+	}
+
+	/**
+	 * Read the next row of the resultset at the end of
+	 * the records in memory, close the cursor if there are no more rows
+	 * @throws Throwable
+	 */
+	private void fetch() throws Throwable
+	{
+		if (_rs!=null && _rs.next())
+		{
+			loadRow(_rs, _target);
+			_read++;
+		}
+		else
+		{
+			close();
+		}
+	}
+
+	/**
+	 * Close the cursor, it is safe to call this method more than once
+	 * @throws Throwable
+	 */
+	public void close() throws Throwable
+	{
+		try
+		{
+			if( _rs != null ) _rs.close();
+		}
+		finally
+		{
+			_rs = null;
+			try
+			{
+				if( _stmt != null ) _stmt.close();
+			}
+			finally
+			{
+				_stmt = null;
+			}
+		}
+	}
+
+	/**
+	 * Returns TRUE while the records are read from the database
+	 * as they are consumed, FALSE after they were loaded in memory
+	 */
+	public boolean isStreaming()
+	{
+		return _streaming;
+	}
+
+	/**
+	 * Load all the records in memory, after this call the object
+	 * behaves like a normal Recordset
+	 * @throws Throwable If a record has already been consumed
+	 */
+	public void load() throws Throwable
+	{
+
+		if (!_streaming)
+			return;
+
+		if (_position >= 0)
+			throw new Throwable("Recordset [" + getID() + "] is a forward-only streaming recordset and " + (_position + 1) + " record(s) were already read; it cannot be loaded in memory.");
+
+		try
+		{
+			while (_rs!=null && _rs.next())
+			{
+				loadRow(_rs, _target);
+				_read++;
+			}
+		}
+		finally
+		{
+			_streaming = false;
+			close();
+		}
+
+	}
+
+	/**
+	 * Load the records if the recordset is still streaming,
+	 * used by the operations that need random access
+	 */
+	private void loadForUpdate()
+	{
+		try
+		{
+			load();
+		}
+		catch (Throwable e)
+		{
+			throw new RuntimeException(e.getMessage(), e);
+		}
+	}
+
+	public boolean next()
+	{
+
+		if (!_streaming)
+			return super.next();
+
+		try
+		{
+
+			/* in memory: [current record] [next record] */
+			int buffered = super.getRecordCount();
+			if (buffered==0 || (_position >= 0 && buffered==1))
+			{
+				close();
+				return false;
+			}
+
+			/* discard the current record, the next one becomes current */
+			if (_position >= 0)
+				super.delete(0);
+			super.setRecordNumber(0);
+			_position++;
+
+			/* read ahead */
+			fetch();
+			return true;
+
+		}
+		catch (Throwable e)
+		{
+			try { close(); } catch (Throwable e1) {}
+			throw new RuntimeException("Error reading streaming recordset [" + getID() + "]: " + e.getMessage(), e);
+		}
+
+	}
+
+	public void top()
+	{
+		if (!_streaming)
+			super.top();
+		else if (_position >= 0)
+			throw new RuntimeException("Recordset [" + getID() + "] is a forward-only streaming recordset; it cannot be read again.");
+	}
+
+	public void first() throws Throwable
+	{
+		if (!_streaming)
+			super.first();
+		else if (_position < 0)
+		{
+			if (!next())
+				super.first(); //empty - let the Recordset report the error
+		}
+		else if (_position > 0)
+			throw new Throwable("Recordset [" + getID() + "] is a forward-only streaming recordset; it cannot be moved to the first record.");
+	}
+
+	public int getRecordNumber()
+	{
+		if (_streaming)
+			return _position;
+		else
+			return super.getRecordNumber();
+	}
+
+	public int getRecordCount()
+	{
+		if (_streaming)
+			return _read;
+		else
+			return super.getRecordCount();
+	}
+
+	public void setRecordNumber(int recNum) throws RecordsetException
+	{
+		if (_streaming && recNum==_position)
+			return;
+
+		try
+		{
+			load();
+		}
+		catch (Throwable e)
+		{
+			throw new RecordsetException(e.getMessage());
+		}
+		super.setRecordNumber(recNum);
+	}
+
+	public void last() throws Throwable
+	{
+		load();
+		super.last();
+	}
+
+	public void delete(int recNum) throws Throwable
+	{
+		load();
+		super.delete(recNum);
+	}
+
+	public void addNew()
+	{
+		loadForUpdate();
+		super.addNew();
+	}
+
+	@Deprecated
+	public ArrayList<Record> getData()
+	{
+		loadForUpdate();
+		return super.getData();
+	}
+
+	public void sort(String col) throws Throwable
+	{
+		load();
+		super.sort(col);
+	}
+
+	public void sort(SortKey keys[], java.util.Locale locale) throws Throwable
+	{
+		load();
+		super.sort(keys, locale);
+	}
+
+	public void setPageSize(int p) throws Throwable
+	{
+		load();
+		super.setPageSize(p);
+	}
+
+	public Recordset getPage(int p) throws Throwable
+	{
+		load();
+		return super.getPage(p);
+	}
+
+	public int findRecord(String colName, int value) throws Throwable
+	{
+		load();
+		return super.findRecord(colName, value);
+	}
+
+	public int findRecord(String colName, String value) throws Throwable
+	{
+		load();
+		return super.findRecord(colName, value);
+	}
+
+	public int findRecord(String colName, java.util.Date value) throws Throwable
+	{
+		load();
+		return super.findRecord(colName, value);
+	}
+
+	public void createIndex(String colName) throws Throwable
+	{
+		load();
+		super.createIndex(colName);
+	}
+
+	public void createSortedIndex(String colName) throws Throwable
+	{
+		load();
+		super.createSortedIndex(colName);
+	}
+
+	public int lookup(String colName, Object value) throws Throwable
+	{
+		load();
+		return super.lookup(colName, value);
+	}
+
+	public int[] lookupAll(String colName, Object value) throws Throwable
+	{
+		load();
+		return super.lookupAll(colName, value);
+	}
+
+	public int[] findRange(String colName, Object from, Object to) throws Throwable
+	{
+		load();
+		return super.findRange(colName, from, to);
+	}
+
+	public double getSUM(String colName) throws Throwable
+	{
+		load();
+		return super.getSUM(colName);
+	}
+
+	/**
+	 * A streaming recordset cannot be serialized with an open cursor,
+	 * the records are loaded in memory before it is written
+	 */
+	protected Object writeReplace() throws java.io.ObjectStreamException
+	{
+		try
+		{
+			load();
+		}
+		catch (Throwable e)
+		{
+			throw new java.io.NotSerializableException(e.getMessage());
+		}
+		return this;
+	}
+
+}
@@ -2,16 +2,15 @@ package dinamica;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.text.DecimalFormat;
+import java.text.Format;
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Locale;
 import java.net.*;
 
@@ -31,6 +30,85 @@ import java.net.*;
 public class StringUtil
 {
 
+	/** maximum number of formatters kept by a thread */
+	static final int MAX_FORMATS = 64;
+
+	/** 
+	 * formatters of the current thread indexed by kind, pattern and locale;
+	 * SimpleDateFormat and DecimalFormat are not thread safe, so each thread
+	 * reuses its own instances instead of creating new ones on every call
+	 */
+	private static ThreadLocal<HashMap<String, Format>> _formats = new ThreadLocal<HashMap<String, Format>>()
+	{
+		protected HashMap<String, Format> initialValue()
+		{
+			return new HashMap<String, Format>();
+		}
+	};
+
+	/**
+	 * Returns a date formatter of the current thread
+	 * @param pattern Date mask
+	 * @param loc Locale, if null the default locale is used
+	 * @param lenient Lenient parsing (only for parsing)
+	 * @return Formatter, it must not be modified or shared with other threads
+	 */
+	static SimpleDateFormat getDateFormat(String pattern, Locale loc, boolean lenient)
+	{
+		String key = (lenient ? "d|" : "p|") + (loc==null ? Locale.getDefault() + "|" : loc + "||") + pattern;
+		
+		HashMap<String, Format> formats = _formats.get();
+		SimpleDateFormat f = (SimpleDateFormat)formats.get(key);
+		if (f==null)
+		{
+			if (loc==null)
+				f = new SimpleDateFormat(pattern);
+			else
+				f = new SimpleDateFormat(pattern, loc);
+			f.setLenient(lenient);
+			putFormat(formats, key, f);
+		}
+		return f;
+	}
+
+	/**
+	 * Returns a number formatter of the current thread
+	 * @param pattern Number mask
+	 * @param loc Locale, if null the default locale is used
+	 * @return Formatter, it must not be modified or shared with other threads
+	 */
+	static DecimalFormat getNumberFormat(String pattern, Locale loc)
+	{
+		String key = "n|" + (loc==null ? Locale.getDefault() + "|" : loc + "||") + pattern;
+		
+		HashMap<String, Format> formats = _formats.get();
+		DecimalFormat f = (DecimalFormat)formats.get(key);
+		if (f==null)
+		{
+			if (loc==null)
+				f = (DecimalFormat) NumberFormat.getInstance();
+			else
+				f = (DecimalFormat) NumberFormat.getInstance(loc);
+			f.applyPattern(pattern);
+			putFormat(formats, key, f);
+		}
+		return f;
+	}
+
+	/**
+	 * Store a formatter in the cache of the current thread, the
+	 * cache is emptied if it reaches the limit (patterns built at runtime)
+	 * @param formats Formatters of the current thread
+	 * @param key Kind, locale and pattern
+	 * @param f Formatter
+	 */
+	private static void putFormat(HashMap<String, Format> formats, String key, Format f)
+	{
+		if (formats.size() >= MAX_FORMATS)
+			formats.clear();
+		formats.put(key, f);
+	}
+
 	/**
 	 * Replace ALL occurrences of [old value] with [new value]<br>
 	 * This method was written by Carlos Pineda.
@@ -72,9 +150,7 @@ public class StringUtil
 	 */
 	public static String formatDate(java.util.Date d, String format) throws Throwable
 	{
-		SimpleDateFormat f = new SimpleDateFormat();
-		f.applyPattern(format);
-		return f.format(d);
+		return getDateFormat(format, null, true).format(d);
 	}
 	
 	/**
@@ -87,8 +163,7 @@ public class StringUtil
 	 */
 	public static String formatDate(java.util.Date d, String format, Locale loc) throws Throwable
 	{
-		SimpleDateFormat f = new SimpleDateFormat(format, loc);
-		return f.format(d);
+		return getDateFormat(format, loc, true).format(d);
 	}	
 
 	/**
@@ -107,9 +182,7 @@ public class StringUtil
 	 */
 	public static java.util.Date getDateObject(String dateValue, String dateFormat) throws Throwable
 	{
-		SimpleDateFormat x = new SimpleDateFormat(dateFormat);
-		x.setLenient(false);
-		return x.parse(dateValue);
+		return getDateFormat(dateFormat, null, false).parse(dateValue);
 	}
 
 	/**
@@ -121,9 +194,7 @@ public class StringUtil
 	 */
 	public static String formatNumber(Object value, String numberFormat) throws Throwable
 	{
-		DecimalFormat fmt = (DecimalFormat) NumberFormat.getInstance();
-		fmt.applyPattern(numberFormat);	
-		return fmt.format(value);
+		return getNumberFormat(numberFormat, null).format(value);
 	}
 
 	/**
@@ -136,9 +207,7 @@ public class StringUtil
 	 */
 	public static String formatNumber(Object value, String numberFormat, Locale loc) throws Throwable
 	{
-		DecimalFormat fmt = (DecimalFormat) NumberFormat.getInstance(loc);
-		fmt.applyPattern(numberFormat);	
-		return fmt.format(value);
+		return getNumberFormat(numberFormat, loc).format(value);
 	}
 
 	/**
@@ -174,44 +243,15 @@ public class StringUtil
 
 	/**
 	 * Append message to file, this method is usually 
-	 * used to save log messages
+	 * used to save log messages. The message is written
+	 * asynchronously by the LogWriter, this method does not block.
 	 * @param path File name
 	 * @param message String to append to file
 	 */
-	public static synchronized void saveMessage(String path, String message) 
+	public static void saveMessage(String path, String message) 
 	{
-
-		FileOutputStream fos = null;
-		PrintWriter pw = null;
-
-		try {
-			fos = new FileOutputStream(new File(path), true);
-			pw = new PrintWriter(fos, false);
-			pw.println(message);
-		}
-		catch (IOException e) {
-			
-			try
-			{
-				String d = StringUtil.formatDate(new java.util.Date(), "yyyy-MM-dd HH:mm:ss");
-				System.err.println("ERROR [dinamica.StringUtil.saveMessage@" + d + "]: " + e.getMessage());
-			}
-			catch (Throwable e1)
-			{
-			}
-		}
-		finally {
-			
-			try {
-				if (pw != null)
-					pw.close();
-				if (fos != null)
-					fos.close();
-			}
-			catch (IOException e) {
-			}
-			
-		}
+		//patch 2010-07-05 - asynchronous batched writer
+		LogWriter.getInstance().write(path, message);
 	}
 
 	/**
@@ -349,6 +389,42 @@ public class StringUtil
         
 	}
 
+	/**
+	 * Returns the last-modified timestamp of a resource stored into the
+	 * Web Application context paths. Used by the caches to detect
+	 * changes in config.xml, validator.xml and other resources
+	 * without reading them again.
+	 * @param ctx Servlet context
+	 * @param path Path to the resource
+	 * @return Timestamp in milliseconds or 0 if it cannot be determined
+	 */
+	public static long getResourceLastModified(javax.servlet.ServletContext ctx, String path)
+	{
+		try
+		{
+			/* exploded war - cheapest way */
+			String realPath = ctx.getRealPath(path);
+			if (realPath!=null)
+			{
+				File f = new File(realPath);
+				if (f.exists())
+					return f.lastModified();
+			}
+
+			/* packed war or container specific URL */
+			URL url = ctx.getResource(path);
+			if (url!=null)
+			{
+				URLConnection c = url.openConnection();
+				c.setUseCaches(false);
+				return c.getLastModified();
+			}
+		}
+		catch (Exception e) {}
+
+		return 0;
+	}
+
 	/**
 	 * Rounds a double to a given number of decimals.<br>
 	 * Example: double x = StringUtil.round(100.0500023, 4);<br>
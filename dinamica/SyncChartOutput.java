@@ -45,7 +45,7 @@ public class SyncChartOutput extends GenericOutput
 		
 		//load chart plugin
 		String plugin = (String)chartinfo.getValue("chart-plugin");
-		AbstractChartPlugin obj = (AbstractChartPlugin) Thread.currentThread().getContextClassLoader().loadClass(plugin).newInstance();
+		AbstractChartPlugin obj = (AbstractChartPlugin) ClassCache.getSharedInstance(plugin);
 		
 		JFreeChart chart = null;
 		synchronized (data) {
@@ -3,7 +3,6 @@ package dinamica;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.io.PrintWriter;
 import java.net.URLEncoder;
 import java.sql.Types;
@@ -98,7 +97,7 @@ import java.util.Locale;
 public class TemplateEngine
 {
 
-	/** template text */
+	/** template text, null if it must be built from the parsed form */
 	private String _template = "";
 	
 
@@ -118,6 +117,12 @@ public class TemplateEngine
 	private String _encoding = null;
 
 	private Labels _labels = null;
+
+	/** parsed form of the template, null if the template must be parsed again */
+	private CompiledTemplate _compiled = null;
+	
+	/** streaming mode for print() */
+	private boolean _streaming = false;
 	
 	/**
 	 * Set template encoding - for information purporses only
@@ -128,6 +133,20 @@ public class TemplateEngine
 		_encoding = encoding;
 	}
 
+	/**
+	 * Set streaming mode for print(); if TRUE the page is written
+	 * directly to the response Writer while the last markers are replaced,
+	 * without building the final page in memory and without setting
+	 * the content-length header (the container uses chunked transfer encoding).
+	 * It is set by the Controller with the attribute streaming="true" of
+	 * the [template] element in config.xml.
+	 * @param streaming TRUE to enable streaming mode
+	 */
+	public void setStreaming(boolean streaming)
+	{
+		_streaming = streaming;
+	}
+
 	/**
 	 * Set reference to callback object that
 	 * implements the IRowEvent interface
@@ -169,24 +188,296 @@ public class TemplateEngine
 		_template = template;
 		_ctx = ctx;
 		_req = req;
+		init();
+	}
+
+	/**
+	 * Servlet oriented constructor for a template already parsed, like the
+	 * templates returned by CompiledTemplate.getInstance(); the template is not parsed again.
+	 * @param ctx Servlet Context - will be used to read context parameters.
+	 * @param req Servlet Request - will be used to produce default values, like userid or remote_addr.
+	 * @param template Parsed text template
+	 */
+	public TemplateEngine(ServletContext ctx, HttpServletRequest req, CompiledTemplate template)
+	{
+		_template = template.getSource();
+		_compiled = template;
+		_ctx = ctx;
+		_req = req;
+		init();
+	}
+
+	/**
+	 * Replace default values and the attributes of the request and the session
+	 */
+	private void init()
+	{
 		
 		//patch june-28-2004 -avoid unnecessary replace calls for repeat sections
+		//patch 2010-07-01 - all these markers are replaced in a single pass
 		try {
-			replaceDefaultValues();
 			if (_req!=null && _ctx!=null) {
 				
 				//patch 2009-08-03 preload user locale - if any
-				HttpSession s = req.getSession(false);
+				HttpSession s = _req.getSession(false);
 				if (s!=null) {
 					this._locale = (java.util.Locale)s.getAttribute("dinamica.user.locale");
-					replaceSessionAttributes();
+					render(CompiledTemplate.DEF, CompiledTemplate.SES, CompiledTemplate.REQ);
+				} else {
+					render(CompiledTemplate.DEF, CompiledTemplate.REQ);
 				}
-				replaceRequestAttributes();
+			} else {
+				render(CompiledTemplate.DEF);
 			}
 		} catch (Throwable e) {}
 		
 	}
 
+	/**
+	 * Returns the parsed form of the current template; the markers are replaced
+	 * in this form, it is parsed again only if the text was changed by
+	 * the methods that work with the text, like setComboValue() or replace(String, String)
+	 */
+	private CompiledTemplate compiled()
+	{
+		if (_compiled==null)
+			_compiled = new CompiledTemplate(_template);
+		return _compiled;
+	}
+
+	/**
+	 * Returns the text of the current template, it is built from
+	 * the parsed form only if the markers were replaced since the last call
+	 */
+	private String text()
+	{
+		if (_template==null)
+			_template = _compiled.getSource();
+		return _template;
+	}
+
+	/**
+	 * Change the text of the current template
+	 * @param text New text
+	 */
+	private void setText(String text)
+	{
+		/* same String object - the template was not changed */
+		if (text!=_template)
+		{
+			_template = text;
+			_compiled = null;
+		}
+	}
+
+	/**
+	 * Returns TRUE if the template contains markers of a given type
+	 * @param type Marker type (FLD, DEF, etc.)
+	 */
+	private boolean contains(int type)
+	{
+		if (_compiled!=null)
+			return _compiled.contains(type);
+		return _template.indexOf("${" + CompiledTemplate.PREFIX[type] + ":")>=0;
+	}
+
+	/**
+	 * Replace the markers of the given types in a single pass
+	 * @param order Marker types, in the order they must be replaced
+	 * @throws Throwable
+	 */
+	private void render(int... order) throws Throwable
+	{
+		render(new MarkerResolver(), order);
+	}
+
+	/**
+	 * Replace the markers of the given types in a single pass
+	 * @param r Object that returns the value of each marker
+	 * @param order Marker types, in the order they must be replaced
+	 * @throws Throwable
+	 */
+	private void render(MarkerResolver r, int... order) throws Throwable
+	{
+		CompiledTemplate t = compiled().apply(r, order);
+		if (t!=_compiled)
+		{
+			_compiled = t;
+			_template = null;
+		}
+	}
+
+	/**
+	 * Returns the values of the markers while the template is rendered
+	 */
+	private class MarkerResolver implements CompiledTemplate.Resolver
+	{
+		
+		/** recordset used for ${fld:xxx} markers */
+		Recordset rs = null;
+		
+		/** TRUE to format the field values as SQL literals */
+		boolean sql = false;
+		
+		/** TRUE to replace the field markers with an empty string */
+		boolean clear = false;
+		
+		/** string to represent null values */
+		String nullValueExpr = null;
+		
+		/** values of the field markers already replaced */
+		HashMap<String, String> values = new HashMap<String, String>();
+		
+		/** default date format */
+		String defDateFmt = null;
+		
+		/** date used for ${def:xxx} markers */
+		java.util.Date date = null;
+		
+		/** language used for ${lbl:xxx} markers */
+		String language = null;
+		
+		/** response used for ${inc:xxx} markers */
+		HttpServletResponse res = null;
+		
+		public String resolve(int type, Marker m, String marker) throws Throwable
+		{
+			switch (type)
+			{
+				case CompiledTemplate.FLD:
+					return getField(m, marker);
+				
+				case CompiledTemplate.DEF:
+					if (m.getExtraInfo()!=null)
+						return null;
+					if (date==null)
+						date = new java.util.Date();
+					return getDefaultValue(m.getName(), date);
+				
+				case CompiledTemplate.LBL:
+					return getLabel(m);
+				
+				case CompiledTemplate.REQ:
+					return getRequestAttribute(m);
+				
+				case CompiledTemplate.SES:
+					return getSessionAttribute(m);
+				
+				case CompiledTemplate.SEQ:
+					return getSequence(m, marker);
+				
+				case CompiledTemplate.INC:
+					include(m.getName(), res);
+					return "";
+			}
+			return null;
+		}
+		
+		String getField(Marker m, String marker) throws Throwable
+		{
+			if (clear)
+				return "";
+			
+			if (sql)
+			{
+				if (m.getExtraInfo()!=null)
+					return null;
+				RecordsetField f = rs.getFields().get(m.getName());
+				if (f==null)
+					return null;
+				return getSqlValue(rs, f);
+			}
+			
+			/* same marker more than once - use the value already formatted */
+			if (values.containsKey(marker))
+				return values.get(marker);
+			
+			if (defDateFmt==null)
+				defDateFmt = getDefaultDateFormat();
+			
+			String value = null;
+			FieldFormatter f = FieldFormatter.getInstance(TemplateEngine.this, rs, m.getName(), m.getExtraInfo(), _locale, defDateFmt);
+			if (f!=null)
+				value = f.format(rs, nullValueExpr);
+			values.put(marker, value);
+			return value;
+		}
+		
+		String getLabel(Marker m) throws Throwable
+		{
+			/* identify locale to be used */
+			if (language==null)
+			{
+				if (_locale==null)
+					language = _ctx.getInitParameter("def-language");
+				else
+					language = _locale.getLanguage();
+				 
+				if (language==null || language.equals(""))
+					throw new Throwable("Language not defined (User Locale or default language may be null)");
+			}
+			
+			if (_labels==null)
+				_labels = Labels.getInstance(_ctx);
+			
+			if (m.getExtraInfo()!=null)
+				return null;
+			
+			return _labels.getLabel(m.getName(), language);
+		}
+		
+		String getRequestAttribute(Marker m) throws Throwable
+		{
+			String name = m.getName();
+			
+			//PATCH 2005-04-15  - support for XML/URL encoding
+			String fmt = m.getExtraInfo(); 
+			
+			/* PATCH 2004-12-06 - request markers were
+			 * being eliminated if request attribute was null, creating
+			 * problems for custom output modules that set request attributes
+			 */
+			String value = (String)_req.getAttribute(name);
+			if (value!=null && fmt!=null)
+			{
+				if (fmt.equals("xml"))
+					value = encodeXML(value);
+				else if (fmt.equals("html"))
+					value = encodeHTML(value);
+				else if (fmt.equals("js"))
+					value = encodeJS(value);
+				else if (fmt.equals("url"))
+					value = URLEncoder.encode(value, "UTF-8");
+				else
+					throw new Throwable("Invalid encoding directive for request attribute: " + name);
+			}
+			return value;
+		}
+		
+		String getSessionAttribute(Marker m) throws Throwable
+		{
+			//get session object
+			HttpSession session = _req.getSession(false);
+			if (session==null)
+				return null;
+			
+			String name = m.getName();
+			
+			// PATCH 2005-05-25 - test existence of session attribute
+			Object obj = session.getAttribute(name);
+			
+			if (obj==null)
+			    throw new Throwable("Cannot find Session attribute [" + name + "]; UserID: " + _req.getRemoteUser() + "; Session isNew: " + session.isNew() + "; ");
+
+			if (m.getExtraInfo()!=null)
+				return null;
+			
+			//patch 2005-06-09 - avoid errors if attribute type is not String
+			return String.valueOf(obj);
+		}
+		
+	}
+
 	/**
 	 * Generates SQL using the recordset values from the current record,
 	 * substitutes the field markers with properly formatted values. Saves a lot
@@ -200,147 +491,323 @@ public class TemplateEngine
 	 * @return Well formatted SQL with all the markers replaced by the corresponding values (only fld, def and seq markers are considered, no format masks allowed) 
 	 * @throws Throwable
 	 */
-	@SuppressWarnings("unchecked")
 	public String getSql(Recordset rs) throws Throwable
 	{
 		
 		try
 		{
 		
-			//patch 2007-07-17 replace special marker for security schema ${schema}
-			//in any SQL template that may contain it
-			if (_ctx!=null)
-			{
-				if (_template.indexOf("${schema}") > 0 ) {
-					String schema = _ctx.getInitParameter("security-schema");
-					if (schema==null)
-						schema = "";
-					else
-						if (!schema.endsWith(".") && !schema.equals(""))
-							schema = schema + ".";
-					_template = StringUtil.replace(_template, "${schema}", schema);
-				}
-			}
-			//end patch
+			replaceSchema();
 			
+			/* replace field markers and the other SQL markers in a single pass */
+			MarkerResolver r = new MarkerResolver();
+			r.rs = rs;
+			r.sql = true;
+			render(r, getSqlMarkers(rs!=null));
+				
+			return text();
+		}
+		catch (Throwable e)
+		{
+			String msg = "[TemplateEngine].\n Template:" + text() + "\n";
+			String data = "";
 			if (rs!=null)
 			{
-				/* get recordset metadata */
-				HashMap<String, RecordsetField> flds = rs.getFields();
+				data = rs.toString();
+				System.err.println(msg + data);
+			}
+			throw e;
+		}
+		 
+	}
+	
+	/**
+	 * Returns the value of a field of the current record
+	 * as a SQL literal
+	 * @param rs Recordset
+	 * @param f Field
+	 * @return SQL literal (quoted string, date or timestamp escape, number or NULL)
+	 * @throws Throwable
+	 */
+	private String getSqlValue(Recordset rs, RecordsetField f) throws Throwable
+	{
+		
+		Object value = rs.getValue(f.getName());
+		if (value==null)
+			return "NULL";
+		
+		switch (f.getType())
+		{
+			case Types.VARCHAR:
+			case Types.CHAR:
+			case Types.LONGVARCHAR:
+				String v = (String)value;
+				v = StringUtil.replace(v,"'","''");
+				return "'" + v + "'";
 			
-				/* for each field try to replace value */
-				Iterator i = flds.values().iterator();
-				while (i.hasNext())
-				{
+			case Types.DATE:
+				java.util.Date d = (java.util.Date)value;
+				return "{d '" + StringUtil.formatDate(d, "yyyy-MM-dd") + "'}";
+			
+			case Types.TIMESTAMP:
+				java.util.Date d1 = (java.util.Date)value;
+				return "{ts '" + StringUtil.formatDate(d1, "yyyy-MM-dd HH:mm:ss.SSS") + "'}";
+			
+			default:
+				String n = dinamica.StringUtil.formatNumber(value, "#.######");
+				n = dinamica.StringUtil.replace(n, ",", ".");									
+				return n;
+		}
+		
+	}
+	
+	/**
+	 * Returns the value of a field of the current record as text
+	 * to be inserted inside a quoted SQL literal
+	 * @param rs Recordset
+	 * @param f Field
+	 * @return Text with single quotes escaped, empty if the value is null
+	 * @throws Throwable
+	 */
+	private String getSqlText(Recordset rs, RecordsetField f) throws Throwable
+	{
+		
+		Object value = rs.getValue(f.getName());
+		if (value==null)
+			return "";
+		
+		switch (f.getType())
+		{
+			case Types.DATE:
+				return StringUtil.formatDate((java.util.Date)value, "yyyy-MM-dd");
+			
+			case Types.TIMESTAMP:
+				return StringUtil.formatDate((java.util.Date)value, "yyyy-MM-dd HH:mm:ss.SSS");
+			
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.DOUBLE:
+				String n = dinamica.StringUtil.formatNumber(value, "#.######");
+				return dinamica.StringUtil.replace(n, ",", ".");
+			
+			default:
+				return StringUtil.replace(String.valueOf(value), "'", "''");
+		}
+		
+	}
+	
+	/**
+	 * Generates a SQL command with ? placeholders using a SQL template. Field markers
+	 * ${fld:FieldName} are replaced by placeholders in the order they appear in the template
+	 * and the values of the current record are added as parameters, typed according to
+	 * the recordset field; the other SQL markers (schema, def, req, ses, lbl and seq) are
+	 * replaced by text as in getSql(). Markers of fields that are not present in any of the
+	 * recordsets are left in the template, like getSql() does.
+	 * <br><br>
+	 * Note that the placeholders can only replace values, markers used to build other parts
+	 * of the SQL (column names, ORDER BY clauses, etc.) must be replaced with getSql().
+	 * If a field marker is inside a quoted literal (LIKE '%${fld:name}%') no placeholder is used:
+	 * that marker is replaced by the value with its single quotes escaped, and the other markers by
+	 * SQL literals as getSql() does, so the command has no parameters.
+	 * @param rs Recordsets containing at least one record, the record position must be valid; if a field
+	 * exists in more than one recordset the first one is used
+	 * @return SQL command and its parameters
+	 * @throws Throwable
+	 */
+	public SqlStatement getSqlStatement(Recordset... rs) throws Throwable
+	{
+		
+		SqlStatement stmt = new SqlStatement(null);
+		
+		try
+		{
+			
+			replaceSchema();
+			String template = text();
+			
+			/* field markers in order of appearance */
+			ArrayList<int[]> markers = new ArrayList<int[]>();
+			ArrayList<Recordset> sources = new ArrayList<Recordset>();
+			boolean quoted = false;
+			boolean inline = false;
+			int pos = 0;
+			while (true)
+			{
+				int pos1 = template.indexOf("${fld:", pos);
+				if (pos1 < 0)
+					break;
+				int pos2 = template.indexOf("}", pos1);
+				if (pos2 < 0)
+					break;
 				
-					RecordsetField f = (RecordsetField)i.next();
-					String fname = f.getName();
-					Object value = rs.getValue(fname);
-					String marker = "${fld:" + fname + "}";
+				//patch 2010-07-15 - a placeholder inside a quoted literal ('%${fld:x}%') is not a parameter
+				for (int i = pos; i < pos1; i++)
+				{
+					if (template.charAt(i)=='\'')
+						quoted = !quoted;
+				}
 				
-					if (value==null)
-					{
-						_template = StringUtil.replace(_template, marker, "NULL");
-					}
-					else
+				String name = template.substring(pos1 + 6, pos2);
+				Recordset src = null;
+				for (int i = 0; i < rs.length; i++)
+				{
+					if (rs[i]!=null && rs[i].containsField(name))
 					{
-						switch (f.getType())
-						{
-							case Types.VARCHAR:
-							case Types.CHAR:
-							case Types.LONGVARCHAR:
-								String v = (String)value;
-								v = StringUtil.replace(v,"'","''");
-								_template = StringUtil.replace(_template, marker, "'" + v + "'");
-								break;
-							
-							case Types.DATE:
-								java.util.Date d = (java.util.Date)value;
-								_template = StringUtil.replace(_template, marker, "{d '" + StringUtil.formatDate(d, "yyyy-MM-dd") + "'}");
-								break;
-							
-							case Types.TIMESTAMP:
-								java.util.Date d1 = (java.util.Date)value;
-								_template = StringUtil.replace(_template, marker, "{ts '" + StringUtil.formatDate(d1, "yyyy-MM-dd HH:mm:ss.SSS") + "'}");
-								break;
-							
-							default:
-								String n = dinamica.StringUtil.formatNumber(value, "#.######");
-								n = dinamica.StringUtil.replace(n, ",", ".");									
-								_template = StringUtil.replace(_template, marker, n);
-								break;
-								
-						}
+						src = rs[i];
+						break;
 					}
+				}
 				
+				if (src!=null)
+				{
+					markers.add(new int[] {pos1, pos2, quoted ? 1 : 0});
+					sources.add(src);
+					if (quoted)
+						inline = true;
 				}
+				pos = pos2 + 1;
 			}
-					
-			/* replace default values */
-			if (_req!=null)
-				replaceDefaultValues();
-		
-			/* replace SEQUENCE and request/session markers */
-			if (_ctx!=null && _req!=null)
+			
+			/* replace the markers by placeholders, or by SQL literals if any of them is quoted */
+			StringBuilder sql = new StringBuilder(template.length());
+			pos = 0;
+			for (int i = 0; i < markers.size(); i++)
 			{
-				replaceRequestAttributes();
-				replaceSessionAttributes();
-				replaceLabels();
-				
-				ArrayList<Marker> seqs = getMarkers("seq");
-		
-				/* for each field marker set value */
-				Iterator<Marker> is = seqs.iterator();
-				while (is.hasNext())
+				int m[] = markers.get(i);
+				Recordset src = sources.get(i);
+				RecordsetField f = src.getField(template.substring(m[0] + 6, m[1]));
+				sql.append(template, pos, m[0]);
+				if (m[2]==1)
 				{
-					/* get next marker */
-					Marker m = (Marker)is.next();
-					String seqType = m.getName(); //sequence mode (nextval|currval)
-					String seqName = m.getExtraInfo(); //sequence object name
-					String marker = "${seq:" + seqType + "@" + seqName + "}";
-			
-					/* get sequence configuration from context */
-					String seqConfigParam = "sequence-" + seqType; 
-					String seqExpr = _ctx.getInitParameter(seqConfigParam);
-				
-					/* throw error if config not found */
-					if (seqExpr==null || seqExpr.equals(""))
-					{
-						String args[] = {marker};
-						String msg = Errors.SEQUENCE_BAD_CONFIGURATION;
-						msg = MessageFormat.format(msg, (Object[])args);
-						throw new Throwable(msg);
-					}
-							
-					/* replace sequence expression */
-					String value = "";
-					
-					//patch for Resin 3.0.6 - Feb26-2004
-					if (seqExpr.indexOf("${seq}")<0)
-						value = StringUtil.replace(seqExpr, "$[seq]", seqName);
-					else
-						value = StringUtil.replace(seqExpr, "${seq}", seqName);
-					//end patch
-					
-					_template = StringUtil.replace(_template, marker, value);
-			
+					sql.append(getSqlText(src, f));
+				}
+				else if (inline)
+				{
+					sql.append(getSqlValue(src, f));
 				}
+				else
+				{
+					sql.append("?");
+					stmt.addParameter(src.getValue(f.getName()), f.getType());
+				}
+				pos = m[1] + 1;
 			}
-				
-			return _template;
+			sql.append(template, pos, template.length());
+			setText(sql.toString());
+			
+			replaceSqlMarkers();
+			
+			stmt.setSql(text());
+			return stmt;
+			
 		}
 		catch (Throwable e)
 		{
-			String msg = "[TemplateEngine].\n Template:" + _template + "\n";
-			String data = "";
-			if (rs!=null)
-			{
-				data = rs.toString();
-				System.err.println(msg + data);
-			}
+			if (_ctx!=null)
+				_ctx.log("[TemplateEngine] Error generating SQL statement: " + e.getMessage() + "\n Template:" + text() + "\n" + stmt);
 			throw e;
 		}
-		 
+		
+	}
+	
+	/**
+	 * Replace the special marker for the security schema ${schema}
+	 * using the context parameter security-schema
+	 */
+	private void replaceSchema()
+	{
+		//patch 2007-07-17 replace special marker for security schema ${schema}
+		//in any SQL template that may contain it
+		if (_ctx!=null)
+		{
+			if (text().indexOf("${schema}") > 0 ) {
+				String schema = _ctx.getInitParameter("security-schema");
+				if (schema==null)
+					schema = "";
+				else
+					if (!schema.endsWith(".") && !schema.equals(""))
+						schema = schema + ".";
+				setText(StringUtil.replace(text(), "${schema}", schema));
+			}
+		}
+		//end patch
+	}
+	
+	/**
+	 * Replace default values, request and session attributes, labels
+	 * and sequences in a SQL template
+	 * @throws Throwable
+	 */
+	private void replaceSqlMarkers() throws Throwable
+	{
+		render(new MarkerResolver(), getSqlMarkers(false));
+	}
+	
+	/**
+	 * Returns the types of markers replaced in a SQL template, in the
+	 * order they must be replaced: fields, default values, request and session
+	 * attributes, labels and sequences; default values require a request and the
+	 * other markers require the request and the context
+	 * @param fields TRUE to include the field markers
+	 * @return Marker types
+	 */
+	private int[] getSqlMarkers(boolean fields)
+	{
+		ArrayList<Integer> types = new ArrayList<Integer>();
+		if (fields)
+			types.add(CompiledTemplate.FLD);
+		if (_req!=null)
+			types.add(CompiledTemplate.DEF);
+		if (_ctx!=null && _req!=null)
+		{
+			types.add(CompiledTemplate.REQ);
+			types.add(CompiledTemplate.SES);
+			types.add(CompiledTemplate.LBL);
+			types.add(CompiledTemplate.SEQ);
+		}
+		
+		int order[] = new int[types.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = types.get(i).intValue();
+		return order;
+	}
+	
+	/**
+	 * Returns the SQL expression of a sequence marker ${seq:nextval@SeqName},
+	 * using the context parameters sequence-nextval and sequence-currval
+	 * @param m Marker
+	 * @param marker Marker text
+	 * @return SQL expression or NULL if the marker has no sequence name
+	 * @throws Throwable If the context parameter is not defined
+	 */
+	private String getSequence(Marker m, String marker) throws Throwable
+	{
+		String seqType = m.getName(); //sequence mode (nextval|currval)
+		String seqName = m.getExtraInfo(); //sequence object name
+
+		/* get sequence configuration from context */
+		String seqConfigParam = "sequence-" + seqType; 
+		String seqExpr = _ctx.getInitParameter(seqConfigParam);
+	
+		/* throw error if config not found */
+		if (seqExpr==null || seqExpr.equals(""))
+		{
+			String args[] = {marker};
+			String msg = Errors.SEQUENCE_BAD_CONFIGURATION;
+			msg = MessageFormat.format(msg, (Object[])args);
+			throw new Throwable(msg);
+		}
+		
+		if (seqName==null)
+			return null;
+				
+		/* replace sequence expression */
+		//patch for Resin 3.0.6 - Feb26-2004
+		if (seqExpr.indexOf("${seq}")<0)
+			return StringUtil.replace(seqExpr, "$[seq]", seqName);
+		else
+			return StringUtil.replace(seqExpr, "${seq}", seqName);
+		//end patch
 	}
 	
 	/**
@@ -374,93 +841,96 @@ public class TemplateEngine
 	{
 		
 		//patch june-22-2004 don't waste time
-		if (_template.indexOf("${def:")< 0 )
+		if (!contains(CompiledTemplate.DEF))
 			return;
 		
-		String markers[] = {
-							"${def:user}",
-							"${def:date}",
-							"${def:time}",
-							"${def:timestamp}",
-							"${def:host}",
-							"${def:context}",
-							"${def:remoteaddr}",
-							"${def:uri}",
-							"${def:dateDMY}",
-							"${def:dateMDY}",
-							"${def:actionroot}",
-							"${def:httpserver}",
-							"${def:session}",
-							"${def:alias}"
-							};
-							
-		String values[] = new String[markers.length];
-		
-		String userid = null;
-		if (_req != null) userid = _req.getRemoteUser();
-		if (userid == null) userid = "";
-
-		java.util.Date d = new java.util.Date();
-		values[0] = userid;
-		values[1] = StringUtil.formatDate(d, "yyyy-MM-dd");
-		values[2] = StringUtil.formatDate(d, "HH:mm:ss");
-		values[3] = StringUtil.formatDate(d, "yyyy-MM-dd HH:mm:ss.SSS");
+		render(CompiledTemplate.DEF);
 		
-		if (_req!=null)
-			values[4] = _req.getServerName(); else values[4] = "";
+	}
+	
+	/**
+	 * Returns the value of a default value marker ${def:valueName}
+	 * @param name Value name (user, date, etc.)
+	 * @param d Current date
+	 * @return The value or NULL if it is not a default value
+	 * @throws Throwable
+	 */
+	private String getDefaultValue(String name, java.util.Date d) throws Throwable
+	{
+		
+		if (name.equals("user"))
+		{
+			String userid = null;
+			if (_req != null) userid = _req.getRemoteUser();
+			if (userid == null) userid = "";
+			return userid;
+		}
+		
+		if (name.equals("date"))
+			return StringUtil.formatDate(d, "yyyy-MM-dd");
+		
+		if (name.equals("time"))
+			return StringUtil.formatDate(d, "HH:mm:ss");
+		
+		if (name.equals("timestamp"))
+			return StringUtil.formatDate(d, "yyyy-MM-dd HH:mm:ss.SSS");
+		
+		if (name.equals("host"))
+			return (_req!=null) ? _req.getServerName() : "";
 
-		if (_req!=null)
-			values[5] = _req.getContextPath(); else values[5] = "";
+		if (name.equals("context"))
+			return (_req!=null) ? _req.getContextPath() : "";
 
-		if (_req!=null)
-			values[6] = _req.getRemoteAddr(); else values[6] = "";
+		if (name.equals("remoteaddr"))
+			return (_req!=null) ? _req.getRemoteAddr() : "";
 
-		if (_req!=null)
-			values[7] = _req.getRequestURI(); else values[7] = "";
+		if (name.equals("uri"))
+			return (_req!=null) ? _req.getRequestURI() : "";
 
-		values[8] = StringUtil.formatDate(d, "dd-MM-yyyy");
-		values[9] = StringUtil.formatDate(d, "MM-dd-yyyy");
+		if (name.equals("dateDMY"))
+			return StringUtil.formatDate(d, "dd-MM-yyyy");
+		
+		if (name.equals("dateMDY"))
+			return StringUtil.formatDate(d, "MM-dd-yyyy");
 
-		if (_req!=null)
+		if (name.equals("actionroot"))
 		{
+			if (_req==null)
+				return "";
 			String path = (String)_req.getAttribute("dinamica.action.path");
-			path = path.substring(0, path.lastIndexOf("/"));
-			values[10] = path;
+			return path.substring(0, path.lastIndexOf("/"));
 		}
-		else values[10] = "";
 		
-		if (_req!=null)
+		if (name.equals("httpserver"))
 		{
+			if (_req==null)
+				return "";
 			String http = "http://";
 			if (_req.isSecure())
 					http = "https://";
-			http = http + _req.getServerName() + ":" + _req.getServerPort();
-			values[11] = http;
+			return http + _req.getServerName() + ":" + _req.getServerPort();
 		}
-		else values[11] = "";
 
-		if (_req!=null)
+		if (name.equals("session"))
 		{
+			if (_req==null)
+				return "";
 			//patch 2009-08-31 - no crear sesion si no existe una
 			HttpSession s =  _req.getSession(false);
 			if (s!=null)
-				values[12] = s.getId();
+				return s.getId();
 			else
-				values[12] ="N/D";
+				return "N/D";
 		}
-		else values[12] = "";
 		
-		if (_req!=null)
+		if (name.equals("alias"))
 		{
-			values[13] = (String)_req.getAttribute("dinamica.security.application");
+			if (_req==null)
+				return "";
+			return String.valueOf(_req.getAttribute("dinamica.security.application"));
 		}
-		else values[13] = "";
 
-		
-		for (int i=0;i<markers.length;i++)
-		{
-			_template = StringUtil.replace(_template,markers[i],values[i]);
-		}
+		return null;
 		
 	}
 	
@@ -469,7 +939,7 @@ public class TemplateEngine
 	 */
 	public String toString()
 	{
-		return _template;
+		return text();
 	}
 
 	/**
@@ -490,6 +960,7 @@ public class TemplateEngine
 			throw new Throwable(msg);
 		}
 		
+		String template = text();
 		int pos = 0;
 		ArrayList<Marker> l = new ArrayList<Marker>();
 		
@@ -501,19 +972,19 @@ public class TemplateEngine
 			int newPos = 0;
 			
 			/* find start of marker */
-			pos1 = _template.indexOf("${" + prefix + ":", pos);
+			pos1 = template.indexOf("${" + prefix + ":", pos);
 			if (pos1>=0)
 			{
 				
 				/* find end of marker */
 				newPos = pos1 + 6;
-				pos2 = _template.indexOf("}", newPos);
+				pos2 = template.indexOf("}", newPos);
 				
 				if (pos2>0)
 				{
 					
 					/* get marker string */
-					String fld = _template.substring(newPos, pos2);
+					String fld = template.substring(newPos, pos2);
 					Marker m = new Marker(fld,null,pos1,pos2);
 					
 					/* search for etra attribute (format or sequence name) */
@@ -566,11 +1037,11 @@ public class TemplateEngine
 	public void replace(Recordset rs, String nullValueExpr) throws Throwable
 	{
 		
-		/* parse the template and create list of field markers */
-		ArrayList<Marker> flds = getMarkers("fld");
-
-		/* call internal replace method */
-		replace(rs, nullValueExpr, flds);
+		/* replace all the field markers in a single pass */
+		MarkerResolver r = new MarkerResolver();
+		r.rs = rs;
+		r.nullValueExpr = nullValueExpr;
+		render(r, CompiledTemplate.FLD);
 		
 	}
 
@@ -589,8 +1060,6 @@ public class TemplateEngine
 	public void replace(Recordset rs, String nullValueExpr, String repeatSectionTag) throws Throwable
 	{
 		
-		dinamica.parser.FastTemplateEngine fte = new dinamica.parser.FastTemplateEngine();
-		
 		String section = null;
 		String repeatTemplate = null;
 		int pos1 = 0;
@@ -599,80 +1068,216 @@ public class TemplateEngine
 		String tagStart = "<" + repeatSectionTag + ">";
 		String tagEnd = "</" + repeatSectionTag + ">";
 		
+		//patch 2010-07-20 - expand the section in the parsed template, the rest of the page
+		//is not copied nor parsed again
+		CompiledTemplate.Segment seg[] = compiled().getSegments();
+		int pos[] = findSection(seg, 0, 0, tagStart, tagEnd);
+		if (pos!=null)
+		{
+			ArrayList<CompiledTemplate.Segment> list = new ArrayList<CompiledTemplate.Segment>(seg.length + 2);
+			CompiledTemplate.Segment rows[] = null;
+			int i = 0;
+			int off = 0;
+			while (pos!=null)
+			{
+				/* get section string */
+				ArrayList<CompiledTemplate.Segment> body = new ArrayList<CompiledTemplate.Segment>();
+				copy(body, seg, pos[0], pos[1], pos[2], pos[3]);
+				String text = new CompiledTemplate(body).getSource();
+				
+				if (section==null)
+				{
+					section = text;
+					body.clear();
+					copy(body, seg, pos[0], pos[1] + tagStart.length(), pos[2], pos[3] - tagEnd.length());
+					
+					/* the values may contain markers, they are replaced by the next calls like the markers of the page */
+					String buf = expand(body.toArray(new CompiledTemplate.Segment[body.size()]), rs, nullValueExpr);
+					if (buf.indexOf("${")>=0)
+						rows = new CompiledTemplate(buf).getSegments();
+					else if (buf.length() > 0)
+						rows = new CompiledTemplate.Segment[] {CompiledTemplate.text(buf)};
+					else
+						rows = new CompiledTemplate.Segment[0];
+				}
+				
+				/* replace every copy of the section, like StringUtil.replace() does */
+				if (text.equals(section))
+				{
+					copy(list, seg, i, off, pos[0], pos[1]);
+					for (int k = 0; k < rows.length; k++)
+						list.add(rows[k]);
+					i = pos[2];
+					off = pos[3];
+					pos = findSection(seg, i, off, tagStart, tagEnd);
+				}
+				else
+				{
+					pos = findSection(seg, pos[0], pos[1] + 1, tagStart, tagEnd);
+				}
+			}
+			copy(list, seg, i, off, seg.length, 0);
+			
+			_compiled = new CompiledTemplate(list);
+			_template = null;
+			return;
+		}
+		
+		/* the tags were not found inside the literals of the parsed template, search the text */
+		String template = text();
+		
 		/* find start of repeat section */
-		pos1 = _template.indexOf(tagStart);
+		pos1 = template.indexOf(tagStart);
 		if (pos1>=0)
 		{
 				
 			/* find end of repeat section */
 			int newPos = pos1 + tagStart.length();
-			pos2 = _template.indexOf(tagEnd, newPos);
+			pos2 = template.indexOf(tagEnd, newPos);
 				
 			if (pos2>0)
 			{
 				/* get section string */
-				section = _template.substring(pos1, pos2 + tagEnd.length());
-				repeatTemplate = _template.substring(newPos, pos2);
+				section = template.substring(pos1, pos2 + tagEnd.length());
+				repeatTemplate = template.substring(newPos, pos2);
 
-				/* buffer to contain generated text */
-				StringBuilder buf = new StringBuilder();
+				//patch 2010-07-03 - parse the section and bind its field markers only once
+				String buf = expand(new CompiledTemplate(repeatTemplate).getSegments(), rs, nullValueExpr);
+				setText(StringUtil.replace(template, section, buf));
 				
-				/* navigate all recordset */
-				if (rs.getRecordCount()>0)
-				{
-					
-					// fast template engine
-					fte.setTemplate(repeatTemplate);
-					ArrayList<dinamica.parser.Marker> markers = fte.getMarkers();
-					
-					// rewind recordset
-					rs.top();
-					
-					/* for each record */
-					while (rs.next())
-					{
-						
-						setValues(fte, markers, rs, nullValueExpr);
-						
-						// get row
-						String row = fte.toString();
-						
-						/* row event available? */
-						if (_rowEvent!=null)
-						{
-							row = _rowEvent.onNewRow( rs, row );
-						}
-							
-						
-						// append text
-						buf.append(row);
-						
-					}
-					_template = StringUtil.replace(_template, section, buf.toString());
+			}
+			else
+			{
+				String args[] = {repeatSectionTag};
+				String msg = Errors.REPEAT_TAG_NOT_CLOSED;
+				msg = MessageFormat.format(msg, (Object[])args);
+				throw new Throwable(msg);
+			}
+
+		}
+		else
+		{
+			String args[] = {repeatSectionTag};
+			String msg = Errors.REPEAT_TAG_NOT_FOUND;
+			msg = MessageFormat.format(msg, (Object[])args);
+			throw new Throwable(msg);
+		}
+		
+	}
+
+	/**
+	 * Repeat a section of the template for each record of a recordset
+	 * @param seg Segments of the section
+	 * @param rs Recordset
+	 * @param nullValueExpr The string to represent null values
+	 * @return Generated text, empty if the recordset has no records
+	 * @throws Throwable
+	 */
+	private String expand(CompiledTemplate.Segment seg[], Recordset rs, String nullValueExpr) throws Throwable
+	{
+		
+		/* buffer to contain generated text */
+		StringBuilder buf = new StringBuilder();
+		
+		/* navigate all recordset */
+		if (rs.getRecordCount()>0)
+		{
+			
+			FieldFormatter fmt[] = getFormatters(seg, rs);
+			StringBuilder row = new StringBuilder();
+			
+			// rewind recordset
+			rs.top();
+			
+			/* for each record */
+			while (rs.next())
+			{
+				
+				/* row event available? */
+				if (_rowEvent!=null)
+				{
+					row.setLength(0);
+					appendRow(row, seg, fmt, rs, nullValueExpr);
+					buf.append(_rowEvent.onNewRow( rs, row.toString() ));
 				}
 				else
 				{
-					_template = StringUtil.replace(_template, section, "");
+					// append text
+					appendRow(buf, seg, fmt, rs, nullValueExpr);
 				}
 				
 			}
-			else
+		}
+		return buf.toString();
+		
+	}
+
+	/**
+	 * Find a section of the template enclosed by a tag; the tags
+	 * must be inside literals of the parsed template
+	 * @param seg Segments of the template
+	 * @param first Index of the first segment to search
+	 * @param off Position inside the first segment where the search starts
+	 * @param tagStart Start tag
+	 * @param tagEnd End tag
+	 * @return Index of the segment and position of the start tag, and index of the
+	 * segment and position after the end tag, or null if the section is not found
+	 */
+	private static int[] findSection(CompiledTemplate.Segment seg[], int first, int off, String tagStart, String tagEnd)
+	{
+		for (int i = first; i < seg.length; i++, off = 0)
+		{
+			if (seg[i].type!=CompiledTemplate.TEXT)
+				continue;
+			
+			int pos1 = seg[i].text.indexOf(tagStart, off);
+			if (pos1 < 0)
+				continue;
+			
+			/* find end of section */
+			int newPos = pos1 + tagStart.length();
+			for (int j = i; j < seg.length; j++, newPos = 0)
 			{
-				String args[] = {repeatSectionTag};
-				String msg = Errors.REPEAT_TAG_NOT_CLOSED;
-				msg = MessageFormat.format(msg, (Object[])args);
-				throw new Throwable(msg);
+				if (seg[j].type!=CompiledTemplate.TEXT)
+					continue;
+				int pos2 = seg[j].text.indexOf(tagEnd, newPos);
+				if (pos2 >= 0)
+					return new int[] {i, pos1, j, pos2 + tagEnd.length()};
 			}
-
+			return null;
 		}
-		else
+		return null;
+	}
+
+	/**
+	 * Add a range of the template to a list of segments, the
+	 * literals at the start and the end of the range are cut if necessary
+	 * @param list List of segments
+	 * @param seg Segments of the template
+	 * @param i Index of the first segment
+	 * @param off Position where the range starts inside the first segment
+	 * @param j Index of the last segment, or the number of segments to copy until the end
+	 * @param end Position where the range ends inside the last segment
+	 */
+	private static void copy(ArrayList<CompiledTemplate.Segment> list, CompiledTemplate.Segment seg[], int i, int off, int j, int end)
+	{
+		if (i==j)
 		{
-			String args[] = {repeatSectionTag};
-			String msg = Errors.REPEAT_TAG_NOT_FOUND;
-			msg = MessageFormat.format(msg, (Object[])args);
-			throw new Throwable(msg);
+			if (end > off)
+				list.add(CompiledTemplate.text(seg[i].text.substring(off, end)));
+			return;
 		}
 		
+		if (off==0)
+			list.add(seg[i]);
+		else if (off < seg[i].text.length())
+			list.add(CompiledTemplate.text(seg[i].text.substring(off)));
+		
+		for (int k = i + 1; k < j; k++)
+			list.add(seg[k]);
+		
+		if (j < seg.length && end > 0)
+			list.add(CompiledTemplate.text(seg[j].text.substring(0, end)));
 	}
 
 	
@@ -700,36 +1305,32 @@ public class TemplateEngine
 			throw new Throwable("Servlet Context is null - this method can't work without a ServletContext.");
 
 		//patch june-22-2004 don't waste time
-		if (_template.indexOf("${lbl:")< 0 )
+		if (!contains(CompiledTemplate.LBL))
 			return;
 
-		if (_labels==null)
-			_labels = new Labels(_ctx);
+		render(CompiledTemplate.LBL);
 		
-		/* parse the template and create list of label markers */
-		ArrayList<Marker> flds = getMarkers("lbl");
-		
-		/* identify locale to be used */
-		String language = null;
-		if (_locale==null)
-			language = _ctx.getInitParameter("def-language");
-		else
-			language = _locale.getLanguage();
-		 
-		if (language==null || language.equals(""))
-			throw new Throwable("Language not defined (User Locale or default language may be null)");
-		
-		for (int i=0; i<flds.size();i++)
+	}
+
+
+	/**
+	 * Include the output of a servlet or JSP in the response
+	 * @param path Path of the resource inside the context
+	 * @param res Servlet response
+	 * @throws Throwable
+	 */
+	private void include(String path, HttpServletResponse res) throws Throwable
+	{
+		try {
+			RequestDispatcher rd = _ctx.getRequestDispatcher(path);
+			rd.include(_req, res);
+		} catch (Throwable e)
 		{
-			Marker m = (Marker) flds.get(i);
-			String name = m.getName();
-			String label = "${" + "lbl:" + name + "}";
-			_template = StringUtil.replace(_template, label, _labels.getLabel(name, language));
+			String msg = "INCLUDE Error (" + path + ") - " + e.getMessage(); 
+			throw new Throwable(msg);
 		}
-		
 	}
 
-
 	/**
 	 * Split template into segments stored into an array.
 	 * A segment may be a printable text or an INCLUDE directive
@@ -742,45 +1343,39 @@ public class TemplateEngine
 		
 		ArrayList<TemplateSegment> s = new ArrayList<TemplateSegment>();
 		
-		/* get include markers */
-		ArrayList<Marker> l = getMarkers("inc");
-
-		if (l.size()>0)
+		/* split the template at the include markers */
+		CompiledTemplate.Segment seg[] = compiled().getSegments();
+		StringBuilder data = new StringBuilder();
+		for (int i=0; i<seg.length; i++)
 		{
-			int lastPos = 0;
-			for (int i=0; i<l.size();i++)
+			if (seg[i].type==CompiledTemplate.INC)
 			{
-				/* create segment */
-				Marker m = (Marker) l.get(i);
+				if (seg[i].error!=null)
+					throw new Throwable(seg[i].error);
+				
 				TemplateSegment seg1 = new TemplateSegment();
 				seg1.segmentType = "data";
-				seg1.segmentData = _template.substring(lastPos, m.getPos1());
+				seg1.segmentData = data.toString();
+				data.setLength(0);
 						
 				TemplateSegment seg2 = new TemplateSegment();
 				seg2.segmentType = "inc";
-				seg2.segmentData = m.getName();
+				seg2.segmentData = seg[i].marker.getName();
 
-				lastPos = m.getPos2() + 1;
-			
 				s.add(seg1);
 				s.add(seg2);
-			
 			}
-			TemplateSegment seg1 = new TemplateSegment();
-			seg1.segmentType = "data";
-			seg1.segmentData = _template.substring(lastPos);
-			s.add(seg1);
-			
-		}
-		else
-		{
-			
-			TemplateSegment seg = new TemplateSegment();
-			seg.segmentType = "data";
-			seg.segmentData = _template;
-			s.add(seg);		
+			else
+			{
+				data.append(seg[i].text);
+			}
 		}
 		
+		TemplateSegment seg1 = new TemplateSegment();
+		seg1.segmentType = "data";
+		seg1.segmentData = data.toString();
+		s.add(seg1);
+		
 		return s; 
 	}
 	
@@ -806,15 +1401,27 @@ public class TemplateEngine
 		if (_ctx==null)
 			throw new Throwable("ServletContext is null - can't print template because the request dispatcher must be obtained from the ServletContext.");
 
-		replaceDefaultValues();
-		replaceLabels();
-		replaceRequestAttributes();
-		replaceSessionAttributes();
-		
+		if (_req==null)
+			throw new Throwable("Request is null - this method can't work without a Request object.");
+
 		PrintWriter pw = res.getWriter();
 		
+		//patch 2010-07-02 - streaming mode, write the segments and process the includes as they are found
+		if (_streaming)
+		{
+			MarkerResolver r = new MarkerResolver();
+			r.res = res;
+			int order[] = {CompiledTemplate.DEF, CompiledTemplate.LBL, CompiledTemplate.REQ, CompiledTemplate.SES, CompiledTemplate.INC};
+			compiled().render(pw, r, order, 0);
+			return;
+		}
+		
+		//patch 2010-07-01 - replace default values, labels, request and session attributes in a single pass
+		render(CompiledTemplate.DEF, CompiledTemplate.LBL, CompiledTemplate.REQ, CompiledTemplate.SES);
+		
+		
 		// patch 28-june-2004 - set content length if no includes are used in this template
-		if (_template.indexOf("${inc:")>=0)
+		if (contains(CompiledTemplate.INC))
 		{
 			ArrayList<TemplateSegment> s = getSegments();
 			for (int i=0; i<s.size();i++)
@@ -822,14 +1429,7 @@ public class TemplateEngine
 				TemplateSegment t = (TemplateSegment)s.get(i);
 				if (t.segmentType.equals("inc"))
 				{
-					try {
-						RequestDispatcher rd = _ctx.getRequestDispatcher(t.segmentData);
-						rd.include(_req, res);
-					} catch (Throwable e)
-					{
-						String msg = "INCLUDE Error (" + t.segmentData + ") - " + e.getMessage(); 
-						throw new Throwable(msg);
-					}
+					include(t.segmentData, res);
 				}
 				else
 				{
@@ -840,14 +1440,15 @@ public class TemplateEngine
 		else
 		{
 			//PATCH 2005-02-23 - encoding support
+			String template = text();
 			byte body[] = null;
 			if (_encoding!=null)
-				body = _template.getBytes(_encoding);
+				body = template.getBytes(_encoding);
 			else
-				body = _template.getBytes();
+				body = template.getBytes();
 				
 			res.setContentLength(body.length);
-			pw.print(_template);
+			pw.print(template);
 		}
 		
 	}
@@ -869,24 +1470,25 @@ public class TemplateEngine
 		int pos1 = 0;
 		int pos2 = 0;
 		String combo = "";
+		String template = text();
 
 		/* define control to find */
 		String find = "<select name=\"" + controlName + "\"";
 		
 		/* find it */
-		pos1 = _template.indexOf(find);
+		pos1 = template.indexOf(find);
 		
 		/* found? */
 		if (pos1>=0)
 		{
 			/* extract segment  from template */
-			pos2 = _template.indexOf("</select>", pos1);
+			pos2 = template.indexOf("</select>", pos1);
 			if (pos2>0)
 			{
 
 				/* extract */
 				int newpos2 = pos2 + "</select>".length();
-				combo = _template.substring(pos1, newpos2);
+				combo = template.substring(pos1, newpos2);
 				
 				/* set item=selected if found */
 				find = "<option value=\"" + value + "\"";
@@ -894,7 +1496,7 @@ public class TemplateEngine
 				String temp = StringUtil.replace(combo, find, newItem);
 
 				/* replace into template */
-				_template = StringUtil.replace(_template, combo, temp);
+				setText(StringUtil.replace(template, combo, temp));
 				
 			}
 			else
@@ -934,187 +1536,6 @@ public class TemplateEngine
 	}
 
 
-	/**
-	 * Internal method that factorizes most of the code
-	 * that is common to all the overloaders
-	 * @param rs Recordset
-	 * @param nullValueExpr The string to represent null values ("" or &ampnbsp;) - when generating html tables it should be &ampnbsp;
-	 * @param markers ArrayList containing the field markers
-	 * @throws Throwable
-	 */
-	@SuppressWarnings("unchecked")
-	void replace(Recordset rs, String nullValueExpr, ArrayList markers) throws Throwable
-	{
-	
-		String strValue = null;
-		Object value = null;
-		String toReplace = null;
-		
-		/* get recordset fields */
-		HashMap rsFlds = rs.getFields();
-		
-		/* parse the template and create list of field markers */
-		ArrayList flds = markers;
-		
-		/* for each field marker set value */
-		Iterator i = flds.iterator();
-		while (i.hasNext())
-		{
-	
-			String formatPluginName = null;
-			IFormatPlugin fmtObj = null;
-			FormatPluginParser fpp = null;
-	
-			/* get next marker */
-			Marker m = (Marker)i.next();
-			String fName = m.getName();
-			String fFormat = m.getExtraInfo();
-			
-			/* determine if it is an special field (rowNumber/rowIndex) otherwise if the field exists */
-			boolean found = true;
-			boolean fakeField = false;
-			if (!fName.equals("_rowNumber") && !fName.equals("_rowIndex"))
-			{
-				if (!rsFlds.containsKey(fName)) 
-					found = false;
-			}
-			else
-			{
-				fakeField = true;
-			}
-							
-			
-			/* recordset contains this field? */
-			if (found)
-			{
-				
-				String defDateFmt = null;
-				
-				/* read default date format */
-				if (_ctx!=null)
-					defDateFmt = _ctx.getInitParameter("def-format-date");
-				
-				if (defDateFmt==null || defDateFmt.equals(""))
-					defDateFmt = "dd-MM-yyyy";				
-				
-				/* rebuild marker to replace by searched and replaced by corresponding value */
-				if (fFormat!=null)
-				{
-					toReplace = "${fld:" + fName + "@" + fFormat + "}";
-					
-					//PATCH 2005-05-23 - get plugin name if available
-					if (fFormat.startsWith("class:"))
-					{
-					    formatPluginName = fFormat.substring(6);
-					    fpp = new FormatPluginParser(formatPluginName); 
-					    fmtObj = (IFormatPlugin)Thread.currentThread().getContextClassLoader().loadClass(fpp.getName()).newInstance();
-					}
-				}
-				else
-					toReplace = "${fld:" + fName + "}";
-				
-				/* get field value */
-				value = rs.getValue(fName);
-				
-				//custom format??
-				if (fmtObj!=null)
-				{
-				    strValue = fmtObj.format(fName, rs, _locale, fpp.getArgs());
-				}
-				else
-				{
-				
-					/* apply appropiate null representation */
-					if (value==null) 
-					{
-						strValue=nullValueExpr;
-					}
-					else
-					{
-						
-						/* get field info */
-						RecordsetField f = null;
-						if (!fakeField)
-							f = (RecordsetField)rsFlds.get(fName);
-						else
-							f = new RecordsetField(fName,"INTEGER", Types.INTEGER);
-							
-						
-						/* format value according to data type*/
-						if (f.getType()!=Types.DATE && f.getType()!=Types.TIMESTAMP )
-						{
-							/* format defined? */
-							if (fFormat==null)
-							{
-								strValue = String.valueOf(value);
-							}
-							else
-							{
-								//is a string data type?
-								if (f.getType()==Types.VARCHAR || f.getType()==Types.CHAR || f.getType()==Types.CLOB || f.getType()==Types.LONGVARCHAR)
-								{
-									if (fFormat.equals("xml"))
-									{
-										//encode special characters for xml/html output
-										strValue = encodeXML((String)value);
-									}
-									else if (fFormat.equals("html"))
-									{
-										//encode special characters for xml/html output
-										strValue = encodeHTML((String)value);
-									}
-									else if (fFormat.equals("url"))
-									{
-										//encode special characters for xml/html output
-										strValue = URLEncoder.encode((String)value, "UTF-8");
-									}
-									else if (fFormat.equals("js"))
-									{
-										//encode special characters for xml/html output
-										strValue = encodeJS((String)value);
-									}									
-									else
-									{
-										throw new Throwable("Invalid format mask for the field:" + fName);
-									}
-									
-								}
-								// it is a numeric data type
-								else
-								{
-										
-									if (_locale==null)
-										strValue = StringUtil.formatNumber(value, fFormat);
-									else
-										strValue = StringUtil.formatNumber(value, fFormat, _locale);
-	
-								}
-							}
-						}
-						else
-						{
-							/* apply default or custom date format? */
-							if (fFormat==null)
-								fFormat = defDateFmt;
-							if (_locale==null)
-								strValue = StringUtil.formatDate((java.util.Date)value, fFormat);
-							else
-								strValue = StringUtil.formatDate((java.util.Date)value, fFormat, _locale);
-						}
-						
-					}
-	
-				}	
-					
-				/* replace marker with value */
-				_template = StringUtil.replace(_template,toReplace,strValue);
-						
-			}
-			
-		}
-	
-	}
-
 	/**
 	 * HTML Control utility method.<br>
 	 * Select RadioButton control from a group of controls
@@ -1134,6 +1555,7 @@ public class TemplateEngine
 		String ctrl = "";
 		int flag = 0;
 		int pos = 0;
+		String template = text();
 	
 		while (flag >= 0)
 		{
@@ -1142,7 +1564,7 @@ public class TemplateEngine
 			String find = "<input";
 		
 			/* find it */
-			pos1 = _template.indexOf(find,pos);
+			pos1 = template.indexOf(find,pos);
 		
 			/* found? */
 			if (pos1>=0)
@@ -1150,13 +1572,13 @@ public class TemplateEngine
 				flag = 1;
 				
 				/* extract segment  from template */
-				pos2 = _template.indexOf(">", pos1);
+				pos2 = template.indexOf(">", pos1);
 				if (pos2>0)
 				{
 
 					/* extract */
 					int newpos2 = pos2 + ">".length();
-					ctrl = _template.substring(pos1, newpos2);
+					ctrl = template.substring(pos1, newpos2);
 				
 					/* check to see if this is the requested control */
 					find = "name=\"" + controlName + "\"";
@@ -1174,7 +1596,7 @@ public class TemplateEngine
 						/* replace into template */
 						if (!temp.equals(ctrl))
 						{
-							_template = StringUtil.replace(_template, ctrl, temp);
+							setText(StringUtil.replace(template, ctrl, temp));
 							return;
 						}
 						else
@@ -1231,7 +1653,7 @@ public class TemplateEngine
 	 */
 	public void setTemplate(String string)
 	{
-		_template = string;
+		setText(string);
 	}
 
 	/**
@@ -1251,20 +1673,21 @@ public class TemplateEngine
 		
 		String tagStart = "<" + tagName + ">";
 		String tagEnd = "</" + tagName + ">";
+		String template = text();
 		
 		/* find start of repeat section */
-		pos1 = _template.indexOf(tagStart);
+		pos1 = template.indexOf(tagStart);
 		if (pos1>=0)
 		{
 				
 			/* find end of repeat section */
 			int newPos = pos1 + tagStart.length();
-			pos2 = _template.indexOf(tagEnd, newPos);
+			pos2 = template.indexOf(tagEnd, newPos);
 				
 			if (pos2>0)
 			{
 				/* extract tag body */
-				return _template.substring(pos1, pos2 + tagEnd.length());
+				return template.substring(pos1, pos2 + tagEnd.length());
 			}
 			else
 			{
@@ -1297,49 +1720,10 @@ public class TemplateEngine
 			throw new Throwable("Servlet Context is null - this method can't work without a ServletContext.");
 
 		//patch june-22-2004 don't waste time
-		if (_template.indexOf("${req:")< 0 )
+		if (!contains(CompiledTemplate.REQ))
 			return;
 
-		/* parse the template and create list of label markers */
-		ArrayList<Marker> flds = getMarkers("req");
-		
-		for (int i=0; i<flds.size();i++)
-		{
-			Marker m = (Marker) flds.get(i);
-			
-			String name = m.getName();
-			
-			//PATCH 2005-04-15  - support for XML/URL encoding
-			String fmt = m.getExtraInfo(); 
-			if (fmt==null)
-				fmt = "";
-			else
-				fmt = "@" + fmt;
-			String label = "${" + "req:" + name + fmt + "}";
-			
-			/* PATCH 2004-12-06 - request markers were
-			 * being eliminated if request attribute was null, creating
-			 * problems for custom output modules that set request attributes
-			 */
-			String value = (String)_req.getAttribute(name);
-			if (value!=null)
-			{
-				if (!fmt.equals(""))
-				{
-					if (fmt.equals("@xml"))
-						value = encodeXML(value);
-					else if (fmt.equals("@html"))
-						value = encodeHTML(value);
-					else if (fmt.equals("@js"))
-						value = encodeJS(value);
-					else if (fmt.equals("@url"))
-						value = URLEncoder.encode(value, "UTF-8");
-					else
-						throw new Throwable("Invalid encoding directive for request attribute: " + name);
-				}
-				_template = StringUtil.replace(_template, label, value);
-			}
-		}		
+		render(CompiledTemplate.REQ);
 	}
 
 	/**
@@ -1354,7 +1738,7 @@ public class TemplateEngine
 			throw new Throwable("Request is null - this method can't work without a Request object.");
 
 		//patch june-22-2004 don't waste time
-		if (_template.indexOf("${ses:")< 0 )
+		if (!contains(CompiledTemplate.SES))
 			return;
 
 		//get session object
@@ -1362,26 +1746,7 @@ public class TemplateEngine
 		if (session==null)
 			return;
 
-		/* parse the template and create list of label markers */
-		ArrayList<Marker> flds = getMarkers("ses");
-		
-		for (int i=0; i<flds.size();i++)
-		{
-			Marker m = (Marker) flds.get(i);
-			String name = m.getName();
-			
-			// PATCH 2005-05-25 - test existence of session attribute
-			Object obj = session.getAttribute(name);
-			
-			if (obj==null)
-			    throw new Throwable("Cannot find Session attribute [" + name + "]; UserID: " + _req.getRemoteUser() + "; Session isNew: " + session.isNew() + "; ");
-
-			//patch 2005-06-09 - avoid errors if attribute type is not String
-			String value = String.valueOf(obj);
-			String label = "${" + "ses:" + name + "}";
-			_template = StringUtil.replace(_template, label, value);
-			
-		}		
+		render(CompiledTemplate.SES);
 
 	}
 
@@ -1442,7 +1807,7 @@ public class TemplateEngine
 	 */
 	public void replace(String toReplace, String newValue)
 	{
-		_template = StringUtil.replace(_template, toReplace, newValue);
+		setText(StringUtil.replace(text(), toReplace, newValue));
 	}
 
 	/**
@@ -1456,167 +1821,94 @@ public class TemplateEngine
 	public void setValues(dinamica.parser.FastTemplateEngine fte, ArrayList<dinamica.parser.Marker> markers, Recordset rs, String nullExpression) throws Throwable
 	{
 
-		String strValue = null;
-		Object value = null;
-		
 		/* read default date format */
+		String defDateFmt = getDefaultDateFormat();
+		
+		/* for each field marker set value */
+		for (dinamica.parser.Marker m : markers)
+		{
+			FieldFormatter f = FieldFormatter.getInstance(this, rs, m.getColumnName(), m.getFormat(), _locale, defDateFmt);
+			
+			/* recordset contains this field? */
+			if (f!=null)
+				fte.setValue(m.getKey(), f.format(rs, nullExpression));
+		}
+		
+	}
+
+	/**
+	 * Returns the default date format, defined with the context
+	 * parameter def-format-date, or dd-MM-yyyy if it is not defined
+	 */
+	private String getDefaultDateFormat()
+	{
 		String defDateFmt = null;
 		if (_ctx!=null)
 			defDateFmt = _ctx.getInitParameter("def-format-date");
 		if (defDateFmt==null || defDateFmt.equals(""))
-			defDateFmt = "dd-MM-yyyy";				
-		
-		
-		/* get recordset fields */
-		HashMap<String, RecordsetField> rsFlds = rs.getFields();
+			defDateFmt = "dd-MM-yyyy";
+		return defDateFmt;
+	}
+
+	/**
+	 * Bind the field markers of a template section to the fields of a recordset
+	 * @param seg Segments of the section
+	 * @param rs Recordset
+	 * @return Formatter of each segment, null for literals, other markers and
+	 * field markers that are not found in the recordset
+	 * @throws Throwable
+	 */
+	private FieldFormatter[] getFormatters(CompiledTemplate.Segment seg[], Recordset rs) throws Throwable
+	{
 		
-		/* parse the template and create list of field markers */
-		ArrayList<dinamica.parser.Marker> flds = markers;
+		String defDateFmt = getDefaultDateFormat();
 		
-		/* for each field marker set value */
-		Iterator<dinamica.parser.Marker> i = flds.iterator();
-		while (i.hasNext())
+		FieldFormatter fmt[] = new FieldFormatter[seg.length];
+		HashMap<String, FieldFormatter> markers = new HashMap<String, FieldFormatter>();
+		for (int i = 0; i < seg.length; i++)
 		{
-
-			String formatPluginName = null;
-			IFormatPlugin fmtObj = null;
-			FormatPluginParser fpp = null;
-
-		    /* get next marker */
-			dinamica.parser.Marker m = (dinamica.parser.Marker)i.next();
-			String fName = m.getColumnName();
-			String fFormat = m.getFormat();
-
-			/* determine if it is an special field (rowNumber/rowIndex) otherwise if the field exists */
-			boolean found = true;
-			boolean fakeField = false;
-			if (!fName.equals("_rowNumber") && !fName.equals("_rowIndex"))
+			if (seg[i].type!=CompiledTemplate.FLD)
+				continue;
+			
+			if (seg[i].error!=null)
+				throw new Throwable(seg[i].error);
+			
+			/* same marker more than once - share the formatter */
+			if (markers.containsKey(seg[i].text))
 			{
-				if (!rsFlds.containsKey(fName)) 
-					found = false;
+				fmt[i] = markers.get(seg[i].text);
 			}
 			else
 			{
-				fakeField = true;
-			}
-							
-			
-			/* recordset contains this field? */
-			if (found)
-			{
-
-			    if (fFormat!=null)
-			    {
-					//PATCH 2005-05-23 - get plugin name if available
-					if (fFormat.startsWith("class:"))
-					{
-					    formatPluginName = fFormat.substring(6);
-					    fpp = new FormatPluginParser(formatPluginName); 
-					    fmtObj = (IFormatPlugin)Thread.currentThread().getContextClassLoader().loadClass(fpp.getName()).newInstance();
-					}			        
-			    }
-			    
-				/* get field value */
-				value = rs.getValue(fName);
-
-				if (fmtObj!=null)
-				{
-				    strValue = fmtObj.format(fName, rs, _locale, fpp.getArgs());
-				}
-				else
-				{
-					/* apply appropiate null representation */
-					if (value==null) 
-					{
-						strValue=nullExpression;
-					}
-					else
-					{
-						
-
-					    /* get field info */
-						RecordsetField f = null;
-						if (!fakeField)
-							f = (RecordsetField)rsFlds.get(fName);
-						else
-							f = new RecordsetField(fName,"INTEGER", Types.INTEGER);
-							
-						
-						/* format value according to data type*/
-						if (f.getType()!=Types.DATE && f.getType()!=Types.TIMESTAMP )
-						{
-							/* format defined? */
-							if (fFormat==null)
-							{
-								strValue = String.valueOf(value);
-							}
-							else
-							{
-								//is a string data type?
-								if (f.getType()==Types.VARCHAR || f.getType()==Types.CHAR || f.getType()==Types.CLOB )
-								{
-									if (fFormat.equals("xml"))
-									{
-										//encode special characters for xml/html output
-										strValue = encodeXML((String)value);
-									}
-									else if (fFormat.equals("html"))
-									{
-										//encode special characters for xml/html output
-										strValue = encodeHTML((String)value);
-									}
-									else if (fFormat.equals("url"))
-									{
-										//encode special characters for xml/html output
-										strValue = URLEncoder.encode((String)value, "UTF-8");
-									}
-									else if (fFormat.equals("js"))
-									{
-										//encode special characters for xml/html output
-										strValue = encodeJS((String)value);
-									}										
-									else
-									{
-										throw new Throwable("Invalid format mask for the field:" + fName);
-									}
-									
-								}
-								// it is a numeric data type
-								else
-								{
-										
-									if (_locale==null)
-										strValue = StringUtil.formatNumber(value, fFormat);
-									else
-										strValue = StringUtil.formatNumber(value, fFormat, _locale);
-	
-								}
-							}
-						}
-						else
-						{
-							/* apply default or custom date format? */
-							if (fFormat==null)
-								fFormat = defDateFmt;
-							if (_locale==null)
-								strValue = StringUtil.formatDate((java.util.Date)value, fFormat);
-							else
-								strValue = StringUtil.formatDate((java.util.Date)value, fFormat, _locale);
-						}
-						
-					}
-				
-				}
-					
-				// set value
-				fte.setValue(m.getKey(), strValue);
-						
+				fmt[i] = FieldFormatter.getInstance(this, rs, seg[i].marker.getName(), seg[i].marker.getExtraInfo(), _locale, defDateFmt);
+				markers.put(seg[i].text, fmt[i]);
 			}
-			
 		}
+		return fmt;
 		
 	}
 
+	/**
+	 * Append a section of the template replacing the field markers
+	 * with the values of the current record
+	 * @param buf Buffer
+	 * @param seg Segments of the section
+	 * @param fmt Formatter of each segment, see getFormatters()
+	 * @param rs Recordset positioned on a valid record
+	 * @param nullValueExpr String used to represent a null value
+	 * @throws Throwable
+	 */
+	private void appendRow(StringBuilder buf, CompiledTemplate.Segment seg[], FieldFormatter fmt[], Recordset rs, String nullValueExpr) throws Throwable
+	{
+		for (int i = 0; i < seg.length; i++)
+		{
+			if (fmt[i]==null)
+				buf.append(seg[i].text);
+			else
+				buf.append(fmt[i].format(rs, nullValueExpr));
+		}
+	}
+
 	/**
 	 * Replace all markers of type ${fld:xxx} with an empty string "".<br>
 	 * Added on Aug-30-2005 to support a new print mode="clear" in config.xml.
@@ -1625,30 +1917,9 @@ public class TemplateEngine
 	public void clearFieldMarkers() throws Throwable
 	{
 
-		String toReplace = null;
-		
-		/* parse the template and create list of field markers */
-		ArrayList<Marker> flds = getMarkers("fld");
-		
-		/* for each field marker set value */
-		Iterator<Marker> i = flds.iterator();
-		while (i.hasNext())
-		{
-
-			/* get next marker */
-			Marker m = (Marker)i.next();
-			String fName = m.getName();
-			String fFormat = m.getExtraInfo();
-
-			if (fFormat!=null)
-				toReplace = "${fld:" + fName + "@" + fFormat + "}";
-			else
-				toReplace = "${fld:" + fName + "}";
-				
-			/* replace marker with value */
-			_template = StringUtil.replace(_template,toReplace,"");
-						
-		}
+		MarkerResolver r = new MarkerResolver();
+		r.clear = true;
+		render(r, CompiledTemplate.FLD);
 		
 	}
 	
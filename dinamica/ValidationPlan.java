@@ -0,0 +1,236 @@
+package dinamica;
+
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+import dinamica.xml.*;
+
+/**
+ * Compiled form of a validator.xml file, used by the Controller
+ * to validate request parameters without reading and parsing the XML
+ * file on every request. Regular expressions are precompiled, numeric
+ * bounds are parsed, the structure of the input recordset is built once
+ * and the classes of the custom validators are resolved only once.
+ * Instances of this class are cached by the ActionRegistry and shared by
+ * all the requests of the same Action, they must not be modified after
+ * construction.
+ * <br>
+ * Creation date: 2010-06-16<br>
+ * (c) 2010 Martin Cordova y Asociados C.A.<br>
+ * This code is released under the LGPL license<br>
+ * @author Martin Cordova y Asociados C.A.
+ */
+public class ValidationPlan
+{
+
+	/**
+	 * Validation rule for a request parameter
+	 */
+	static class Rule
+	{
+		String id = null;
+		String label = null;
+		int sqlType = 0;
+		boolean required = false;
+		int maxLen = 0;
+		Pattern regexp = null;
+		String regexpError = null;
+		Double minDouble = null;
+		Double maxDouble = null;
+		Integer minInteger = null;
+		Integer maxInteger = null;
+	}
+
+	/**
+	 * Custom validator definition
+	 */
+	static class CustomValidator
+	{
+		String id = null;
+		String className = null;
+		String onErrorLabel = null;
+		HashMap<String, String> attributes = null;
+	}
+
+	/** validator.xml path - for error messages */
+	String _file = null;
+
+	/** custom errors display action to override /action/error/validation */
+	String _onErrorAction = null;
+
+	/** inputParams recordset can be saved in session using this ID */
+	String _sessionID = "";
+
+	/** parameter rules in document order */
+	Rule[] _rules = null;
+
+	/** custom validators in document order */
+	CustomValidator[] _validators = null;
+
+	/** structure of the input recordset */
+	HashMap<String, RecordsetField> _fields = null;
+
+	/**
+	 * Compile a validator.xml file
+	 * @param xmlData Body of validator.xml, macros already replaced
+	 * @param file Path of validator.xml - for error messages
+	 * @throws Throwable If the file is not a valid validator definition
+	 */
+	public ValidationPlan(String xmlData, String file) throws Throwable
+	{
+
+		_file = file;
+
+		Document xml = new Document( xmlData );
+		Element root = xml.getRoot();
+
+		_onErrorAction = root.getAttribute("onerror");
+
+		String sessionID = root.getAttribute("id");
+		if (sessionID!=null)
+			_sessionID = sessionID;
+
+		/* parameters */
+		Recordset layout = new Recordset();
+		Element elements[] = xml.getElements( "parameter" );
+		_rules = new Rule[elements.length];
+		for (int i = 0; i < elements.length; i++)
+		{
+
+			Element param = elements[i];
+			Rule r = new Rule();
+
+			/* read attributes */
+			r.id = param.getAttribute( "id" );
+			if (r.id==null)
+				throw new Exception ("Invalid Validator. Attribute [id] not found: " + file);
+
+			String type = param.getAttribute( "type" );
+			if (type==null)
+				throw new Exception ("Invalid Validator. Attribute [type] not found: " + file);
+
+			String required = param.getAttribute( "required" );
+			if (required==null)
+				throw new Exception ("Invalid Validator. Attribute [required] not found: " + file);
+			r.required = required.equals("true");
+
+			String label = param.getAttribute( "label" );
+			if (label==null)
+				throw new Exception ("Invalid Validator. Attribute [label] not found: " + file);
+
+			//patch 2007-07-16 - label in bold
+			r.label = "<b>" + label + "</b>";
+
+			/* validate type attribute */
+			if (type.equals("varchar"))
+				r.sqlType = Types.VARCHAR;
+			else if (type.equals("integer"))
+				r.sqlType = Types.INTEGER;
+			else if (type.equals("double"))
+				r.sqlType = Types.DOUBLE;
+			else if (type.equals("date"))
+				r.sqlType = Types.DATE;
+			else
+				throw new Exception("Invalid validator data type (" + type + ") in file: " + file);
+
+			String maxLen = param.getAttribute( "maxlen" );
+			if (maxLen!=null)
+				r.maxLen = Integer.parseInt(maxLen);
+
+			String regexp = param.getAttribute( "regexp" );
+			if (r.sqlType==Types.VARCHAR && regexp!=null)
+				r.regexp = Pattern.compile(regexp);
+			r.regexpError = param.getAttribute( "regexp-error-label" );
+
+			/* numeric bounds */
+			String minValue = param.getAttribute( "min" );
+			String maxValue = param.getAttribute( "max" );
+			if (r.sqlType==Types.DOUBLE)
+			{
+				if (minValue!=null)
+					r.minDouble = Double.valueOf(minValue);
+				if (maxValue!=null)
+					r.maxDouble = Double.valueOf(maxValue);
+			}
+			else if (r.sqlType==Types.INTEGER)
+			{
+				if (minValue!=null)
+					r.minInteger = Integer.valueOf(minValue);
+				if (maxValue!=null)
+					r.maxInteger = Integer.valueOf(maxValue);
+			}
+
+			_rules[i] = r;
+			layout.append(r.id, r.sqlType);
+
+		}
+		_fields = layout.getFields();
+
+		/* custom validators */
+		Element valds[] = xml.getElements("custom-validator");
+		_validators = new CustomValidator[valds.length];
+		for (int i = 0; i < valds.length; i++)
+		{
+
+			Element validator = valds[i];
+			CustomValidator v = new CustomValidator();
+
+			v.className = validator.getAttribute( "classname" );
+			v.onErrorLabel = validator.getAttribute( "on-error-label" );
+
+			//patch 2008-01-31 - for ExtJS requested by M.Betti
+			v.id = validator.getAttribute( "id" );
+			if (v.id==null)
+				v.id = "";
+			//end patch
+
+			/* custom attributes */
+			v.attributes = validator.getAttributes();
+
+			_validators[i] = v;
+
+		}
+
+	}
+
+	/**
+	 * Creates the recordset that will hold the request parameters,
+	 * using the prebuilt structure, with one empty record
+	 * @return Recordset with ID "_request"
+	 * @throws Throwable
+	 */
+	Recordset getInputRecordset() throws Throwable
+	{
+		Recordset inputs = new Recordset();
+		inputs.setID("_request");
+		inputs.setFields(new HashMap<String, RecordsetField>(_fields));
+		inputs.addNew();
+		return inputs;
+	}
+
+	/**
+	 * Creates a new instance of a custom validator. Validators
+	 * keep request state, so a new instance is created every time,
+	 * but the class is loaded only once.
+	 * @param v Custom validator definition
+	 * @return New validator object
+	 * @throws Throwable
+	 */
+	AbstractValidator getValidator(CustomValidator v) throws Throwable
+	{
+		return (AbstractValidator)ClassCache.newInstance(v.className);
+	}
+
+	/**
+	 * Returns a copy of the custom attributes of a validator,
+	 * validators receive their own copy because they may modify it
+	 * @param v Custom validator definition
+	 * @return HashMap with attribute names and values
+	 */
+	HashMap<String, String> getAttributes(CustomValidator v)
+	{
+		return new HashMap<String, String>(v.attributes);
+	}
+
+}
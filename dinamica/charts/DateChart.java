@@ -12,7 +12,7 @@ import org.jfree.chart.plot.*;
  * Last update: 27/06/2006
  * @author Martin Cordova (dinamica@martincordova.com)
  */
-public class DateChart extends AbstractChartPlugin
+public class DateChart extends AbstractChartPlugin implements IStateless
 {
 
 	/* (non-Javadoc)
@@ -15,7 +15,7 @@ import org.jfree.chart.renderer.category.LineAndShapeRenderer;
  * Last update: 18/11/2003
  * @author Martin Cordova (dinamica@martincordova.com)
  */
-public class LineChart extends AbstractChartPlugin
+public class LineChart extends AbstractChartPlugin implements IStateless
 {
 
 	/* (non-Javadoc)
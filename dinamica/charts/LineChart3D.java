@@ -14,7 +14,7 @@ import org.jfree.chart.plot.*;
  * Last update: 24/july/2005
  * @author Martin Cordova (dinamica@martincordova.com)
  */
-public class LineChart3D extends AbstractChartPlugin
+public class LineChart3D extends AbstractChartPlugin implements IStateless
 {
 
 	/* (non-Javadoc)
@@ -13,7 +13,7 @@ import org.jfree.chart.labels.*;
  * Last update: 24/july/2005
  * @author Martin Cordova (dinamica@martincordova.com)
  */
-public class PieChart extends AbstractChartPlugin
+public class PieChart extends AbstractChartPlugin implements IStateless
 {
 
 	/* (non-Javadoc)
@@ -13,7 +13,7 @@ import org.jfree.chart.labels.*;
  * Last update: 20/july/2005
  * @author Martin Cordova (dinamica@martincordova.com)
  */
-public class PieChart3D extends AbstractChartPlugin
+public class PieChart3D extends AbstractChartPlugin implements IStateless
 {
 
 	/* (non-Javadoc)
@@ -14,7 +14,7 @@ import org.jfree.chart.labels.*;
  * Last update: 23/july/2005
  * @author Martin Cordova (dinamica@martincordova.com)
  */
-public class RingChart extends AbstractChartPlugin
+public class RingChart extends AbstractChartPlugin implements IStateless
 {
 
 	/* (non-Javadoc)
@@ -15,7 +15,7 @@ import org.jfree.chart.plot.*;
  * Last update: 18/11/2003
  * @author Martin Cordova (dinamica@martincordova.com)
  */
-public class VerticalBarChart extends AbstractChartPlugin
+public class VerticalBarChart extends AbstractChartPlugin implements IStateless
 {
 
 	/* (non-Javadoc)
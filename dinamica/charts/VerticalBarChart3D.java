@@ -15,7 +15,7 @@ import org.jfree.chart.renderer.category.BarRenderer3D;
  * Last update: 18/11/2003
  * @author Martin Cordova (dinamica@martincordova.com)
  */
-public class VerticalBarChart3D extends AbstractChartPlugin
+public class VerticalBarChart3D extends AbstractChartPlugin implements IStateless
 {
 
 	/* (non-Javadoc)
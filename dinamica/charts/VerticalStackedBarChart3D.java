@@ -12,7 +12,7 @@ import org.jfree.chart.plot.*;
  * Last update: 18/11/2003
  * @author Martin Cordova (dinamica@martincordova.com)
  */
-public class VerticalStackedBarChart3D extends AbstractChartPlugin
+public class VerticalStackedBarChart3D extends AbstractChartPlugin implements IStateless
 {
 
 	/* (non-Javadoc)
@@ -13,7 +13,7 @@ import org.jfree.chart.plot.*;
  * Last update: 18/11/2003
  * @author Martin Cordova (dinamica@martincordova.com)
  */
-public class XYAreaChart extends AbstractChartPlugin
+public class XYAreaChart extends AbstractChartPlugin implements IStateless
 {
 
 	/* (non-Javadoc)
@@ -13,7 +13,7 @@ import org.jfree.chart.plot.*;
  * Last update: 18/11/2003
  * @author Martin Cordova (dinamica@martincordova.com)
  */
-public class XYBarChart extends AbstractChartPlugin
+public class XYBarChart extends AbstractChartPlugin implements IStateless
 {
 
 	/* (non-Javadoc)
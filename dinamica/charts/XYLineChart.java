@@ -13,7 +13,7 @@ import org.jfree.chart.plot.*;
  * Last update: 18/11/2003
  * @author Martin Cordova (dinamica@martincordova.com)
  */
-public class XYLineChart extends AbstractChartPlugin
+public class XYLineChart extends AbstractChartPlugin implements IStateless
 {
 
 	/* (non-Javadoc)
@@ -26,7 +26,7 @@ import dinamica.*;
  * Dinamica Framework - http://www.martincordova.com<br>
  * @author Martin Cordova (dinamica@martincordova.com)
  */
-public class AltCellColor implements IFormatPlugin
+public class AltCellColor implements IFormatPlugin, IStateless
 {
 
     /* (non-Javadoc)
@@ -43,6 +43,10 @@ public class CheckDuplicateInSession extends AbstractValidator {
 		Recordset rs = (Recordset)getSession().getAttribute((String)attribs.get("recordset"));
 		if(rs != null) {
 			rs.top();
+			//patch 2010-07-12 - indexar la columna para no recorrer el recordset en cada validacion
+			String colName = attribs.get("colname");
+			if (rs.containsField(colName) && !rs.hasIndex(colName))
+				rs.createIndex(colName);
 			//obtener el tipo de dato del campo para asi poder realizar la verificacion
 			RecordsetField rf = inputParams.getField((String)attribs.get("colname"));
 			switch (rf.getType()) {
@@ -40,6 +40,7 @@ public class Document {
         dbf.setNamespaceAware(false);
         dbf.setIgnoringElementContentWhitespace(true);
         dbf.setIgnoringComments(true);
+        setNoDeferredExpansion(dbf);
         
         //parsear el documento y crear el objeto XPath para las busquedas
         DocumentBuilder db = dbf.newDocumentBuilder();
@@ -68,6 +69,7 @@ public class Document {
         dbf.setNamespaceAware(false);
         dbf.setIgnoringElementContentWhitespace(true);
         dbf.setIgnoringComments(true);
+        setNoDeferredExpansion(dbf);
         
         
         //parsear el documento y crear el objeto XPath para las busquedas
@@ -110,7 +112,10 @@ public class Document {
 	 */
 	public dinamica.xml.Element getElement(String tagName) throws XPathExpressionException
 	{
-		Node node = (Node)_xpath.evaluate(tagName, _root, XPathConstants.NODE);
+		Node node = null;
+		synchronized (_doc) {
+			node = (Node)_xpath.evaluate(tagName, _root, XPathConstants.NODE);
+		}
 		if (node==null) 
 			return null;
 		else
@@ -127,7 +132,10 @@ public class Document {
 	 */
 	public dinamica.xml.Element getElement(Element e, String tagName) throws XPathExpressionException 
 	{
-		Node node = (Node)_xpath.evaluate(tagName, e.getNode(), XPathConstants.NODE);
+		Node node = null;
+		synchronized (_doc) {
+			node = (Node)_xpath.evaluate(tagName, e.getNode(), XPathConstants.NODE);
+		}
 		if (node==null) 
 			return null;
 		else
@@ -143,16 +151,18 @@ public class Document {
 	
 	public dinamica.xml.Element[] getElements(String tagName) throws XPathExpressionException
 	{
-		NodeList nodes = (NodeList)_xpath.evaluate(tagName, _root, XPathConstants.NODESET);
-		if (nodes==null) 
-			return null;
-		else {
-			int nlen = nodes.getLength();
-			Element elems[] = new Element[nlen];
-			for (int i = 0; i < nlen; i++) {
-				elems[i] = new Element(nodes.item(i));
+		synchronized (_doc) {
+			NodeList nodes = (NodeList)_xpath.evaluate(tagName, _root, XPathConstants.NODESET);
+			if (nodes==null) 
+				return null;
+			else {
+				int nlen = nodes.getLength();
+				Element elems[] = new Element[nlen];
+				for (int i = 0; i < nlen; i++) {
+					elems[i] = new Element(nodes.item(i));
+				}
+				return elems;
 			}
-			return elems;
 		}
 	}
 	
@@ -174,16 +184,35 @@ public class Document {
 	 */
 	public dinamica.xml.Element[] getElements(Element e) throws XPathExpressionException
 	{
-		NodeList nodes = e.getNode().getChildNodes();
-		if (nodes==null) 
-			return null;
-		else {
-			int nlen = nodes.getLength();
-			Element elems[] = new Element[nlen];
-			for (int i = 0; i < nlen; i++) {
-				elems[i] = new Element(nodes.item(i));
+		synchronized (_doc) {
+			NodeList nodes = e.getNode().getChildNodes();
+			if (nodes==null) 
+				return null;
+			else {
+				int nlen = nodes.getLength();
+				Element elems[] = new Element[nlen];
+				for (int i = 0; i < nlen; i++) {
+					elems[i] = new Element(nodes.item(i));
+				}
+				return elems;
 			}
-			return elems;
+		}
+	}
+	
+	/**
+	 * Desactiva la expansion diferida de nodos del parser (Xerces), de modo
+	 * que el DOM quede completamente construido al terminar el parsing y
+	 * pueda ser consultado por varios threads a la vez, como ocurre con los
+	 * config.xml que se mantienen en cache (ver ActionRegistry). Las busquedas
+	 * XPath se sincronizan sobre el documento porque el objeto XPath no es thread-safe.
+	 * @param dbf Factory a configurar
+	 */
+	static void setNoDeferredExpansion(DocumentBuilderFactory dbf) 
+	{
+		try {
+			dbf.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+		} catch (ParserConfigurationException e) {
+			//parser distinto de Xerces, no aplica
 		}
 	}
 	
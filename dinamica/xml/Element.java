@@ -98,17 +98,20 @@ public class Element {
 	*/
 	public String[] getChildNames()
 	{
-		NodeList nodes = getNode().getChildNodes();
-		if (nodes==null) 
-			return null;
-		else {
-			int nlen = nodes.getLength();
-			String nodeName[] = new String[nlen];
-			for (int i = 0; i < nlen; i++) {
-				Node n =  nodes.item(i);
-				nodeName[i] = n.getNodeName();
+		//la lista de hijos usa un cache compartido del documento, ver Document
+		synchronized (_node.getOwnerDocument()) {
+			NodeList nodes = getNode().getChildNodes();
+			if (nodes==null) 
+				return null;
+			else {
+				int nlen = nodes.getLength();
+				String nodeName[] = new String[nlen];
+				for (int i = 0; i < nlen; i++) {
+					Node n =  nodes.item(i);
+					nodeName[i] = n.getNodeName();
+				}
+				return nodeName;
 			}
-			return nodeName;
 		}
 	}	
 	